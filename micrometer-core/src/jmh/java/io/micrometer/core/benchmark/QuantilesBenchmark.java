@@ -42,6 +42,13 @@ public class QuantilesBenchmark {
     private Quantiles gk;
     private Quantiles window;
 
+    /**
+     * Estimators that have already seen a full window of samples, to measure queries.
+     */
+    private Quantiles ckmsPopulated;
+    private Quantiles gkPopulated;
+    private Quantiles windowPopulated;
+
     @Setup
     public void setup() {
         ckms = CKMSQuantiles
@@ -59,6 +66,16 @@ public class QuantilesBenchmark {
 
         window = WindowSketchQuantiles.quantiles(0.5, 0.99)
                 .create();
+
+        ckmsPopulated = CKMSQuantiles.quantile(0.5, 0.05).quantile(0.99, 0.01).create();
+        gkPopulated = GKQuantiles.quantiles(0.5, 0.99).create();
+        windowPopulated = WindowSketchQuantiles.quantiles(0.5, 0.99).create();
+        for (int i = 0; i < 40000; i++) {
+            double sample = Math.max(0.0, dist.nextDouble());
+            ckmsPopulated.observe(sample);
+            gkPopulated.observe(sample);
+            windowPopulated.observe(sample);
+        }
     }
 
     @Benchmark
@@ -81,6 +98,30 @@ public class QuantilesBenchmark {
         window.observe(Math.max(0.0, dist.nextDouble()));
     }
 
+    @Benchmark
+    public double ckmsQuantilesGet() {
+        return ckmsPopulated.get(0.99);
+    }
+
+    @Benchmark
+    public double gkQuantilesGet() {
+        return gkPopulated.get(0.99);
+    }
+
+    @Benchmark
+    public double windowQuantilesGet() {
+        return windowPopulated.get(0.99);
+    }
+
+    /**
+     * Each observation invalidates the window's cached summary, so this measures assembling it.
+     */
+    @Benchmark
+    public double windowQuantilesObserveAndGet() {
+        windowPopulated.observe(Math.max(0.0, dist.nextDouble()));
+        return windowPopulated.get(0.99);
+    }
+
     public static void main(String[] args) throws RunnerException {
         Options opt = new OptionsBuilder()
                 .include(QuantilesBenchmark.class.getSimpleName())
@@ -0,0 +1,84 @@
+/**
+ * Copyright 2017 Pivotal Software, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.micrometer.core.benchmark;
+
+import cern.jet.random.Normal;
+import cern.jet.random.engine.MersenneTwister64;
+import cern.jet.random.engine.RandomEngine;
+
+/**
+ * Sample distributions that quantile implementations are compared on, modeled after the shapes of real timers and
+ * distribution summaries rather than on a normal distribution alone.
+ */
+public enum QuantilesDistribution {
+    /**
+     * Symmetric around 100, truncated at zero.
+     */
+    NORMAL {
+        @Override
+        double sample(RandomEngine engine, Normal normal) {
+            return Math.max(0, 100 + 50 * normal.nextDouble());
+        }
+    },
+
+    /**
+     * A long right tail spanning several orders of magnitude, typical of request latency.
+     */
+    LOG_NORMAL {
+        @Override
+        double sample(RandomEngine engine, Normal normal) {
+            return Math.exp(3 + 1.5 * normal.nextDouble());
+        }
+    },
+
+    /**
+     * A mixture of fast cache hits and slow cache misses, which has few samples around the median.
+     */
+    BIMODAL {
+        @Override
+        double sample(RandomEngine engine, Normal normal) {
+            return engine.nextDouble() < 0.7 ?
+                Math.max(0, 50 + 10 * normal.nextDouble()) :
+                Math.max(0, 500 + 50 * normal.nextDouble());
+        }
+    },
+
+    /**
+     * Log-normal latencies above a minimum processing time, with everything slower than an HTTP client timeout piled
+     * up at the timeout. The left and right cliffs are where standard deviation and interpolation break down.
+     */
+    TIMEOUT_CLIFF {
+        @Override
+        double sample(RandomEngine engine, Normal normal) {
+            return Math.min(Math.max(Math.exp(4 + normal.nextDouble()), 20), 1000);
+        }
+    };
+
+    abstract double sample(RandomEngine engine, Normal normal);
+
+    /**
+     * @return {@code n} samples, the same for a given seed.
+     */
+    public double[] samples(int n, long seed) {
+        RandomEngine engine = new MersenneTwister64((int) seed);
+        Normal normal = new Normal(0, 1, engine);
+        double[] samples = new double[n];
+        for (int i = 0; i < n; i++) {
+            samples[i] = sample(engine, normal);
+        }
+        return samples;
+    }
+}
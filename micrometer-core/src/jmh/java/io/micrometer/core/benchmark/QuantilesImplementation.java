@@ -0,0 +1,139 @@
+/**
+ * Copyright 2017 Pivotal Software, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.micrometer.core.benchmark;
+
+import io.micrometer.core.instrument.stats.hist.CumulativeHistogram;
+import io.micrometer.core.instrument.stats.hist.Histogram;
+import io.micrometer.core.instrument.stats.quantile.*;
+
+import java.util.Collection;
+
+/**
+ * Every {@link Quantiles} implementation, configured to monitor the same quantiles with comparable error targets.
+ */
+public enum QuantilesImplementation {
+    CKMS(false) {
+        @Override
+        Quantiles create() {
+            return CKMSQuantiles.quantile(0.5, 0.01).quantile(0.9, 0.01).quantile(0.99, 0.001).create();
+        }
+    },
+    BUFFERED_CKMS(true) {
+        @Override
+        Quantiles create() {
+            return BufferedCKMSQuantiles.quantile(0.5, 0.01).quantile(0.9, 0.01).quantile(0.99, 0.001).create();
+        }
+    },
+    FRUGAL2U(false) {
+        @Override
+        Quantiles create() {
+            return Frugal2UQuantiles.quantile(0.5, 0).quantile(0.9, 0).quantile(0.99, 0).create();
+        }
+    },
+    STRIPED_FRUGAL2U(true) {
+        @Override
+        Quantiles create() {
+            return StripedFrugal2UQuantiles.quantile(0.5, 0).quantile(0.9, 0).quantile(0.99, 0).create();
+        }
+    },
+    GK(false) {
+        @Override
+        Quantiles create() {
+            return GKQuantiles.quantiles(MONITORED).error(0.01).create();
+        }
+    },
+    PRIMITIVE_GK(true) {
+        @Override
+        Quantiles create() {
+            return PrimitiveGKQuantiles.quantiles(MONITORED).error(0.01).create();
+        }
+    },
+    WINDOW_SKETCH(true) {
+        @Override
+        Quantiles create() {
+            return WindowSketchQuantiles.quantiles(MONITORED).error(0.01).create();
+        }
+    },
+    TIME_WINDOW(true) {
+        @Override
+        Quantiles create() {
+            return TimeWindowQuantiles.quantiles(MONITORED).error(0.01).create();
+        }
+    },
+    DDSKETCH(true) {
+        @Override
+        Quantiles create() {
+            return DDSketchQuantiles.quantiles(MONITORED).relativeAccuracy(0.01).create();
+        }
+    },
+    HISTOGRAM(true) {
+        @Override
+        Quantiles create() {
+            Histogram<Double> histogram = CumulativeHistogram.buckets(CumulativeHistogram.exponential(1, 1.25, 50));
+            return HistogramQuantiles.quantiles(MONITORED).histogram(histogram).create();
+        }
+    };
+
+    static final double[] MONITORED = {0.5, 0.9, 0.99};
+
+    /**
+     * Whether the implementation can be recorded to from several threads at once. Others are guarded by a lock when
+     * benchmarked with multiple threads, as they would have to be in an application.
+     */
+    final boolean threadSafe;
+
+    QuantilesImplementation(boolean threadSafe) {
+        this.threadSafe = threadSafe;
+    }
+
+    abstract Quantiles create();
+
+    /**
+     * @return A new instance that is safe to record to from several threads.
+     */
+    Quantiles createConcurrent() {
+        Quantiles quantiles = create();
+        return threadSafe ? quantiles : new Synchronized(quantiles);
+    }
+
+    private static class Synchronized implements Quantiles {
+        private final Quantiles delegate;
+
+        Synchronized(Quantiles delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public synchronized void observe(double value) {
+            delegate.observe(value);
+        }
+
+        @Override
+        public synchronized Double get(double percentile) {
+            return delegate.get(percentile);
+        }
+
+        @Override
+        public synchronized double[] getMonitored(double[] values) {
+            return delegate.getMonitored(values);
+        }
+
+        @Override
+        public Collection<Double> monitored() {
+            return delegate.monitored();
+        }
+    }
+}
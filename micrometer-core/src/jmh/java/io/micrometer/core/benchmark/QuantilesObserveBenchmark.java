@@ -0,0 +1,67 @@
+/**
+ * Copyright 2017 Pivotal Software, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.micrometer.core.benchmark;
+
+import io.micrometer.core.instrument.stats.quantile.Quantiles;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of recording to one shared instance of each implementation from several threads at once, as a busy
+ * timer would be. Implementations that are not thread-safe are measured behind a lock.
+ */
+@Warmup(iterations = 5)
+@Fork(value = 1)
+@Measurement(iterations = 10)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Threads(4)
+@State(Scope.Benchmark)
+public class QuantilesObserveBenchmark {
+    @Param
+    public QuantilesImplementation implementation;
+
+    @Param
+    public QuantilesDistribution distribution;
+
+    private Quantiles quantiles;
+
+    @State(Scope.Thread)
+    public static class Samples {
+        double[] samples;
+        int next;
+
+        @Setup
+        public void setup(QuantilesObserveBenchmark benchmark) {
+            samples = benchmark.distribution.samples(1 << 16, Thread.currentThread().getId());
+        }
+
+        double next() {
+            return samples[next++ & (samples.length - 1)];
+        }
+    }
+
+    @Setup
+    public void setup() {
+        quantiles = implementation.createConcurrent();
+    }
+
+    @Benchmark
+    public void observe(Samples samples) {
+        quantiles.observe(samples.next());
+    }
+}
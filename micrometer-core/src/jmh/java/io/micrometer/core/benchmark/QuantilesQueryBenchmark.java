@@ -0,0 +1,64 @@
+/**
+ * Copyright 2017 Pivotal Software, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.micrometer.core.benchmark;
+
+import io.micrometer.core.instrument.stats.quantile.Quantiles;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency of reading every monitored quantile from an instance of each implementation that has already seen a large
+ * number of samples, both when nothing changed since the last read and, as is usual between scrapes, when it did.
+ */
+@Warmup(iterations = 5)
+@Fork(value = 1)
+@Measurement(iterations = 10)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Benchmark)
+public class QuantilesQueryBenchmark {
+    @Param
+    public QuantilesImplementation implementation;
+
+    @Param
+    public QuantilesDistribution distribution;
+
+    private Quantiles quantiles;
+    private double[] samples;
+    private double[] values;
+    private int next;
+
+    @Setup
+    public void setup() {
+        quantiles = implementation.create();
+        samples = distribution.samples(1 << 16, 0);
+        for (int i = 0; i < 100000; i++) {
+            quantiles.observe(samples[i & (samples.length - 1)]);
+        }
+    }
+
+    @Benchmark
+    public double[] getMonitored() {
+        return values = quantiles.getMonitored(values);
+    }
+
+    @Benchmark
+    public double[] observeAndGetMonitored() {
+        quantiles.observe(samples[next++ & (samples.length - 1)]);
+        return values = quantiles.getMonitored(values);
+    }
+}
@@ -0,0 +1,159 @@
+/**
+ * Copyright 2017 Pivotal Software, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.micrometer.core.benchmark;
+
+import io.micrometer.core.instrument.stats.quantile.Quantiles;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.openjdk.jmh.runner.options.TimeValue;
+
+import java.util.*;
+
+/**
+ * Compares every {@link Quantiles} implementation on each {@link QuantilesDistribution} and prints one table of:
+ * <ul>
+ * <li>the worst rank error of any monitored quantile, as a fraction of the number of samples,</li>
+ * <li>the worst error of any monitored quantile relative to the exact value at its rank,</li>
+ * <li>the heap retained by one instance after it has seen every sample,</li>
+ * <li>the throughput of {@link QuantilesObserveBenchmark} and latency of {@link QuantilesQueryBenchmark}.</li>
+ * </ul>
+ * Pass {@code --no-jmh} to only measure accuracy and memory, which takes a couple of minutes rather than the half hour
+ * or so the benchmarks take.
+ */
+public class QuantilesReport {
+    private static final int SAMPLES = 50000;
+    private static final int INSTANCES_FOR_MEMORY = 8;
+
+    public static void main(String[] args) throws RunnerException {
+        boolean jmh = !Arrays.asList(args).contains("--no-jmh");
+
+        Map<String, Double> observeThroughput = new HashMap<>();
+        Map<String, Double> queryLatency = new HashMap<>();
+        if (jmh) {
+            runBenchmark(QuantilesObserveBenchmark.class.getSimpleName() + ".observe", observeThroughput);
+            runBenchmark(QuantilesQueryBenchmark.class.getSimpleName() + ".observeAndGetMonitored", queryLatency);
+        }
+
+        System.out.println(String.format("%-18s %-14s %12s %12s %14s %16s %14s",
+            "implementation", "distribution", "rank error", "rel. error", "retained (B)", "observe (ops/us)", "query (ns)"));
+
+        for (QuantilesDistribution distribution : QuantilesDistribution.values()) {
+            double[] samples = distribution.samples(SAMPLES, 42);
+            double[] sorted = samples.clone();
+            Arrays.sort(sorted);
+
+            for (QuantilesImplementation implementation : QuantilesImplementation.values()) {
+                Quantiles quantiles = implementation.create();
+                for (double sample : samples) {
+                    quantiles.observe(sample);
+                }
+
+                double rankError = 0;
+                double relativeError = 0;
+                double[] estimates = quantiles.getMonitored(null);
+                for (int i = 0; i < QuantilesImplementation.MONITORED.length; i++) {
+                    double q = QuantilesImplementation.MONITORED[i];
+                    double exact = sorted[(int) Math.min(sorted.length - 1, Math.ceil(q * sorted.length) - 1)];
+                    rankError = Math.max(rankError, rankError(sorted, estimates[i], q));
+                    relativeError = Math.max(relativeError, Math.abs(estimates[i] - exact) / Math.abs(exact));
+                }
+
+                String key = implementation.name() + "/" + distribution.name();
+                System.out.println(String.format("%-18s %-14s %12.5f %12.5f %14d %16s %14s",
+                    implementation, distribution, rankError, relativeError, retainedBytes(implementation, samples),
+                    format(observeThroughput.get(key)), format(queryLatency.get(key))));
+            }
+        }
+    }
+
+    private static void runBenchmark(String include, Map<String, Double> scores) throws RunnerException {
+        Options opt = new OptionsBuilder()
+            .include(include)
+            .warmupIterations(3)
+            .warmupTime(TimeValue.seconds(1))
+            .measurementIterations(5)
+            .measurementTime(TimeValue.seconds(1))
+            .forks(1)
+            .build();
+
+        for (RunResult result : new Runner(opt).run()) {
+            String key = result.getParams().getParam("implementation") + "/" + result.getParams().getParam("distribution");
+            scores.put(key, result.getPrimaryResult().getScore());
+        }
+    }
+
+    /**
+     * The distance from {@code q} to the closest fraction of samples that are at most {@code estimate}.
+     */
+    private static double rankError(double[] sorted, double estimate, double q) {
+        double below = (double) lowerBound(sorted, estimate) / sorted.length;
+        double atOrBelow = (double) lowerBound(sorted, Math.nextUp(estimate)) / sorted.length;
+        if (q < below) {
+            return below - q;
+        }
+        return Math.max(0, q - atOrBelow);
+    }
+
+    private static int lowerBound(double[] sorted, double value) {
+        int low = 0;
+        int high = sorted.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (sorted[mid] < value) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Approximates the heap retained by one instance from the growth of the used heap when several instances that
+     * have seen every sample are kept alive.
+     */
+    private static long retainedBytes(QuantilesImplementation implementation, double[] samples) {
+        long before = usedHeap();
+        List<Quantiles> retained = new ArrayList<>();
+        for (int i = 0; i < INSTANCES_FOR_MEMORY; i++) {
+            Quantiles quantiles = implementation.create();
+            for (double sample : samples) {
+                quantiles.observe(sample);
+            }
+
+            // flush anything buffered before measuring
+            quantiles.getMonitored(null);
+            retained.add(quantiles);
+        }
+        long after = usedHeap();
+        return Math.max(0, (after - before) / retained.size());
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 4; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static String format(Double score) {
+        return score == null ? "-" : String.format("%.2f", score);
+    }
+}
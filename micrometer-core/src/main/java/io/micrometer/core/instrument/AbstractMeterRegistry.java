@@ -15,6 +15,8 @@
  */
 package io.micrometer.core.instrument;
 
+import io.micrometer.core.instrument.stats.AsyncStatsRecorder;
+import io.micrometer.core.instrument.stats.hist.BucketCoalescer;
 import io.micrometer.core.instrument.stats.hist.Histogram;
 import io.micrometer.core.instrument.stats.quantile.Quantiles;
 
@@ -39,6 +41,12 @@ public abstract class AbstractMeterRegistry implements MeterRegistry {
 
     private final ConcurrentMap<MeterId, Meter> meterMap = new ConcurrentHashMap<>();
 
+    /**
+     * The id each registered meter is keyed on in {@link #meterMap}, by identity, so that a meter can be removed
+     * without a scan. Guarded by the monitor of {@link #meterMap}.
+     */
+    private final Map<Meter, MeterId> meterIds = new IdentityHashMap<>();
+
     /**
      * We'll use snake case as a general-purpose default for registries because it is the most
      * likely to result in a portable name. Camel casing is also perfectly acceptable. '-' and '.'
@@ -48,6 +56,9 @@ public abstract class AbstractMeterRegistry implements MeterRegistry {
      */
     private NamingConvention namingConvention = NamingConvention.snakeCase;
 
+    private volatile BucketCoalescer bucketCoalescer = BucketCoalescer.NONE;
+    private volatile AsyncStatsRecorder asyncStatsRecorder;
+
     private MeterRegistry.Config config = new MeterRegistry.Config() {
         @Override
         public Config commonTags(Iterable<Tag> tags) {
@@ -63,6 +74,28 @@ public abstract class AbstractMeterRegistry implements MeterRegistry {
             return this;
         }
 
+        @Override
+        public Config histogramBucketCoalescer(BucketCoalescer coalescer) {
+            bucketCoalescer = coalescer;
+            return this;
+        }
+
+        @Override
+        public BucketCoalescer histogramBucketCoalescer() {
+            return bucketCoalescer;
+        }
+
+        @Override
+        public Config asyncStatsRecorder(AsyncStatsRecorder recorder) {
+            asyncStatsRecorder = recorder;
+            return this;
+        }
+
+        @Override
+        public AsyncStatsRecorder asyncStatsRecorder() {
+            return asyncStatsRecorder;
+        }
+
         @Override
         public Clock clock() {
             return clock;
@@ -87,30 +120,13 @@ public abstract class AbstractMeterRegistry implements MeterRegistry {
 
     @Override
     public MeterRegistry register(String name, Iterable<Tag> tags, Meter.Type type, Iterable<Measurement> measurements) {
-        meterMap.computeIfAbsent(new MeterId(name, tags), id -> {
-            newMeter(id.getConventionName(type), id.getTags(), type, measurements);
-            return new Meter() {
-                @Override
-                public String getName() {
-                    return id.getName();
-                }
-
-                @Override
-                public Iterable<Tag> getTags() {
-                    return id.getTags();
-                }
-
-                @Override
-                public String getDescription() {
-                    return null;
-                }
-
-                @Override
-                public Iterable<Measurement> measure() {
-                    return measurements;
-                }
-            };
-        });
+        synchronized (meterMap) {
+            computeMeterIfAbsent(new MeterId(name, tags), id -> {
+                String conventionName = id.getConventionName(type);
+                newMeter(conventionName, id.getTags(), type, measurements);
+                return new CustomMeter(id.getName(), conventionName, id.getTags(), measurements);
+            });
+        }
         return this;
     }
 
@@ -437,6 +453,76 @@ public abstract class AbstractMeterRegistry implements MeterRegistry {
         return meterMap.values();
     }
 
+    /**
+     * Removes {@code meter}, so that it is no longer returned by {@link #getMeters()} or found by searches.
+     * Registering a meter with the same name and tags afterwards creates a new one.
+     *
+     * @return Whether the meter was registered with this registry.
+     */
+    protected boolean removeMeter(Meter meter) {
+        synchronized (meterMap) {
+            MeterId id = meterIds.remove(meter);
+            if (id == null) {
+                return false;
+            }
+            meterMap.remove(id);
+            meterRemoved(meter);
+            return true;
+        }
+    }
+
+    /**
+     * Releases whatever backs {@code meter} in the monitoring system once it has been removed. No meter is
+     * created by a builder while this is called.
+     */
+    protected void meterRemoved(Meter meter) {
+    }
+
+    /**
+     * A meter registered with {@link #register(String, Iterable, Meter.Type, Iterable)}.
+     */
+    protected static class CustomMeter implements Meter {
+        private final String name;
+        private final String conventionName;
+        private final Iterable<Tag> tags;
+        private final Iterable<Measurement> measurements;
+
+        CustomMeter(String name, String conventionName, Iterable<Tag> tags, Iterable<Measurement> measurements) {
+            this.name = name;
+            this.conventionName = conventionName;
+            this.tags = tags;
+            this.measurements = measurements;
+        }
+
+        @Override
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * @return The name that was passed to {@link #newMeter(String, Iterable, Meter.Type, Iterable)}, formatted by
+         * the registry's naming convention.
+         */
+        public String getConventionName() {
+            return conventionName;
+        }
+
+        @Override
+        public Iterable<Tag> getTags() {
+            return tags;
+        }
+
+        @Override
+        public String getDescription() {
+            return null;
+        }
+
+        @Override
+        public Iterable<Measurement> measure() {
+            return measurements;
+        }
+    }
+
     /**
      * Used to hold a unique identifier for Meters (a combination of their name and tags). Should
      * never be exposed to users through a public API.
@@ -507,7 +593,7 @@ public abstract class AbstractMeterRegistry implements MeterRegistry {
         }
 
         synchronized (meterMap) {
-            Meter m = meterMap.computeIfAbsent(new MeterId(name, tags), builder);
+            Meter m = computeMeterIfAbsent(new MeterId(name, tags), builder);
             if (!meterType.isInstance(m)) {
                 throw new IllegalArgumentException("There is already a registered meter of a different type with the same name");
             }
@@ -515,4 +601,13 @@ public abstract class AbstractMeterRegistry implements MeterRegistry {
             return (M) m;
         }
     }
+
+    /**
+     * Must be called while holding the monitor of {@link #meterMap}.
+     */
+    private Meter computeMeterIfAbsent(MeterId id, Function<MeterId, Meter> builder) {
+        Meter m = meterMap.computeIfAbsent(id, builder);
+        meterIds.putIfAbsent(m, id);
+        return m;
+    }
 }
@@ -15,6 +15,9 @@
  */
 package io.micrometer.core.instrument;
 
+import io.micrometer.core.instrument.stats.AsyncStatsRecorder;
+import io.micrometer.core.instrument.stats.hist.BucketCoalescer;
+
 import java.util.Collection;
 import java.util.Map;
 import java.util.Optional;
@@ -55,6 +58,28 @@ public interface MeterRegistry {
          */
         Config namingConvention(NamingConvention convention);
 
+        /**
+         * Coalesce histogram buckets as they are exported, e.g. to ship fewer series than are recorded in memory.
+         */
+        Config histogramBucketCoalescer(BucketCoalescer coalescer);
+
+        /**
+         * @return The strategy applied to histogram buckets as they are exported.
+         */
+        BucketCoalescer histogramBucketCoalescer();
+
+        /**
+         * Update quantiles and histograms of timers and distribution summaries on a background thread rather than on
+         * the recording thread. Pass {@code null} to update them inline again, which is the default.
+         */
+        Config asyncStatsRecorder(AsyncStatsRecorder recorder);
+
+        /**
+         * @return The recorder updating quantiles and histograms in the background, or {@code null} if they are
+         * updated inline.
+         */
+        AsyncStatsRecorder asyncStatsRecorder();
+
         /**
          * Retrieve the clock used to measure durations of timers and long task timers (and sometimes
          * influences publishing behavior).
@@ -0,0 +1,46 @@
+/**
+ * Copyright 2017 Pivotal Software, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.micrometer.core.instrument.prometheus;
+
+import io.micrometer.core.instrument.Tag;
+
+/**
+ * Decides which observations of a {@link PrometheusMeterRegistry}'s counters and histograms become exemplars, and
+ * what labels identify them, typically the trace and span in which the observation was made:
+ * <pre>
+ * ExemplarSampler sampler = value -&gt; {
+ *     Span span = tracer.currentSpan();
+ *     return span == null ? null : Tags.zip("trace_id", span.traceId());
+ * };
+ * </pre>
+ * Only the latest exemplar of each counter and histogram bucket is kept, and exemplars are only exposed in the
+ * OpenMetrics format.
+ *
+ * @author Jon Schneider
+ */
+@FunctionalInterface
+public interface ExemplarSampler {
+    /**
+     * Called on the thread that records each observation, so that it can consult the context the observation was
+     * made in. Samplers are called for every observation and should be cheap, e.g. by only sampling traces that
+     * are themselves sampled.
+     *
+     * @param value The observed value, or the amount a counter was incremented by.
+     * @return Labels of an exemplar for this observation, or {@code null} to not record one. OpenMetrics limits
+     * the names and values of an exemplar's labels to 128 characters altogether.
+     */
+    Iterable<Tag> sample(double value);
+}
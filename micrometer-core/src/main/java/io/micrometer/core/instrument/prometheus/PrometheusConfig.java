@@ -0,0 +1,55 @@
+/**
+ * Copyright 2017 Pivotal Software, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.micrometer.core.instrument.prometheus;
+
+import java.time.Duration;
+
+/**
+ * @author Jon Schneider
+ */
+public interface PrometheusConfig {
+    /**
+     * Accepts no configuration and uses the defaults.
+     */
+    PrometheusConfig DEFAULT = k -> null;
+
+    /**
+     * Get the value associated with a key.
+     *
+     * @param k
+     *     Key to lookup in the config.
+     * @return
+     *     Value for the key or null if no key is present.
+     */
+    String get(String k);
+
+    /**
+     * Property prefix to prepend to configuration names.
+     */
+    default String prefix() {
+        return "prometheus";
+    }
+
+    /**
+     * How long a rendered scrape is served to subsequent scrapes before the registry is collected again. Scrapes that
+     * arrive while a render is in flight wait for it rather than starting their own. The default of zero renders
+     * every scrape.
+     */
+    default Duration scrapeCacheTtl() {
+        String v = get(prefix() + ".scrapeCacheTtl");
+        return v == null ? Duration.ZERO : Duration.parse(v);
+    }
+}
@@ -18,19 +18,39 @@ package io.micrometer.core.instrument.prometheus;
 import io.micrometer.core.instrument.AbstractMeter;
 import io.micrometer.core.instrument.Counter;
 import io.micrometer.core.instrument.Tag;
+import io.micrometer.core.instrument.prometheus.internal.Exemplars;
 import io.micrometer.core.instrument.util.MeterEquivalence;
 
 public class PrometheusCounter extends AbstractMeter implements Counter {
     private io.prometheus.client.Counter.Child counter;
+    private final String[] labelValues;
 
-    PrometheusCounter(String name, Iterable<Tag> tags, String description, io.prometheus.client.Counter.Child counter) {
+    /**
+     * The latest exemplar of this counter, or {@code null} when the registry doesn't sample exemplars.
+     */
+    private final Exemplars exemplars;
+
+    PrometheusCounter(String name, Iterable<Tag> tags, String description, io.prometheus.client.Counter.Child counter,
+                      String[] labelValues, Exemplars exemplars) {
         super(name, tags, description);
         this.counter = counter;
+        this.labelValues = labelValues;
+        this.exemplars = exemplars;
+    }
+
+    /**
+     * The values of this meter's labels on its Prometheus collector, in the order of the collector's label names.
+     */
+    String[] getLabelValues() {
+        return labelValues;
     }
 
     @Override
     public void increment(double amount) {
         counter.inc(amount);
+        if (exemplars != null) {
+            exemplars.record(0, amount);
+        }
     }
 
     @Override
@@ -22,10 +22,19 @@ import io.micrometer.core.instrument.util.MeterEquivalence;
 
 public class PrometheusGauge extends AbstractMeter implements Gauge {
     private io.prometheus.client.Gauge.Child gauge;
+    private final String[] labelValues;
 
-    PrometheusGauge(String name, Iterable<Tag> tags, String description, io.prometheus.client.Gauge.Child gauge) {
+    PrometheusGauge(String name, Iterable<Tag> tags, String description, io.prometheus.client.Gauge.Child gauge, String[] labelValues) {
         super(name, tags, description);
         this.gauge = gauge;
+        this.labelValues = labelValues;
+    }
+
+    /**
+     * The values of this meter's labels on its Prometheus collector, in the order of the collector's label names.
+     */
+    String[] getLabelValues() {
+        return labelValues;
     }
 
     @Override
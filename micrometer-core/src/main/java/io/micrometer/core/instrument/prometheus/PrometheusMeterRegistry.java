@@ -19,6 +19,12 @@ import io.micrometer.core.instrument.*;
 import io.micrometer.core.instrument.prometheus.internal.CustomPrometheusCollector;
 import io.micrometer.core.instrument.prometheus.internal.CustomPrometheusLongTaskTimer;
 import io.micrometer.core.instrument.prometheus.internal.CustomPrometheusSummary;
+import io.micrometer.core.instrument.prometheus.internal.Exemplar;
+import io.micrometer.core.instrument.prometheus.internal.ExemplarSample;
+import io.micrometer.core.instrument.prometheus.internal.Exemplars;
+import io.micrometer.core.instrument.prometheus.internal.GzipEncoder;
+import io.micrometer.core.instrument.prometheus.internal.PrometheusProtobufEncoder;
+import io.micrometer.core.instrument.prometheus.internal.PrometheusTextEncoder;
 import io.micrometer.core.instrument.stats.hist.Histogram;
 import io.micrometer.core.instrument.stats.quantile.Quantiles;
 import io.prometheus.client.Collector;
@@ -27,17 +33,26 @@ import io.prometheus.client.Gauge;
 import io.prometheus.client.SimpleCollector;
 import io.prometheus.client.exporter.common.TextFormat;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.StringWriter;
 import java.io.Writer;
 import java.lang.ref.WeakReference;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 import java.util.function.Function;
 import java.util.function.ToDoubleFunction;
-import java.util.stream.Collectors;
-
-import static java.util.stream.StreamSupport.stream;
 
 /**
  * @author Jon Schneider
@@ -46,6 +61,31 @@ public class PrometheusMeterRegistry extends AbstractMeterRegistry {
     private final CollectorRegistry registry;
     private final ConcurrentMap<String, Collector> collectorMap = new ConcurrentHashMap<>();
 
+    /**
+     * Label names of the counters and gauges in {@link #collectorMap}, by collector name.
+     */
+    private final ConcurrentMap<String, String[]> labelNames = new ConcurrentHashMap<>();
+    private final ThreadLocal<PrometheusTextEncoder> encoders = ThreadLocal.withInitial(PrometheusTextEncoder::new);
+    private final ThreadLocal<PrometheusProtobufEncoder> protobufEncoders = ThreadLocal.withInitial(PrometheusProtobufEncoder::new);
+    private final ThreadLocal<GzipEncoder> gzipEncoders = ThreadLocal.withInitial(GzipEncoder::new);
+
+    private final long scrapeCacheTtlNanos;
+
+    private final ExemplarSampler exemplarSampler;
+
+    /**
+     * Exemplars of the counters in {@link #collectorMap}, by collector name and then label values.
+     */
+    private final ConcurrentMap<String, ConcurrentMap<List<String>, Exemplars>> counterExemplars = new ConcurrentHashMap<>();
+
+    /**
+     * Guards rendering a scrape into the cache, so that concurrent scrapes coalesce onto a single render.
+     */
+    private final Object scrapeCacheLock = new Object();
+    private final AtomicReferenceArray<CachedScrape> cachedScrapes = new AtomicReferenceArray<>(PrometheusScrapeFormat.values().length);
+    private volatile Counter scrapeCacheHits;
+    private io.micrometer.core.instrument.Timer scrapeRenderTimer;
+
     public PrometheusMeterRegistry() {
         this(new CollectorRegistry());
     }
@@ -55,8 +95,22 @@ public class PrometheusMeterRegistry extends AbstractMeterRegistry {
     }
 
     public PrometheusMeterRegistry(CollectorRegistry registry, Clock clock) {
+        this(PrometheusConfig.DEFAULT, registry, clock);
+    }
+
+    public PrometheusMeterRegistry(PrometheusConfig config, CollectorRegistry registry, Clock clock) {
+        this(config, registry, clock, null);
+    }
+
+    /**
+     * @param exemplarSampler Samples exemplars of counters and of the buckets of cumulative histograms, which are
+     *                        included in OpenMetrics scrapes. When {@code null}, no exemplars are recorded.
+     */
+    public PrometheusMeterRegistry(PrometheusConfig config, CollectorRegistry registry, Clock clock, ExemplarSampler exemplarSampler) {
         super(clock);
         this.registry = registry;
+        this.exemplarSampler = exemplarSampler;
+        this.scrapeCacheTtlNanos = config.scrapeCacheTtl().toNanos();
         this.config().namingConvention(new PrometheusNamingConvention());
     }
 
@@ -65,9 +119,13 @@ public class PrometheusMeterRegistry extends AbstractMeterRegistry {
      * Prometheus to scrape from.
      */
     public String scrape() {
+        if (scrapeCacheTtlNanos > 0) {
+            return new String(cachedScrape(PrometheusScrapeFormat.TEXT), StandardCharsets.UTF_8);
+        }
+
         Writer writer = new StringWriter();
         try {
-            TextFormat.write004(writer, registry.metricFamilySamples());
+            scrape(writer);
         } catch (IOException e) {
             // This actually never happens since StringWriter::write() doesn't throw any IOException
             throw new RuntimeException(e);
@@ -75,24 +133,225 @@ public class PrometheusMeterRegistry extends AbstractMeterRegistry {
         return writer.toString();
     }
 
+    /**
+     * Writes the content of {@link #scrape()} to {@code writer} as each sample is collected, rather than building
+     * it up in memory first.
+     */
+    public void scrape(Writer writer) throws IOException {
+        if (scrapeCacheTtlNanos > 0) {
+            writer.write(new String(cachedScrape(PrometheusScrapeFormat.TEXT), StandardCharsets.UTF_8));
+            return;
+        }
+        TextFormat.write004(writer, registry.metricFamilySamples());
+    }
+
+    /**
+     * Writes the content of {@link #scrape()} to {@code out}, encoded as UTF-8, as each sample is collected. Samples
+     * are encoded directly to bytes through a buffer that is reused across scrapes on the same thread.
+     * The stream is neither flushed nor closed.
+     */
+    public void scrape(OutputStream out) throws IOException {
+        scrape(out, PrometheusScrapeFormat.TEXT, false);
+    }
+
+    /**
+     * Writes a scrape to {@code out} as each sample is collected. Encoders, including the compressor, are reused
+     * across scrapes on the same thread. The stream is neither flushed nor closed.
+     *
+     * @param format The exposition format, e.g. as negotiated by {@link PrometheusScrapeFormat#fromAccept(String)}.
+     * @param gzip   Whether to compress the scrape, e.g. as negotiated by {@link #acceptsGzip(String)}.
+     */
+    public void scrape(OutputStream out, PrometheusScrapeFormat format, boolean gzip) throws IOException {
+        scrape(out, format, gzip, Collections.emptySet());
+    }
+
+    /**
+     * Content of {@link #scrape()} limited to samples with the given names, e.g. the {@code name[]} parameters of a
+     * scrape request. Only the collectors that provide those samples are collected.
+     *
+     * @param includedNames Sample names, such as {@code http_server_requests_count}. When empty, every sample is
+     *                      included.
+     */
+    public String scrape(Set<String> includedNames) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try {
+            scrape(bytes, PrometheusScrapeFormat.TEXT, false, includedNames);
+        } catch (IOException e) {
+            // This actually never happens since ByteArrayOutputStream::write() doesn't throw any IOException
+            throw new RuntimeException(e);
+        }
+        return new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Writes a scrape limited to samples with the given names to {@code out}. Scrapes limited to some samples are
+     * always rendered anew rather than served from the scrape cache.
+     *
+     * @param includedNames Sample names, such as {@code http_server_requests_count}. When empty, every sample is
+     *                      included.
+     * @see #scrape(OutputStream, PrometheusScrapeFormat, boolean)
+     */
+    public void scrape(OutputStream out, PrometheusScrapeFormat format, boolean gzip, Set<String> includedNames) throws IOException {
+        GzipEncoder gzipEncoder = gzip ? gzipEncoders.get().start(out) : null;
+        OutputStream target = gzip ? gzipEncoder : out;
+
+        if (!includedNames.isEmpty()) {
+            render(target, format, registry.filteredMetricFamilySamples(includedNames));
+        } else if (scrapeCacheTtlNanos > 0) {
+            target.write(cachedScrape(format));
+        } else {
+            render(target, format, registry.metricFamilySamples());
+        }
+
+        if (gzip) {
+            gzipEncoder.finish();
+        }
+    }
+
+    /**
+     * @param acceptEncoding The value of a client's {@code Accept-Encoding} header, or {@code null}.
+     * @return Whether the client accepts gzip-compressed scrapes.
+     */
+    public static boolean acceptsGzip(String acceptEncoding) {
+        if (acceptEncoding == null) {
+            return false;
+        }
+        for (String coding : acceptEncoding.split(",")) {
+            String[] parts = coding.split(";");
+            String name = parts[0].trim();
+            if (name.equalsIgnoreCase("gzip") || name.equalsIgnoreCase("x-gzip")) {
+                for (int i = 1; i < parts.length; i++) {
+                    String param = parts[i].trim().replace(" ", "");
+                    if (param.startsWith("q=") && param.substring(2).matches("0(\\.0*)?")) {
+                        return false;
+                    }
+                }
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void render(OutputStream out, PrometheusScrapeFormat format, Enumeration<Collector.MetricFamilySamples> mfs) throws IOException {
+        switch (format) {
+            case PROTOBUF:
+                protobufEncoders.get().write(out, mfs);
+                break;
+            case OPENMETRICS:
+                encoders.get().writeOpenMetrics(out, withCounterExemplars(mfs));
+                break;
+            case TEXT:
+            default:
+                encoders.get().write(out, mfs);
+        }
+    }
+
+    /**
+     * @return Metric families in which the samples of counters with an exemplar carry it.
+     */
+    private Enumeration<Collector.MetricFamilySamples> withCounterExemplars(Enumeration<Collector.MetricFamilySamples> mfs) {
+        if (counterExemplars.isEmpty()) {
+            return mfs;
+        }
+
+        return new Enumeration<Collector.MetricFamilySamples>() {
+            @Override
+            public boolean hasMoreElements() {
+                return mfs.hasMoreElements();
+            }
+
+            @Override
+            public Collector.MetricFamilySamples nextElement() {
+                Collector.MetricFamilySamples family = mfs.nextElement();
+                Map<List<String>, Exemplars> exemplarsByLabels = family.type == Collector.Type.COUNTER ?
+                    counterExemplars.get(family.name) : null;
+                if (exemplarsByLabels == null) {
+                    return family;
+                }
+
+                List<Collector.MetricFamilySamples.Sample> samples = new ArrayList<>(family.samples.size());
+                for (Collector.MetricFamilySamples.Sample sample : family.samples) {
+                    Exemplars exemplars = exemplarsByLabels.get(sample.labelValues);
+                    Exemplar exemplar = exemplars == null ? null : exemplars.get(0);
+                    samples.add(exemplar == null ? sample :
+                        new ExemplarSample(sample.name, sample.labelNames, sample.labelValues, sample.value, exemplar));
+                }
+                return new Collector.MetricFamilySamples(family.name, family.type, family.help, samples);
+            }
+        };
+    }
+
+    /**
+     * @return The scrape rendered in {@code format} within the configured TTL, or by a render that was in flight when
+     * this scrape arrived. Otherwise the registry is rendered anew.
+     */
+    private byte[] cachedScrape(PrometheusScrapeFormat format) {
+        CachedScrape seen = cachedScrapes.get(format.ordinal());
+        if (seen != null && config().clock().monotonicTime() - seen.renderedAt < scrapeCacheTtlNanos) {
+            scrapeCacheHits.increment();
+            return seen.bytes;
+        }
+
+        synchronized (scrapeCacheLock) {
+            CachedScrape current = cachedScrapes.get(format.ordinal());
+            if (current != seen) {
+                // rendered while this scrape waited for the lock
+                scrapeCacheHits.increment();
+                return current.bytes;
+            }
+
+            if (scrapeCacheHits == null) {
+                // created on first use so that they pick up common tags configured after construction
+                scrapeRenderTimer = timer("prometheus.scrape.render");
+                scrapeCacheHits = counter("prometheus.scrape.cache.hits");
+            }
+
+            long start = config().clock().monotonicTime();
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try {
+                render(bytes, format, registry.metricFamilySamples());
+            } catch (IOException e) {
+                // This actually never happens since ByteArrayOutputStream::write() doesn't throw any IOException
+                throw new RuntimeException(e);
+            }
+            long end = config().clock().monotonicTime();
+            scrapeRenderTimer.record(end - start, TimeUnit.NANOSECONDS);
+
+            current = new CachedScrape(bytes.toByteArray(), end);
+            cachedScrapes.set(format.ordinal(), current);
+            return current.bytes;
+        }
+    }
+
     @Override
     public Counter newCounter(String name, Iterable<Tag> tags, String description) {
         io.prometheus.client.Counter counter = collectorByName(io.prometheus.client.Counter.class, name,
             n -> buildCollector(name, tags, description, io.prometheus.client.Counter.build()));
-        return new PrometheusCounter(name, tags, description, child(counter, tags));
+
+        // the meter registry only creates a meter once per name and tags, so its child can't exist yet
+        String[] labelValues = labelValues(name, tags);
+        io.prometheus.client.Counter.Child child = new io.prometheus.client.Counter.Child();
+        counter.setChild(child, labelValues);
+
+        Exemplars exemplars = null;
+        if (exemplarSampler != null) {
+            exemplars = new Exemplars(exemplarSampler, config().clock(), 1);
+            counterExemplars.computeIfAbsent(name, n -> new ConcurrentHashMap<>()).put(Arrays.asList(labelValues), exemplars);
+        }
+        return new PrometheusCounter(name, tags, description, child, labelValues, exemplars);
     }
 
     @Override
     public DistributionSummary newDistributionSummary(String name, Iterable<Tag> tags, String description, Quantiles quantiles, Histogram<?> histogram) {
         final CustomPrometheusSummary summary = collectorByName(CustomPrometheusSummary.class, name,
-            n -> new CustomPrometheusSummary(name, tags, description).register(registry));
+            n -> new CustomPrometheusSummary(name, tags, description, config(), exemplarSampler).register(registry));
         return new PrometheusDistributionSummary(name, tags, description, summary.child(tags, quantiles, histogram));
     }
 
     @Override
     protected io.micrometer.core.instrument.Timer newTimer(String name, Iterable<Tag> tags, String description, Histogram<?> histogram, Quantiles quantiles) {
         final CustomPrometheusSummary summary = collectorByName(CustomPrometheusSummary.class, name,
-            n -> new CustomPrometheusSummary(name, tags, description).register(registry));
+            n -> new CustomPrometheusSummary(name, tags, description, config(), exemplarSampler).register(registry));
         return new PrometheusTimer(name, tags, description, summary.child(tags, quantiles, histogram), config().clock());
     }
 
@@ -103,11 +362,7 @@ public class PrometheusMeterRegistry extends AbstractMeterRegistry {
         io.prometheus.client.Gauge gauge = collectorByName(Gauge.class, name,
             i -> buildCollector(name, tags, description, io.prometheus.client.Gauge.build()));
 
-        String[] labelValues = stream(tags.spliterator(), false)
-            .map(Tag::getValue)
-            .collect(Collectors.toList())
-            .toArray(new String[]{});
-
+        String[] labelValues = labelValues(name, tags);
         Gauge.Child child = new Gauge.Child() {
             @Override
             public double get() {
@@ -117,7 +372,7 @@ public class PrometheusMeterRegistry extends AbstractMeterRegistry {
         };
 
         gauge.setChild(child, labelValues);
-        return new PrometheusGauge(name, tags, description, child);
+        return new PrometheusGauge(name, tags, description, child, labelValues);
     }
 
     @Override
@@ -152,6 +407,42 @@ public class PrometheusMeterRegistry extends AbstractMeterRegistry {
         c.child(tags, measurements);
     }
 
+    /**
+     * Removes a meter, so that its samples are no longer scraped and what backs it can be reclaimed. Meters that
+     * come and go with the values of their tags should be removed once they are no longer needed, otherwise
+     * memory and scrape time grow with every tag value ever seen.
+     *
+     * @return Whether the meter was registered with this registry.
+     */
+    public boolean remove(Meter meter) {
+        return removeMeter(meter);
+    }
+
+    @Override
+    protected void meterRemoved(Meter meter) {
+        Collector collector = collectorMap.get(meter.getName());
+        if (meter instanceof PrometheusCounter) {
+            String[] labelValues = ((PrometheusCounter) meter).getLabelValues();
+            ((SimpleCollector<?>) collector).remove(labelValues);
+            Map<List<String>, Exemplars> exemplars = counterExemplars.get(meter.getName());
+            if (exemplars != null) {
+                exemplars.remove(Arrays.asList(labelValues));
+            }
+        } else if (meter instanceof PrometheusGauge) {
+            ((SimpleCollector<?>) collector).remove(((PrometheusGauge) meter).getLabelValues());
+        } else if (collector instanceof CustomPrometheusSummary) {
+            ((CustomPrometheusSummary) collector).remove(meter.getTags());
+        } else if (collector instanceof CustomPrometheusLongTaskTimer) {
+            ((CustomPrometheusLongTaskTimer) collector).remove(meter.getTags());
+        } else if (meter instanceof CustomMeter) {
+            // custom meters are named before the naming convention is applied
+            Collector custom = collectorMap.get(((CustomMeter) meter).getConventionName());
+            if (custom instanceof CustomPrometheusCollector) {
+                ((CustomPrometheusCollector) custom).remove(meter.getTags());
+            }
+        }
+    }
+
     /**
      * @return The underlying Prometheus {@link CollectorRegistry}.
      */
@@ -163,21 +454,48 @@ public class PrometheusMeterRegistry extends AbstractMeterRegistry {
                                                                                                         Iterable<Tag> tags,
                                                                                                         String description,
                                                                                                         SimpleCollector.Builder<B, C> builder) {
-        return builder
+        List<String> names = new ArrayList<>();
+        for (Tag tag : tags) {
+            names.add(tag.getKey());
+        }
+        String[] labelNames = names.toArray(new String[names.size()]);
+
+        C collector = builder
             .name(name)
             .help(description == null ? " " : description)
-            .labelNames(stream(tags.spliterator(), false)
-                .map(Tag::getKey)
-                .collect(Collectors.toList())
-                .toArray(new String[]{}))
+            .labelNames(labelNames)
             .register(registry);
+        this.labelNames.put(name, labelNames);
+        return collector;
     }
 
-    private <C extends SimpleCollector<D>, D> D child(C collector, Iterable<Tag> tags) {
-        return collector.labels(stream(tags.spliterator(), false)
-            .map(Tag::getValue)
-            .collect(Collectors.toList())
-            .toArray(new String[]{}));
+    /**
+     * @return The values of {@code tags}, in the order of the label names of the counter or gauge collector
+     * {@code name}.
+     */
+    private String[] labelValues(String name, Iterable<Tag> tags) {
+        String[] values = new String[labelNames.get(name).length];
+        int i = 0;
+        for (Tag tag : tags) {
+            if (i == values.length) {
+                throw new IllegalArgumentException("Incorrect number of labels.");
+            }
+            values[i++] = tag.getValue();
+        }
+        if (i != values.length) {
+            throw new IllegalArgumentException("Incorrect number of labels.");
+        }
+        return values;
+    }
+
+    private static class CachedScrape {
+        final byte[] bytes;
+        final long renderedAt;
+
+        CachedScrape(byte[] bytes, long renderedAt) {
+            this.bytes = bytes;
+            this.renderedAt = renderedAt;
+        }
     }
 
     private <C extends Collector> C collectorByName(Class<C> collectorType, String name, Function<String, C> ifAbsent) {
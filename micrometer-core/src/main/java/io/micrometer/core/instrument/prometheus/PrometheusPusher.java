@@ -0,0 +1,351 @@
+/**
+ * Copyright 2017 Pivotal Software, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.micrometer.core.instrument.prometheus;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Pushes the contents of a {@link PrometheusMeterRegistry} to a Prometheus pushgateway, for batch jobs and
+ * short-lived workers that don't live long enough to be scraped:
+ * <pre>
+ * PrometheusPusher pusher = PrometheusPusher.builder(registry, "http://pushgateway:9091", "nightly-import")
+ *     .groupingKey("instance", "worker-1")
+ *     .create();
+ * </pre>
+ * The registry is pushed every step, and once more when the pusher is closed or the JVM shuts down, so that the
+ * final values of a job are not lost. Each push replaces the metrics of its group on the pushgateway. The body is
+ * streamed to the pushgateway as samples are collected, optionally gzip-compressed. Pushes that fail on a connection
+ * error or a server error are retried, waiting twice as long before each attempt.
+ *
+ * @author Jon Schneider
+ */
+public final class PrometheusPusher implements AutoCloseable {
+    private static final Logger logger = Logger.getLogger(PrometheusPusher.class.getName());
+
+    private final PrometheusMeterRegistry registry;
+    private final URL url;
+    private final PrometheusScrapeFormat format;
+    private final boolean gzip;
+    private final int retries;
+    private final long backoffMillis;
+    private final int connectTimeout;
+    private final int readTimeout;
+
+    private final ScheduledExecutorService scheduler;
+    private final Thread shutdownHook;
+    private final AtomicBoolean closed = new AtomicBoolean();
+
+    private PrometheusPusher(Builder builder, URL url) {
+        this.registry = builder.registry;
+        this.url = url;
+        this.format = builder.format;
+        this.gzip = builder.gzip;
+        this.retries = builder.retries;
+        this.backoffMillis = builder.backoff.toMillis();
+        this.connectTimeout = (int) builder.connectTimeout.toMillis();
+        this.readTimeout = (int) builder.readTimeout.toMillis();
+
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "micrometer-prometheus-push");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long stepMillis = builder.step.toMillis();
+        if (stepMillis > 0) {
+            scheduler.scheduleAtFixedRate(this::scheduledPush, stepMillis, stepMillis, TimeUnit.MILLISECONDS);
+        }
+
+        if (builder.pushOnShutdown) {
+            this.shutdownHook = new Thread(this::close, "micrometer-prometheus-push-shutdown");
+            Runtime.getRuntime().addShutdownHook(shutdownHook);
+        } else {
+            this.shutdownHook = null;
+        }
+    }
+
+    /**
+     * @param address The address of the pushgateway, such as {@code http://pushgateway:9091}.
+     * @param job     The job label of the pushed metrics.
+     */
+    public static Builder builder(PrometheusMeterRegistry registry, String address, String job) {
+        return new Builder(registry, address, job);
+    }
+
+    /**
+     * Pushes the registry now, retrying as configured.
+     *
+     * @throws IOException when the last attempt failed, or the pushgateway rejected the push.
+     */
+    public synchronized void push() throws IOException {
+        for (int attempt = 0; ; attempt++) {
+            try {
+                pushOnce();
+                return;
+            } catch (RejectedPushException e) {
+                throw e;
+            } catch (IOException e) {
+                if (attempt >= retries) {
+                    throw e;
+                }
+                try {
+                    Thread.sleep(backoffMillis << attempt);
+                } catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                    throw e;
+                }
+            }
+        }
+    }
+
+    /**
+     * Stops pushing periodically, then pushes the registry one last time. A push in progress is given the read
+     * timeout to complete, though it is no longer retried.
+     */
+    @Override
+    public void close() {
+        if (!closed.compareAndSet(false, true)) {
+            return;
+        }
+
+        scheduler.shutdownNow();
+        try {
+            scheduler.awaitTermination(connectTimeout + readTimeout, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        if (shutdownHook != null && Thread.currentThread() != shutdownHook) {
+            try {
+                Runtime.getRuntime().removeShutdownHook(shutdownHook);
+            } catch (IllegalStateException ignored) {
+                // the JVM is already shutting down, and the hook will find the pusher closed
+            }
+        }
+
+        try {
+            push();
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "failed to push metrics to " + url + " on close", e);
+        }
+    }
+
+    private void scheduledPush() {
+        try {
+            push();
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "failed to push metrics to " + url, e);
+        }
+    }
+
+    private void pushOnce() throws IOException {
+        HttpURLConnection con = (HttpURLConnection) url.openConnection();
+        try {
+            con.setConnectTimeout(connectTimeout);
+            con.setReadTimeout(readTimeout);
+            con.setRequestMethod("PUT");
+            con.setRequestProperty("Content-Type", format.getContentType());
+            if (gzip) {
+                con.setRequestProperty("Content-Encoding", "gzip");
+            }
+            con.setDoOutput(true);
+            // stream the body as it is encoded rather than buffering it to compute its length
+            con.setChunkedStreamingMode(0);
+
+            try (OutputStream out = con.getOutputStream()) {
+                registry.scrape(out, format, gzip);
+            }
+
+            int status = con.getResponseCode();
+            if (status >= 200 && status < 300) {
+                return;
+            }
+
+            String message = "failed to push metrics: http " + status + " " + errorBody(con);
+            if (status >= 400 && status < 500 && status != 429) {
+                throw new RejectedPushException(message);
+            }
+            throw new IOException(message);
+        } finally {
+            con.disconnect();
+        }
+    }
+
+    private static String errorBody(HttpURLConnection con) throws IOException {
+        try (InputStream in = con.getErrorStream()) {
+            if (in == null) {
+                return "";
+            }
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            byte[] buffer = new byte[1024];
+            for (int n = in.read(buffer); n != -1; n = in.read(buffer)) {
+                bytes.write(buffer, 0, n);
+            }
+            return new String(bytes.toByteArray(), StandardCharsets.UTF_8).trim();
+        }
+    }
+
+    /**
+     * A push that the pushgateway refused, which would be refused again if retried.
+     */
+    private static class RejectedPushException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        RejectedPushException(String message) {
+            super(message);
+        }
+    }
+
+    public static class Builder {
+        private final PrometheusMeterRegistry registry;
+        private final String address;
+        private final String job;
+        private final Map<String, String> groupingKey = new LinkedHashMap<>();
+        private Duration step = Duration.ofSeconds(10);
+        private PrometheusScrapeFormat format = PrometheusScrapeFormat.TEXT;
+        private boolean gzip;
+        private int retries = 3;
+        private Duration backoff = Duration.ofSeconds(1);
+        private Duration connectTimeout = Duration.ofSeconds(1);
+        private Duration readTimeout = Duration.ofSeconds(10);
+        private boolean pushOnShutdown = true;
+
+        Builder(PrometheusMeterRegistry registry, String address, String job) {
+            this.registry = registry;
+            this.address = address;
+            this.job = job;
+        }
+
+        /**
+         * Adds a label that, along with the job, identifies the group of metrics replaced by each push, such as
+         * the instance of a job that runs on several hosts.
+         */
+        public Builder groupingKey(String name, String value) {
+            groupingKey.put(name, value);
+            return this;
+        }
+
+        /**
+         * @param step How often the registry is pushed. The default is 10 seconds. When zero, the registry is
+         *             only pushed by {@link PrometheusPusher#push()} and on close.
+         */
+        public Builder step(Duration step) {
+            if (step.isNegative()) {
+                throw new IllegalArgumentException("The push step must not be negative");
+            }
+            this.step = step;
+            return this;
+        }
+
+        /**
+         * @param format The exposition format of pushes. The default is text.
+         */
+        public Builder format(PrometheusScrapeFormat format) {
+            this.format = format;
+            return this;
+        }
+
+        /**
+         * @param gzip Whether to gzip-compress pushes. The default is {@code false}, as older pushgateways don't
+         *             accept compressed pushes.
+         */
+        public Builder gzip(boolean gzip) {
+            this.gzip = gzip;
+            return this;
+        }
+
+        /**
+         * @param retries How many times a failed push is retried. The default is 3.
+         * @param backoff How long to wait before the first retry, doubled before each retry after it. The default
+         *                is 1 second.
+         */
+        public Builder retry(int retries, Duration backoff) {
+            if (retries < 0) {
+                throw new IllegalArgumentException("Retries must not be negative");
+            }
+            this.retries = retries;
+            this.backoff = backoff;
+            return this;
+        }
+
+        /**
+         * @param connectTimeout The default is 1 second.
+         * @param readTimeout    The default is 10 seconds.
+         */
+        public Builder timeouts(Duration connectTimeout, Duration readTimeout) {
+            this.connectTimeout = connectTimeout;
+            this.readTimeout = readTimeout;
+            return this;
+        }
+
+        /**
+         * @param pushOnShutdown Whether to close the pusher, pushing one last time, when the JVM shuts down. The
+         *                       default is {@code true}.
+         */
+        public Builder pushOnShutdown(boolean pushOnShutdown) {
+            this.pushOnShutdown = pushOnShutdown;
+            return this;
+        }
+
+        /**
+         * Starts pushing the registry.
+         */
+        public PrometheusPusher create() {
+            String base = address.contains("://") ? address : "http://" + address;
+            if (base.endsWith("/")) {
+                base = base.substring(0, base.length() - 1);
+            }
+
+            StringBuilder path = new StringBuilder("/metrics/job/").append(encode(job));
+            for (Map.Entry<String, String> label : groupingKey.entrySet()) {
+                path.append('/').append(encode(label.getKey())).append('/').append(encode(label.getValue()));
+            }
+
+            try {
+                return new PrometheusPusher(this, new URL(base + path));
+            } catch (MalformedURLException e) {
+                throw new IllegalArgumentException("Malformed pushgateway address '" + address + "'", e);
+            }
+        }
+
+        private static String encode(String pathSegment) {
+            try {
+                // URLEncoder encodes for forms, where a space is '+' rather than '%20'
+                return URLEncoder.encode(pathSegment, "UTF-8").replace("+", "%20");
+            } catch (UnsupportedEncodingException e) {
+                // UTF-8 is always supported
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+}
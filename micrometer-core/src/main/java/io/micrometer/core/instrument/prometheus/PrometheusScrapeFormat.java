@@ -0,0 +1,111 @@
+/**
+ * Copyright 2017 Pivotal Software, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.micrometer.core.instrument.prometheus;
+
+import io.micrometer.core.instrument.prometheus.internal.PrometheusProtobufEncoder;
+import io.micrometer.core.instrument.prometheus.internal.PrometheusTextEncoder;
+import io.prometheus.client.exporter.common.TextFormat;
+
+/**
+ * Exposition formats that {@link PrometheusMeterRegistry} can render a scrape in.
+ *
+ * @author Jon Schneider
+ */
+public enum PrometheusScrapeFormat {
+    /**
+     * Text format 0.0.4.
+     */
+    TEXT(TextFormat.CONTENT_TYPE_004),
+
+    /**
+     * Length-delimited {@code io.prometheus.client.MetricFamily} protobuf messages.
+     */
+    PROTOBUF(PrometheusProtobufEncoder.CONTENT_TYPE),
+
+    /**
+     * OpenMetrics text format 1.0.0, the only format that includes exemplars.
+     */
+    OPENMETRICS(PrometheusTextEncoder.OPENMETRICS_CONTENT_TYPE);
+
+    private final String contentType;
+
+    PrometheusScrapeFormat(String contentType) {
+        this.contentType = contentType;
+    }
+
+    public String getContentType() {
+        return contentType;
+    }
+
+    /**
+     * Chooses the format a client prefers from its {@code Accept} header, falling back to {@link #TEXT} when the
+     * header is absent or names no other format. Formats the client prefers equally are chosen in the order
+     * protobuf, OpenMetrics, text.
+     */
+    public static PrometheusScrapeFormat fromAccept(String accept) {
+        if (accept == null) {
+            return TEXT;
+        }
+
+        double protobufQuality = 0;
+        double openMetricsQuality = 0;
+        double textQuality = 0;
+        for (String mediaRange : accept.split(",")) {
+            String[] parts = mediaRange.split(";");
+            String type = parts[0].trim();
+
+            double quality = 1;
+            String proto = null;
+            String encoding = null;
+            for (int i = 1; i < parts.length; i++) {
+                String[] param = parts[i].split("=", 2);
+                if (param.length < 2) {
+                    continue;
+                }
+                String value = param[1].trim();
+                switch (param[0].trim()) {
+                    case "q":
+                        try {
+                            quality = Double.parseDouble(value);
+                        } catch (NumberFormatException ignored) {
+                            quality = 0;
+                        }
+                        break;
+                    case "proto":
+                        proto = value;
+                        break;
+                    case "encoding":
+                        encoding = value;
+                        break;
+                }
+            }
+
+            if (type.equals("application/vnd.google.protobuf") && "io.prometheus.client.MetricFamily".equals(proto) &&
+                "delimited".equals(encoding)) {
+                protobufQuality = Math.max(protobufQuality, quality);
+            } else if (type.equals("application/openmetrics-text")) {
+                openMetricsQuality = Math.max(openMetricsQuality, quality);
+            } else if (type.equals("text/plain") || type.equals("text/*") || type.equals("*/*")) {
+                textQuality = Math.max(textQuality, quality);
+            }
+        }
+
+        if (protobufQuality > 0 && protobufQuality >= openMetricsQuality && protobufQuality >= textQuality) {
+            return PROTOBUF;
+        }
+        return openMetricsQuality > 0 && openMetricsQuality >= textQuality ? OPENMETRICS : TEXT;
+    }
+}
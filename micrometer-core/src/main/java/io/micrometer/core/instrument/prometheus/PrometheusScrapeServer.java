@@ -0,0 +1,238 @@
+/**
+ * Copyright 2017 Pivotal Software, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.micrometer.core.instrument.prometheus;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Serves scrapes of a {@link PrometheusMeterRegistry} over HTTP for applications that don't otherwise run a web
+ * server, using the HTTP server built into the JDK:
+ * <pre>
+ * PrometheusScrapeServer server = PrometheusScrapeServer.start(registry, 9090);
+ * </pre>
+ * Responses are streamed in the text or protobuf format and gzip-compressed as negotiated from the request's
+ * {@code Accept} and {@code Accept-Encoding} headers, and limited to the samples named by any {@code name[]} query
+ * parameters. Connections are kept alive between scrapes. Requests are handled
+ * by a small, bounded pool of daemon threads. When the pool and its queue are full, the thread accepting connections
+ * handles the request itself, which holds off further connections until a scrape completes.
+ *
+ * @author Jon Schneider
+ */
+public final class PrometheusScrapeServer implements AutoCloseable {
+    private final PrometheusMeterRegistry registry;
+    private final String path;
+    private final HttpServer server;
+    private final ThreadPoolExecutor executor;
+
+    private PrometheusScrapeServer(PrometheusMeterRegistry registry, InetSocketAddress address, String path,
+                                   int threads, int queueSize) {
+        this.registry = registry;
+        this.path = path;
+
+        AtomicInteger threadCount = new AtomicInteger();
+        ThreadFactory threadFactory = r -> {
+            Thread thread = new Thread(r, "micrometer-prometheus-scrape-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+        this.executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(queueSize), threadFactory, new ThreadPoolExecutor.CallerRunsPolicy());
+
+        try {
+            this.server = HttpServer.create(address, 0);
+        } catch (IOException e) {
+            executor.shutdown();
+            throw new UncheckedIOException("Unable to bind the scrape server to " + address, e);
+        }
+        server.createContext(path, this::handle);
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    /**
+     * Starts serving scrapes of {@code registry} on all interfaces at {@code /metrics}.
+     *
+     * @param port The port to listen on, or 0 to pick a free port.
+     */
+    public static PrometheusScrapeServer start(PrometheusMeterRegistry registry, int port) {
+        return builder(registry).port(port).create();
+    }
+
+    public static Builder builder(PrometheusMeterRegistry registry) {
+        return new Builder(registry);
+    }
+
+    /**
+     * @return The port the server is listening on.
+     */
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * Stops accepting connections, waiting up to a second for scrapes in progress to complete before closing their
+     * connections, and then for the threads serving them to finish.
+     */
+    @Override
+    public void close() {
+        server.stop(1);
+        executor.shutdown();
+        try {
+            executor.awaitTermination(1, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        // Only a complete response closes the exchange. When a scrape fails part way, the exception propagates and
+        // the server drops the connection without the final chunk, so the client sees a truncated response rather
+        // than a complete one with samples missing.
+        respond(exchange);
+        exchange.close();
+    }
+
+    private void respond(HttpExchange exchange) throws IOException {
+        String method = exchange.getRequestMethod();
+        if (!exchange.getRequestURI().getPath().equals(path)) {
+            exchange.sendResponseHeaders(404, -1);
+            return;
+        }
+        if (!method.equals("GET") && !method.equals("HEAD")) {
+            exchange.getResponseHeaders().set("Allow", "GET, HEAD");
+            exchange.sendResponseHeaders(405, -1);
+            return;
+        }
+
+        Headers requestHeaders = exchange.getRequestHeaders();
+        PrometheusScrapeFormat format = PrometheusScrapeFormat.fromAccept(requestHeaders.getFirst("Accept"));
+        boolean gzip = PrometheusMeterRegistry.acceptsGzip(requestHeaders.getFirst("Accept-Encoding"));
+
+        Headers responseHeaders = exchange.getResponseHeaders();
+        responseHeaders.set("Content-Type", format.getContentType());
+        responseHeaders.set("Vary", "Accept, Accept-Encoding");
+        if (gzip) {
+            responseHeaders.set("Content-Encoding", "gzip");
+        }
+
+        if (method.equals("HEAD")) {
+            exchange.sendResponseHeaders(200, -1);
+            return;
+        }
+
+        // a length of zero streams the body in chunks, which keeps the connection reusable
+        exchange.sendResponseHeaders(200, 0);
+        registry.scrape(exchange.getResponseBody(), format, gzip, includedNames(exchange.getRequestURI().getRawQuery()));
+    }
+
+    private static Set<String> includedNames(String rawQuery) throws UnsupportedEncodingException {
+        if (rawQuery == null) {
+            return Collections.emptySet();
+        }
+
+        Set<String> names = new HashSet<>();
+        for (String param : rawQuery.split("&")) {
+            int separator = param.indexOf('=');
+            if (separator > 0 && URLDecoder.decode(param.substring(0, separator), "UTF-8").equals("name[]")) {
+                names.add(URLDecoder.decode(param.substring(separator + 1), "UTF-8"));
+            }
+        }
+        return names;
+    }
+
+    public static class Builder {
+        private final PrometheusMeterRegistry registry;
+        private String host;
+        private int port = 9090;
+        private String path = "/metrics";
+        private int threads = 2;
+        private int queueSize = 16;
+
+        Builder(PrometheusMeterRegistry registry) {
+            this.registry = registry;
+        }
+
+        /**
+         * @param host The address to listen on. By default, the server listens on all interfaces.
+         */
+        public Builder host(String host) {
+            this.host = host;
+            return this;
+        }
+
+        /**
+         * @param port The port to listen on, or 0 to pick a free port. The default is 9090.
+         */
+        public Builder port(int port) {
+            this.port = port;
+            return this;
+        }
+
+        public Builder path(String path) {
+            if (!path.startsWith("/")) {
+                throw new IllegalArgumentException("The scrape path must start with '/'");
+            }
+            this.path = path;
+            return this;
+        }
+
+        /**
+         * @param threads The number of threads serving scrapes. The default is 2.
+         */
+        public Builder threads(int threads) {
+            if (threads < 1) {
+                throw new IllegalArgumentException("At least one thread is required to serve scrapes");
+            }
+            this.threads = threads;
+            return this;
+        }
+
+        /**
+         * @param queueSize The number of requests that can wait for a thread. The default is 16.
+         */
+        public Builder queueSize(int queueSize) {
+            if (queueSize < 1) {
+                throw new IllegalArgumentException("Queue size must be positive");
+            }
+            this.queueSize = queueSize;
+            return this;
+        }
+
+        /**
+         * Binds the server and starts serving scrapes.
+         */
+        public PrometheusScrapeServer create() {
+            InetSocketAddress address = host == null ? new InetSocketAddress(port) : new InetSocketAddress(host, port);
+            return new PrometheusScrapeServer(registry, address, path, threads, queueSize);
+        }
+    }
+}
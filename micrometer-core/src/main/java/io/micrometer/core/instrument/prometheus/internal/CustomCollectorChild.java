@@ -15,10 +15,24 @@
  */
 package io.micrometer.core.instrument.prometheus.internal;
 
+import io.micrometer.core.instrument.Tag;
 import io.prometheus.client.Collector;
 
-import java.util.stream.Stream;
+import java.util.List;
+
+import static java.util.stream.Collectors.toList;
+import static java.util.stream.StreamSupport.stream;
 
 public interface CustomCollectorChild {
-    Stream<Collector.MetricFamilySamples.Sample> collect();
+    /**
+     * Adds the samples of this child to {@code samples}.
+     */
+    void collect(List<Collector.MetricFamilySamples.Sample> samples);
+
+    /**
+     * @return The values of {@code tags}, which key the children of a collector.
+     */
+    static List<String> tagValues(Iterable<Tag> tags) {
+        return stream(tags.spliterator(), false).map(Tag::getValue).collect(toList());
+    }
 }
@@ -19,52 +19,91 @@ import io.micrometer.core.instrument.Measurement;
 import io.micrometer.core.instrument.Tag;
 import io.prometheus.client.Collector;
 
-import java.util.Collection;
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
-import java.util.concurrent.ConcurrentLinkedQueue;
-import java.util.stream.Stream;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import static java.util.stream.Collectors.toList;
 import static java.util.stream.StreamSupport.stream;
 
-public class CustomPrometheusCollector extends Collector {
+public class CustomPrometheusCollector extends Collector implements Collector.Describable, EncodableMetricFamilySamples.Source {
     private final String name;
     private final Type type;
     private final List<String> tagKeys;
-    private final Collection<Child> children = new ConcurrentLinkedQueue<>();
+    private final byte[] nameBytes;
+    private final ConcurrentMap<List<String>, Child> children = new ConcurrentHashMap<>();
 
     public CustomPrometheusCollector(String name, Iterable<Tag> tags, Type type) {
         this.type = type;
         this.name = name;
         this.tagKeys = stream(tags.spliterator(), false).map(Tag::getKey).collect(toList());
+        this.nameBytes = PrometheusTextEncoder.name(name);
     }
 
     public Child child(Iterable<Tag> tags, Iterable<Measurement> measurements) {
-        Child child = new Child(stream(tags.spliterator(), false).map(Tag::getValue).collect(toList()), measurements);
-        children.add(child);
-        return child;
+        return children.computeIfAbsent(CustomCollectorChild.tagValues(tags), tagValues -> new Child(tagValues, measurements));
+    }
+
+    /**
+     * Stops collecting the child with these tags.
+     *
+     * @return Whether a child was removed.
+     */
+    public boolean remove(Iterable<Tag> tags) {
+        return children.remove(CustomCollectorChild.tagValues(tags)) != null;
     }
 
     @Override
     public List<MetricFamilySamples> collect() {
-        return Collections.singletonList(new MetricFamilySamples(name, type, " ", children.stream()
-                .flatMap(Child::collect).collect(toList())));
+        return Collections.singletonList(new EncodableMetricFamilySamples(name, type, " ", this));
+    }
+
+    @Override
+    public List<MetricFamilySamples> describe() {
+        return Collections.singletonList(new MetricFamilySamples(name, type, " ", Collections.emptyList()));
+    }
+
+    @Override
+    public List<MetricFamilySamples.Sample> collectSamples() {
+        List<MetricFamilySamples.Sample> samples = new ArrayList<>();
+        for (Child child : children.values()) {
+            child.collect(samples);
+        }
+        return samples;
+    }
+
+    @Override
+    public void encodeSamples(PrometheusTextEncoder encoder) throws IOException {
+        for (Child child : children.values()) {
+            child.encode(encoder);
+        }
     }
 
     class Child implements CustomCollectorChild {
         private final List<String> tagValues;
+        private final byte[] labels;
         private final Iterable<Measurement> measurements;
 
         Child(List<String> tagValues, Iterable<Measurement> measurements) {
             this.tagValues = tagValues;
+            this.labels = PrometheusTextEncoder.labels(tagKeys, tagValues);
             this.measurements = measurements;
         }
 
         @Override
-        public Stream<Collector.MetricFamilySamples.Sample> collect() {
-            return stream(measurements.spliterator(), false)
-                    .map(m -> new MetricFamilySamples.Sample(name, tagKeys, tagValues, m.getValue()));
+        public void collect(List<MetricFamilySamples.Sample> samples) {
+            for (Measurement m : measurements) {
+                samples.add(new MetricFamilySamples.Sample(name, tagKeys, tagValues, m.getValue()));
+            }
+        }
+
+        void encode(PrometheusTextEncoder encoder) throws IOException {
+            for (Measurement m : measurements) {
+                encoder.writeSample(nameBytes, labels, null, m.getValue());
+            }
         }
     }
 }
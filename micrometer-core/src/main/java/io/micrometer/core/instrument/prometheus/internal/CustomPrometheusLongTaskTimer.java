@@ -19,52 +19,63 @@ import io.micrometer.core.instrument.Clock;
 import io.micrometer.core.instrument.Tag;
 import io.prometheus.client.Collector;
 
-import java.util.Collection;
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.atomic.AtomicLong;
-import java.util.stream.Stream;
 
 import static java.util.stream.Collectors.toList;
 import static java.util.stream.StreamSupport.stream;
 
-public class CustomPrometheusLongTaskTimer extends Collector {
+public class CustomPrometheusLongTaskTimer extends Collector implements Collector.Describable, EncodableMetricFamilySamples.Source {
+    private static final byte[] ACTIVE_TASKS = PrometheusTextEncoder.label("statistic", "activeTasks");
+    private static final byte[] DURATION = PrometheusTextEncoder.label("statistic", "duration");
+
     private final Clock clock;
     private final String name;
     private final String description;
     private final List<String> tagKeys;
-    private final Collection<Child> children = new ConcurrentLinkedQueue<>();
+    private final byte[] nameBytes;
+    private final ConcurrentMap<List<String>, Child> children = new ConcurrentHashMap<>();
 
     public CustomPrometheusLongTaskTimer(String name, Iterable<Tag> tags, String description, Clock clock) {
         this.clock = clock;
         this.description = description;
         this.name = name;
         this.tagKeys = stream(tags.spliterator(), false).map(Tag::getKey).collect(toList());
+        this.nameBytes = PrometheusTextEncoder.name(name);
     }
 
     public Child child(Iterable<Tag> tags) {
-        Child child = new Child(tags);
-        children.add(child);
-        return child;
+        return children.computeIfAbsent(CustomCollectorChild.tagValues(tags), Child::new);
+    }
+
+    /**
+     * Stops collecting the child with these tags.
+     *
+     * @return Whether a child was removed.
+     */
+    public boolean remove(Iterable<Tag> tags) {
+        return children.remove(CustomCollectorChild.tagValues(tags)) != null;
     }
 
     public class Child implements CustomCollectorChild {
         private final List<String> tagValues;
+        private final byte[] labels;
         private final ConcurrentMap<Long, Long> tasks = new ConcurrentHashMap<>();
         private final AtomicLong nextTask = new AtomicLong(0L);
 
-        Child(Iterable<Tag> tags) {
-            this.tagValues = stream(tags.spliterator(), false).map(Tag::getValue).collect(toList());
+        Child(List<String> tagValues) {
+            this.tagValues = tagValues;
+            this.labels = PrometheusTextEncoder.labels(tagKeys, tagValues);
         }
 
         @Override
-        public Stream<MetricFamilySamples.Sample> collect() {
-            Stream.Builder<MetricFamilySamples.Sample> samples = Stream.builder();
-
+        public void collect(List<MetricFamilySamples.Sample> samples) {
             List<String> activeTasksKeys = new LinkedList<>(tagKeys);
             activeTasksKeys.add("statistic");
             List<String> activeTasksValues = new LinkedList<>(tagValues);
@@ -76,8 +87,11 @@ public class CustomPrometheusLongTaskTimer extends Collector {
             List<String> durationValues = new LinkedList<>(tagValues);
             durationValues.add("duration");
             samples.add(new MetricFamilySamples.Sample(name, durationKeys, durationValues, duration()));
+        }
 
-            return samples.build();
+        void encode(PrometheusTextEncoder encoder) throws IOException {
+            encoder.writeSample(nameBytes, labels, ACTIVE_TASKS, activeTasks());
+            encoder.writeSample(nameBytes, labels, DURATION, duration());
         }
 
         public long start() {
@@ -117,7 +131,27 @@ public class CustomPrometheusLongTaskTimer extends Collector {
 
     @Override
     public List<MetricFamilySamples> collect() {
-        return Collections.singletonList(new MetricFamilySamples(name, Type.UNTYPED, description == null ? " " : description, children.stream()
-                .flatMap(Child::collect).collect(toList())));
+        return Collections.singletonList(new EncodableMetricFamilySamples(name, Type.UNTYPED, description == null ? " " : description, this));
+    }
+
+    @Override
+    public List<MetricFamilySamples> describe() {
+        return Collections.singletonList(new MetricFamilySamples(name, Type.UNTYPED, description == null ? " " : description, Collections.emptyList()));
+    }
+
+    @Override
+    public List<MetricFamilySamples.Sample> collectSamples() {
+        List<MetricFamilySamples.Sample> samples = new ArrayList<>();
+        for (Child child : children.values()) {
+            child.collect(samples);
+        }
+        return samples;
+    }
+
+    @Override
+    public void encodeSamples(PrometheusTextEncoder encoder) throws IOException {
+        for (Child child : children.values()) {
+            child.encode(encoder);
+        }
     }
 }
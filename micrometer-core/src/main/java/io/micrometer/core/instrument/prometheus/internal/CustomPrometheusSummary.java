@@ -15,20 +15,27 @@
  */
 package io.micrometer.core.instrument.prometheus.internal;
 
+import io.micrometer.core.instrument.MeterRegistry;
 import io.micrometer.core.instrument.Tag;
+import io.micrometer.core.instrument.prometheus.ExemplarSampler;
+import io.micrometer.core.instrument.stats.AsyncStatsRecorder;
 import io.micrometer.core.instrument.stats.hist.*;
+import io.micrometer.core.instrument.stats.quantile.HistogramQuantiles;
 import io.micrometer.core.instrument.stats.quantile.Quantiles;
 import io.prometheus.client.Collector;
 
-import java.util.Collection;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.DoubleAdder;
 import java.util.concurrent.atomic.LongAdder;
-import java.util.stream.Stream;
+import java.util.function.DoubleConsumer;
 
 import static java.util.stream.Collectors.toList;
 import static java.util.stream.StreamSupport.stream;
@@ -38,49 +45,131 @@ import static java.util.stream.StreamSupport.stream;
  *
  * @author Jon Schneider
  */
-public class CustomPrometheusSummary extends Collector {
+public class CustomPrometheusSummary extends Collector implements Collector.Describable, EncodableMetricFamilySamples.Source {
+    private static final byte[] LE = PrometheusTextEncoder.name("le");
+    private static final byte[] BUCKET = PrometheusTextEncoder.name("bucket");
+
     private final String name;
     private final String description;
     private final String countName;
     private final String sumName;
     private final List<String> tagKeys;
 
-    private final Collection<Child> children = new ConcurrentLinkedQueue<>();
+    private final byte[] nameBytes;
+    private final byte[] bucketNameBytes;
+    private final byte[] countNameBytes;
+    private final byte[] sumNameBytes;
+    private final MeterRegistry.Config config;
+    private final ExemplarSampler exemplarSampler;
+
+    private final ConcurrentMap<List<String>, Child> children = new ConcurrentHashMap<>();
 
     public CustomPrometheusSummary(String name, Iterable<Tag> tags, String description) {
+        this(name, tags, description, null);
+    }
+
+    /**
+     * @param config Configuration of the registry, consulted for how histogram buckets are exported.
+     */
+    public CustomPrometheusSummary(String name, Iterable<Tag> tags, String description, MeterRegistry.Config config) {
+        this(name, tags, description, config, null);
+    }
+
+    /**
+     * @param exemplarSampler Samples exemplars of the buckets of cumulative histograms with numeric buckets, or
+     *                        {@code null} to not record exemplars.
+     */
+    public CustomPrometheusSummary(String name, Iterable<Tag> tags, String description, MeterRegistry.Config config,
+                                   ExemplarSampler exemplarSampler) {
         this.name = name;
+        this.config = config;
+        this.exemplarSampler = exemplarSampler;
         this.description = description;
         this.countName = name + "_count";
         this.sumName = name + "_sum";
         this.tagKeys = stream(tags.spliterator(), false).map(Tag::getKey).collect(toList());
+
+        this.nameBytes = PrometheusTextEncoder.name(name);
+        this.bucketNameBytes = PrometheusTextEncoder.name(name + "_bucket");
+        this.countNameBytes = PrometheusTextEncoder.name(countName);
+        this.sumNameBytes = PrometheusTextEncoder.name(sumName);
     }
 
     public Child child(Iterable<Tag> tags, Quantiles quantiles, Histogram histogram) {
-        Child child = new Child(tags, quantiles, histogram);
-        children.add(child);
-        return child;
+        return children.computeIfAbsent(CustomCollectorChild.tagValues(tags), tagValues -> new Child(tagValues, quantiles, histogram));
+    }
+
+    /**
+     * Stops collecting the child with these tags, releasing the off-heap counters of its histogram if it has any.
+     *
+     * @return Whether a child was removed.
+     */
+    public boolean remove(Iterable<Tag> tags) {
+        Child child = children.remove(CustomCollectorChild.tagValues(tags));
+        if (child == null) {
+            return false;
+        }
+        if (child.histogram instanceof OffHeapCumulativeHistogram) {
+            ((OffHeapCumulativeHistogram<?>) child.histogram).release();
+        }
+        return true;
     }
 
     public class Child implements CustomCollectorChild {
         private final List<String> tagValues;
 
-        private final Quantiles quantiles;
+        /**
+         * Labels pre-rendered for the native encoder.
+         */
+        private final byte[] labels;
+        private byte[][] quantileLabels;
+        private byte[] histogramKey;
+
+        private Quantiles quantiles;
         private List<String> quantileKeys;
 
+        /**
+         * Reused across scrapes to evaluate all monitored quantiles at once, guarded by the child's lock.
+         */
+        private double[] quantileValues;
+
+        /**
+         * When quantiles are derived from the same histogram that is published, each sample is only observed once.
+         */
+        private boolean quantilesShareHistogram;
+
         private Histogram<?> histogram;
         private List<String> histogramKeys;
 
+        /**
+         * The latest exemplar of each histogram bucket, whose upper bounds are held in ascending order.
+         */
+        private Exemplars exemplars;
+        private double[] exemplarBounds;
+
         private LongAdder count = new LongAdder();
         private DoubleAdder sum = new DoubleAdder();
 
-        Child(Iterable<Tag> tags, Quantiles quantiles, Histogram<?> histogram) {
+        /**
+         * Updates quantiles and the histogram with a sample, inline or on the registry's async recorder.
+         */
+        private final DoubleConsumer stats = this::observeStats;
+
+        Child(List<String> tagValues, Quantiles quantiles, Histogram<?> histogram) {
             this.quantiles = quantiles;
             this.histogram = histogram;
-            this.tagValues = stream(tags.spliterator(), false).map(Tag::getValue).collect(toList());
+            this.tagValues = tagValues;
+            this.labels = PrometheusTextEncoder.labels(tagKeys, tagValues);
 
             if (quantiles != null) {
                 quantileKeys = new LinkedList<>(tagKeys);
                 quantileKeys.add("quantile");
+
+                quantileLabels = new byte[quantiles.monitored().size()][];
+                int i = 0;
+                for (Double q : quantiles.monitored()) {
+                    quantileLabels[i++] = PrometheusTextEncoder.label("quantile", Collector.doubleToGoString(q));
+                }
             }
 
             if (histogram != null) {
@@ -89,46 +178,188 @@ public class CustomPrometheusSummary extends Collector {
                     histogramKeys.add("le");
                 else // normal histograms may or may not have buckets with a natural ordering
                     histogramKeys.add("bucket");
+                histogramKey = histogram instanceof CumulativeHistogram ? LE : BUCKET;
 
                 if (histogram instanceof TimeScaleCumulativeHistogram) {
                     this.histogram = ((TimeScaleCumulativeHistogram) histogram).shiftScale(TimeUnit.SECONDS);
                 } else if (histogram instanceof TimeScaleNormalHistogram) {
                     this.histogram = ((TimeScaleNormalHistogram) histogram).shiftScale(TimeUnit.SECONDS);
                 }
+
+                if (exemplarSampler != null && this.histogram.isCumulative()) {
+                    try {
+                        exemplarBounds = this.histogram.snapshot().bounds();
+                        exemplars = new Exemplars(exemplarSampler, config.clock(), exemplarBounds.length);
+                    } catch (UnsupportedOperationException ignored) {
+                        // buckets that aren't numeric have no bounds to place exemplars in
+                    }
+                }
+
+                if (quantiles instanceof HistogramQuantiles && ((HistogramQuantiles) quantiles).getHistogram() == histogram) {
+                    quantilesShareHistogram = true;
+                    if (this.histogram != histogram) {
+                        // derive quantiles from the histogram whose scale matches the recorded samples
+                        @SuppressWarnings("unchecked") Histogram<Double> shifted = (Histogram<Double>) this.histogram;
+                        this.quantiles = new HistogramQuantiles(shifted, quantiles.monitored());
+                    }
+                }
             }
         }
 
         @Override
-        public Stream<MetricFamilySamples.Sample> collect() {
-            Stream.Builder<MetricFamilySamples.Sample> samples = Stream.builder();
+        public void collect(List<MetricFamilySamples.Sample> samples) {
+            beforeRead();
 
             if (quantiles != null) {
-                for (Double q : quantiles.monitored()) {
-                    List<String> quantileValues = new LinkedList<>(tagValues);
-                    quantileValues.add(Collector.doubleToGoString(q));
-                    samples.add(new MetricFamilySamples.Sample(name, quantileKeys, quantileValues, quantiles.get(q)));
+                synchronized (this) {
+                    quantileValues = quantiles.getMonitored(quantileValues);
+                    int i = 0;
+                    for (Double q : quantiles.monitored()) {
+                        List<String> quantileTagValues = new LinkedList<>(tagValues);
+                        quantileTagValues.add(Collector.doubleToGoString(q));
+                        samples.add(new MetricFamilySamples.Sample(name, quantileKeys, quantileTagValues, quantileValues[i++]));
+                    }
                 }
             }
 
             if (histogram != null) {
-                for (Bucket<?> b : histogram.getBuckets()) {
-                    List<String> histogramValues = new LinkedList<>(tagValues);
-                    histogramValues.add(b.getTag(bucket ->
-                            bucket instanceof Double ? Collector.doubleToGoString((Double) bucket) : bucket.toString()));
-                    samples.add(new MetricFamilySamples.Sample(name + "_bucket", histogramKeys, histogramValues, b.getValue()));
+                BucketCoalescer coalescer = coalescer();
+                if (coalescer == BucketCoalescer.NONE) {
+                    double lowerBound = Double.NEGATIVE_INFINITY;
+                    for (Bucket<?> b : histogram.getBuckets()) {
+                        List<String> histogramValues = new LinkedList<>(tagValues);
+                        histogramValues.add(b.getTag(bucket ->
+                                bucket instanceof Double ? Collector.doubleToGoString((Double) bucket) : bucket.toString()));
+
+                        Exemplar exemplar = null;
+                        if (exemplars != null) {
+                            double upperBound = ((Number) b.getRawTag()).doubleValue();
+                            exemplar = latestExemplar(lowerBound, upperBound);
+                            lowerBound = upperBound;
+                        }
+                        samples.add(bucketSample(histogramValues, b.getValue(), exemplar));
+                    }
+                } else {
+                    // the histogram in memory keeps its full resolution, only what is exported is coalesced
+                    HistogramSnapshot snapshot = coalescer.coalesce(histogram.snapshot());
+                    long[] counts = histogram.isCumulative() ? snapshot.cumulativeCounts() : snapshot.counts();
+                    for (int i = 0; i < snapshot.size(); i++) {
+                        List<String> histogramValues = new LinkedList<>(tagValues);
+                        histogramValues.add(Collector.doubleToGoString(snapshot.bound(i)));
+                        Exemplar exemplar = exemplars == null ? null :
+                            latestExemplar(i == 0 ? Double.NEGATIVE_INFINITY : snapshot.bound(i - 1), snapshot.bound(i));
+                        samples.add(bucketSample(histogramValues, counts[i], exemplar));
+                    }
                 }
             }
 
             samples.add(new MetricFamilySamples.Sample(countName, tagKeys, tagValues, count.sum()));
             samples.add(new MetricFamilySamples.Sample(sumName, tagKeys, tagValues, sum.sum()));
+        }
+
+        private MetricFamilySamples.Sample bucketSample(List<String> histogramValues, double count, Exemplar exemplar) {
+            return exemplar == null ?
+                new MetricFamilySamples.Sample(name + "_bucket", histogramKeys, histogramValues, count) :
+                new ExemplarSample(name + "_bucket", histogramKeys, histogramValues, count, exemplar);
+        }
+
+        /**
+         * @return The latest exemplar among the buckets with upper bounds in {@code (lowerBound, upperBound]}, so
+         * that exemplars are kept when buckets are coalesced for export.
+         */
+        private Exemplar latestExemplar(double lowerBound, double upperBound) {
+            int i = Arrays.binarySearch(exemplarBounds, lowerBound);
+            i = i >= 0 ? i + 1 : -i - 1;
+
+            Exemplar latest = null;
+            for (; i < exemplarBounds.length && exemplarBounds[i] <= upperBound; i++) {
+                Exemplar exemplar = exemplars.get(i);
+                if (exemplar != null && (latest == null || exemplar.getTimestamp() >= latest.getTimestamp())) {
+                    latest = exemplar;
+                }
+            }
+            return latest;
+        }
+
+        /**
+         * Writes the same samples as {@link #collect(List)}, without building them first. Exemplars are not part of
+         * the text format 0.0.4, so they are left out.
+         */
+        void encode(PrometheusTextEncoder encoder) throws IOException {
+            beforeRead();
+
+            if (quantiles != null) {
+                synchronized (this) {
+                    quantileValues = quantiles.getMonitored(quantileValues);
+                    for (int i = 0; i < quantileLabels.length; i++) {
+                        encoder.writeSample(nameBytes, labels, quantileLabels[i], quantileValues[i]);
+                    }
+                }
+            }
+
+            if (histogram != null) {
+                BucketCoalescer coalescer = coalescer();
+                if (coalescer == BucketCoalescer.NONE) {
+                    for (Bucket<?> b : histogram.getBuckets()) {
+                        String tag = b.getTag(bucket ->
+                                bucket instanceof Double ? Collector.doubleToGoString((Double) bucket) : bucket.toString());
+                        encoder.writeSample(bucketNameBytes, labels, histogramKey, tag, b.getValue());
+                    }
+                } else {
+                    HistogramSnapshot snapshot = coalescer.coalesce(histogram.snapshot());
+                    long[] counts = histogram.isCumulative() ? snapshot.cumulativeCounts() : snapshot.counts();
+                    for (int i = 0; i < snapshot.size(); i++) {
+                        encoder.writeSample(bucketNameBytes, labels, histogramKey, snapshot.bound(i), counts[i]);
+                    }
+                }
+            }
+
+            encoder.writeSample(countNameBytes, labels, null, count.sum());
+            encoder.writeSample(sumNameBytes, labels, null, sum.sum());
+        }
 
-            return samples.build();
+        /**
+         * Histograms whose buckets are not numeric cannot be coalesced, so they are exported at full resolution.
+         */
+        private BucketCoalescer coalescer() {
+            if (config == null || !histogram.hasNumericBuckets()) {
+                return BucketCoalescer.NONE;
+            }
+            return config.histogramBucketCoalescer();
+        }
+
+        private void beforeRead() {
+            AsyncStatsRecorder async = config == null ? null : config.asyncStatsRecorder();
+            if (async != null && (quantiles != null || histogram != null)) {
+                async.beforeRead();
+            }
         }
 
         public void observe(double amt) {
             count.add(1);
             sum.add(amt);
-            if (quantiles != null) {
+
+            if (quantiles != null || histogram != null) {
+                AsyncStatsRecorder async = config == null ? null : config.asyncStatsRecorder();
+                if (async != null) {
+                    async.record(stats, amt);
+                } else {
+                    observeStats(amt);
+                }
+            }
+
+            if (exemplars != null) {
+                // sampled on the recording thread, where the context of the observation is available
+                int bucket = Arrays.binarySearch(exemplarBounds, amt);
+                bucket = bucket >= 0 ? bucket : -bucket - 1;
+                if (bucket < exemplarBounds.length) {
+                    exemplars.record(bucket, amt);
+                }
+            }
+        }
+
+        private void observeStats(double amt) {
+            if (quantiles != null && !quantilesShareHistogram) {
                 quantiles.observe(amt);
             }
             if (histogram != null) {
@@ -147,8 +378,36 @@ public class CustomPrometheusSummary extends Collector {
 
     @Override
     public List<MetricFamilySamples> collect() {
-        Type type = children.stream().anyMatch(c -> c.histogram != null) ? Type.HISTOGRAM : Type.SUMMARY;
-        return Collections.singletonList(new MetricFamilySamples(name, type, description == null ? " " : description, children.stream()
-                .flatMap(Child::collect).collect(toList())));
+        Type type = Type.SUMMARY;
+        for (Child child : children.values()) {
+            if (child.histogram != null) {
+                type = Type.HISTOGRAM;
+                break;
+            }
+        }
+        return Collections.singletonList(new EncodableMetricFamilySamples(name, type, description == null ? " " : description, this));
+    }
+
+    @Override
+    public List<MetricFamilySamples> describe() {
+        // a histogram's sample names include a summary's, and children with histograms may be added later
+        return Collections.singletonList(new MetricFamilySamples(name, Type.HISTOGRAM, description == null ? " " : description,
+                Collections.emptyList()));
+    }
+
+    @Override
+    public List<MetricFamilySamples.Sample> collectSamples() {
+        List<MetricFamilySamples.Sample> samples = new ArrayList<>();
+        for (Child child : children.values()) {
+            child.collect(samples);
+        }
+        return samples;
+    }
+
+    @Override
+    public void encodeSamples(PrometheusTextEncoder encoder) throws IOException {
+        for (Child child : children.values()) {
+            child.encode(encoder);
+        }
     }
 }
@@ -0,0 +1,94 @@
+/**
+ * Copyright 2017 Pivotal Software, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.micrometer.core.instrument.prometheus.internal;
+
+import io.prometheus.client.Collector;
+
+import java.io.IOException;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The family collected from one of Micrometer's own collectors. Its samples are only built when they are read, e.g.
+ * by {@link io.prometheus.client.exporter.common.TextFormat} or {@link io.prometheus.client.CollectorRegistry#getSampleValue(String)}.
+ * The {@link PrometheusTextEncoder} instead asks the collector to write them directly, unless they have already been
+ * built, e.g. to filter them by name.
+ *
+ * @author Jon Schneider
+ */
+class EncodableMetricFamilySamples extends Collector.MetricFamilySamples {
+    interface Source {
+        List<Sample> collectSamples();
+
+        void encodeSamples(PrometheusTextEncoder encoder) throws IOException;
+    }
+
+    private final Source source;
+
+    EncodableMetricFamilySamples(String name, Collector.Type type, String help, Source source) {
+        super(name, type, help, new LazySamples(source));
+        this.source = source;
+    }
+
+    void encodeSamples(PrometheusTextEncoder encoder) throws IOException {
+        source.encodeSamples(encoder);
+    }
+
+    boolean isMaterialized() {
+        return ((LazySamples) samples).isMaterialized();
+    }
+
+    private static class LazySamples extends AbstractList<Sample> {
+        private final Source source;
+        private List<Sample> samples;
+
+        LazySamples(Source source) {
+            this.source = source;
+        }
+
+        @Override
+        public Sample get(int index) {
+            return samples().get(index);
+        }
+
+        @Override
+        public int size() {
+            return samples().size();
+        }
+
+        /**
+         * Supports {@link io.prometheus.client.CollectorRegistry#filteredMetricFamilySamples(java.util.Set)}, which
+         * removes samples that weren't asked for.
+         */
+        @Override
+        public Sample remove(int index) {
+            modCount++;
+            return samples().remove(index);
+        }
+
+        synchronized boolean isMaterialized() {
+            return samples != null;
+        }
+
+        private synchronized List<Sample> samples() {
+            if (samples == null) {
+                samples = new ArrayList<>(source.collectSamples());
+            }
+            return samples;
+        }
+    }
+}
@@ -0,0 +1,50 @@
+/**
+ * Copyright 2017 Pivotal Software, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.micrometer.core.instrument.prometheus.internal;
+
+import io.micrometer.core.instrument.Tag;
+
+/**
+ * An observation that exemplifies the value of a counter or histogram bucket.
+ *
+ * @author Jon Schneider
+ */
+public final class Exemplar {
+    private final Iterable<Tag> tags;
+    private final double value;
+    private final long timestamp;
+
+    /**
+     * @param timestamp Wall time of the observation, in milliseconds since the epoch.
+     */
+    public Exemplar(Iterable<Tag> tags, double value, long timestamp) {
+        this.tags = tags;
+        this.value = value;
+        this.timestamp = timestamp;
+    }
+
+    public Iterable<Tag> getTags() {
+        return tags;
+    }
+
+    public double getValue() {
+        return value;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+}
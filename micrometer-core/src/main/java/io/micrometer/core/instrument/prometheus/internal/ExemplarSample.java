@@ -0,0 +1,34 @@
+/**
+ * Copyright 2017 Pivotal Software, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.micrometer.core.instrument.prometheus.internal;
+
+import io.prometheus.client.Collector;
+
+import java.util.List;
+
+/**
+ * A sample that carries the exemplar of the counter or histogram bucket it was collected from.
+ *
+ * @author Jon Schneider
+ */
+public class ExemplarSample extends Collector.MetricFamilySamples.Sample {
+    public final Exemplar exemplar;
+
+    public ExemplarSample(String name, List<String> labelNames, List<String> labelValues, double value, Exemplar exemplar) {
+        super(name, labelNames, labelValues, value);
+        this.exemplar = exemplar;
+    }
+}
@@ -0,0 +1,58 @@
+/**
+ * Copyright 2017 Pivotal Software, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.micrometer.core.instrument.prometheus.internal;
+
+import io.micrometer.core.instrument.Clock;
+import io.micrometer.core.instrument.Tag;
+import io.micrometer.core.instrument.prometheus.ExemplarSampler;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Holds the latest exemplar of each of a fixed number of slots, such as the buckets of a histogram. An exemplar
+ * replaces the one in its slot without locking or retrying, so the cost of recording one is constant however often
+ * the slot is recorded to or read.
+ *
+ * @author Jon Schneider
+ */
+public final class Exemplars {
+    private final ExemplarSampler sampler;
+    private final Clock clock;
+    private final AtomicReferenceArray<Exemplar> slots;
+
+    public Exemplars(ExemplarSampler sampler, Clock clock, int size) {
+        this.sampler = sampler;
+        this.clock = clock;
+        this.slots = new AtomicReferenceArray<>(size);
+    }
+
+    /**
+     * Offers an observation to the sampler, and keeps it as the exemplar of {@code slot} if it is sampled.
+     */
+    public void record(int slot, double value) {
+        Iterable<Tag> tags = sampler.sample(value);
+        if (tags != null) {
+            slots.lazySet(slot, new Exemplar(tags, value, clock.wallTime()));
+        }
+    }
+
+    /**
+     * @return The latest exemplar recorded to {@code slot}, or {@code null}.
+     */
+    public Exemplar get(int slot) {
+        return slots.get(slot);
+    }
+}
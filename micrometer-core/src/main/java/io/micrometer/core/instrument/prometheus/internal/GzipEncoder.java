@@ -0,0 +1,94 @@
+/**
+ * Copyright 2017 Pivotal Software, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.micrometer.core.instrument.prometheus.internal;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Compresses what is written to it into the gzip format, like {@link java.util.zip.GZIPOutputStream}, except that
+ * its {@link Deflater} and buffer are reset rather than reallocated for every stream it compresses. Finishing a
+ * stream writes the gzip trailer but leaves the underlying stream open.
+ * <p>
+ * An encoder is not thread safe.
+ *
+ * @author Jon Schneider
+ */
+public class GzipEncoder extends OutputStream {
+    private static final byte[] HEADER = {0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff};
+
+    private final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+    private final CRC32 crc = new CRC32();
+    private final byte[] buffer = new byte[8192];
+    private final byte[] single = new byte[1];
+    private OutputStream out;
+
+    /**
+     * Begins a gzip stream written to {@code out}.
+     */
+    public GzipEncoder start(OutputStream out) throws IOException {
+        this.out = out;
+        deflater.reset();
+        crc.reset();
+        out.write(HEADER);
+        return this;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        single[0] = (byte) b;
+        write(single, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        crc.update(b, off, len);
+        deflater.setInput(b, off, len);
+        while (!deflater.needsInput()) {
+            deflate();
+        }
+    }
+
+    /**
+     * Compresses what remains of the input and writes the gzip trailer.
+     */
+    public void finish() throws IOException {
+        deflater.finish();
+        while (!deflater.finished()) {
+            deflate();
+        }
+
+        writeIntLittleEndian((int) crc.getValue());
+        writeIntLittleEndian((int) deflater.getBytesRead());
+        out = null;
+    }
+
+    private void deflate() throws IOException {
+        int length = deflater.deflate(buffer, 0, buffer.length);
+        if (length > 0) {
+            out.write(buffer, 0, length);
+        }
+    }
+
+    private void writeIntLittleEndian(int v) throws IOException {
+        for (int i = 0; i < 4; i++) {
+            single[0] = (byte) (v >>> (8 * i));
+            out.write(single, 0, 1);
+        }
+    }
+}
@@ -0,0 +1,332 @@
+/**
+ * Copyright 2017 Pivotal Software, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.micrometer.core.instrument.prometheus.internal;
+
+import io.prometheus.client.Collector;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.List;
+
+/**
+ * Writes metric family samples in the delimited protobuf exposition format, where each {@code MetricFamily} message
+ * of Prometheus' {@code metrics.proto} is preceded by its length as a varint. Messages are encoded by hand into
+ * buffers that are reused from one family to the next, so only one family is held in memory at a time and no
+ * protobuf runtime is needed.
+ * <p>
+ * Samples of summaries and histograms are grouped into one metric per set of labels, which the collectors in this
+ * client emit consecutively. Protobuf histograms can't carry quantiles or buckets without a numeric upper bound, so
+ * samples of those kinds on a histogram family are left out.
+ * <p>
+ * An encoder is not thread safe.
+ *
+ * @author Jon Schneider
+ */
+public class PrometheusProtobufEncoder {
+    public static final String CONTENT_TYPE = "application/vnd.google.protobuf; proto=io.prometheus.client.MetricFamily; encoding=delimited";
+
+    private static final int WIRE_VARINT = 0;
+    private static final int WIRE_FIXED64 = 1;
+    private static final int WIRE_LENGTH_DELIMITED = 2;
+
+    private final Buffer family = new Buffer();
+    private final Buffer metric = new Buffer();
+    private final Buffer value = new Buffer();
+    private final Buffer length = new Buffer();
+
+    public void write(OutputStream out, Enumeration<Collector.MetricFamilySamples> mfs) throws IOException {
+        while (mfs.hasMoreElements()) {
+            encodeFamily(mfs.nextElement());
+
+            length.reset();
+            length.varint(family.size);
+            out.write(length.bytes, 0, length.size);
+            out.write(family.bytes, 0, family.size);
+        }
+    }
+
+    private void encodeFamily(Collector.MetricFamilySamples mfs) {
+        family.reset();
+        family.string(1, mfs.name);
+        family.string(2, mfs.help);
+        family.tag(3, WIRE_VARINT);
+        family.varint(typeNumber(mfs.type));
+
+        switch (mfs.type) {
+            case SUMMARY:
+            case HISTOGRAM:
+                encodeDistributions(mfs);
+                break;
+            default:
+                // counter = 3, gauge = 2, untyped = 5 in Metric
+                int valueField = mfs.type == Collector.Type.COUNTER ? 3 : mfs.type == Collector.Type.GAUGE ? 2 : 5;
+                for (Collector.MetricFamilySamples.Sample sample : mfs.samples) {
+                    metric.reset();
+                    labels(sample.labelNames, sample.labelValues, sample.labelNames.size());
+                    value.reset();
+                    value.fixed64(1, sample.value);
+                    metric.message(valueField, value);
+                    family.message(4, metric);
+                }
+        }
+    }
+
+    /**
+     * Groups consecutive samples that share labels, other than {@code quantile} or {@code le}, into one summary or
+     * histogram metric.
+     */
+    private void encodeDistributions(Collector.MetricFamilySamples mfs) {
+        boolean summary = mfs.type == Collector.Type.SUMMARY;
+        String bucketName = mfs.name + "_bucket";
+        String countName = mfs.name + "_count";
+        String sumName = mfs.name + "_sum";
+
+        Collector.MetricFamilySamples.Sample group = null;
+        int groupLabels = 0;
+        long count = 0;
+        double sum = 0;
+
+        for (Collector.MetricFamilySamples.Sample sample : mfs.samples) {
+            boolean distributionLabel = sample.name.equals(mfs.name) || sample.name.equals(bucketName);
+            int sampleLabels = sample.labelNames.size() - (distributionLabel && !sample.labelNames.isEmpty() ? 1 : 0);
+
+            if (group == null || !sameLabels(group, groupLabels, sample, sampleLabels)) {
+                if (group != null) {
+                    finishDistribution(summary, group, groupLabels, count, sum);
+                }
+                group = sample;
+                groupLabels = sampleLabels;
+                count = 0;
+                sum = 0;
+                value.reset();
+            }
+
+            if (sample.name.equals(countName)) {
+                count = (long) sample.value;
+            } else if (sample.name.equals(sumName)) {
+                sum = sample.value;
+            } else if (distributionLabel && sampleLabels < sample.labelNames.size()) {
+                String label = sample.labelNames.get(sampleLabels);
+                String labelValue = sample.labelValues.get(sampleLabels);
+                if (summary && sample.name.equals(mfs.name) && label.equals("quantile")) {
+                    // Quantile { double quantile = 1; double value = 2; }
+                    value.tag(3, WIRE_LENGTH_DELIMITED);
+                    value.varint(18);
+                    value.fixed64(1, parseDouble(labelValue));
+                    value.fixed64(2, sample.value);
+                } else if (!summary && sample.name.equals(bucketName) && label.equals("le")) {
+                    // Bucket { uint64 cumulative_count = 1; double upper_bound = 2; }
+                    long cumulativeCount = (long) sample.value;
+                    value.tag(3, WIRE_LENGTH_DELIMITED);
+                    value.varint(1 + Buffer.varintSize(cumulativeCount) + 9);
+                    value.tag(1, WIRE_VARINT);
+                    value.varint(cumulativeCount);
+                    value.fixed64(2, parseDouble(labelValue));
+                }
+            }
+        }
+
+        if (group != null) {
+            finishDistribution(summary, group, groupLabels, count, sum);
+        }
+    }
+
+    private void finishDistribution(boolean summary, Collector.MetricFamilySamples.Sample group, int groupLabels,
+                                    long count, double sum) {
+        // fields may appear in any order, so the count and sum follow the quantiles or buckets
+        value.tag(1, WIRE_VARINT);
+        value.varint(count);
+        value.fixed64(2, sum);
+
+        metric.reset();
+        labels(group.labelNames, group.labelValues, groupLabels);
+        metric.message(summary ? 4 : 7, value);
+        family.message(4, metric);
+    }
+
+    private static boolean sameLabels(Collector.MetricFamilySamples.Sample a, int aLabels,
+                                      Collector.MetricFamilySamples.Sample b, int bLabels) {
+        if (aLabels != bLabels) {
+            return false;
+        }
+        for (int i = 0; i < aLabels; i++) {
+            if (!a.labelNames.get(i).equals(b.labelNames.get(i)) || !a.labelValues.get(i).equals(b.labelValues.get(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * LabelPair { string name = 1; string value = 2; }
+     */
+    private void labels(List<String> names, List<String> values, int count) {
+        for (int i = 0; i < count; i++) {
+            String name = names.get(i);
+            String value = values.get(i);
+            int nameLength = Buffer.utf8Length(name);
+            int valueLength = Buffer.utf8Length(value);
+
+            metric.tag(1, WIRE_LENGTH_DELIMITED);
+            metric.varint(2 + Buffer.varintSize(nameLength) + nameLength + Buffer.varintSize(valueLength) + valueLength);
+            metric.string(1, name, nameLength);
+            metric.string(2, value, valueLength);
+        }
+    }
+
+    private static double parseDouble(String s) {
+        switch (s) {
+            case "+Inf":
+                return Double.POSITIVE_INFINITY;
+            case "-Inf":
+                return Double.NEGATIVE_INFINITY;
+            default:
+                return Double.parseDouble(s);
+        }
+    }
+
+    private static int typeNumber(Collector.Type type) {
+        switch (type) {
+            case COUNTER:
+                return 0;
+            case GAUGE:
+                return 1;
+            case SUMMARY:
+                return 2;
+            case HISTOGRAM:
+                return 4;
+            default:
+                return 3;
+        }
+    }
+
+    /**
+     * A growable byte array that protobuf fields are encoded into.
+     */
+    private static class Buffer {
+        byte[] bytes = new byte[256];
+        int size;
+
+        void reset() {
+            size = 0;
+        }
+
+        void tag(int field, int wireType) {
+            varint((field << 3) | wireType);
+        }
+
+        void varint(long v) {
+            ensure(10);
+            while ((v & ~0x7FL) != 0) {
+                bytes[size++] = (byte) ((v & 0x7F) | 0x80);
+                v >>>= 7;
+            }
+            bytes[size++] = (byte) v;
+        }
+
+        void fixed64(int field, double d) {
+            tag(field, WIRE_FIXED64);
+            ensure(8);
+            long v = Double.doubleToRawLongBits(d);
+            for (int i = 0; i < 8; i++) {
+                bytes[size++] = (byte) (v >>> (8 * i));
+            }
+        }
+
+        void string(int field, String s) {
+            string(field, s, utf8Length(s));
+        }
+
+        void string(int field, String s, int utf8Length) {
+            tag(field, WIRE_LENGTH_DELIMITED);
+            varint(utf8Length);
+            ensure(utf8Length);
+            for (int i = 0; i < s.length(); i++) {
+                char c = s.charAt(i);
+                if (c < 0x80) {
+                    bytes[size++] = (byte) c;
+                } else if (c < 0x800) {
+                    bytes[size++] = (byte) (0xC0 | (c >> 6));
+                    bytes[size++] = (byte) (0x80 | (c & 0x3F));
+                } else if (Character.isSurrogate(c)) {
+                    if (Character.isHighSurrogate(c) && i + 1 < s.length() && Character.isLowSurrogate(s.charAt(i + 1))) {
+                        int codePoint = Character.toCodePoint(c, s.charAt(++i));
+                        bytes[size++] = (byte) (0xF0 | (codePoint >> 18));
+                        bytes[size++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+                        bytes[size++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+                        bytes[size++] = (byte) (0x80 | (codePoint & 0x3F));
+                    } else {
+                        bytes[size++] = '?';
+                    }
+                } else {
+                    bytes[size++] = (byte) (0xE0 | (c >> 12));
+                    bytes[size++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                    bytes[size++] = (byte) (0x80 | (c & 0x3F));
+                }
+            }
+        }
+
+        void message(int field, Buffer message) {
+            tag(field, WIRE_LENGTH_DELIMITED);
+            varint(message.size);
+            ensure(message.size);
+            System.arraycopy(message.bytes, 0, bytes, size, message.size);
+            size += message.size;
+        }
+
+        private void ensure(int additional) {
+            if (size + additional > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(size + additional, bytes.length * 2));
+            }
+        }
+
+        static int varintSize(long v) {
+            int size = 1;
+            while ((v & ~0x7FL) != 0) {
+                size++;
+                v >>>= 7;
+            }
+            return size;
+        }
+
+        /**
+         * @return The number of bytes {@code s} occupies in UTF-8, with unpaired surrogates replaced by '?'.
+         */
+        static int utf8Length(String s) {
+            int length = 0;
+            for (int i = 0; i < s.length(); i++) {
+                char c = s.charAt(i);
+                if (c < 0x80) {
+                    length++;
+                } else if (c < 0x800) {
+                    length += 2;
+                } else if (Character.isSurrogate(c)) {
+                    if (Character.isHighSurrogate(c) && i + 1 < s.length() && Character.isLowSurrogate(s.charAt(i + 1))) {
+                        i++;
+                        length += 4;
+                    } else {
+                        length++;
+                    }
+                } else {
+                    length += 3;
+                }
+            }
+            return length;
+        }
+    }
+}
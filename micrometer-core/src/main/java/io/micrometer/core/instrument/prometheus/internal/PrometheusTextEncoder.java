@@ -0,0 +1,580 @@
+/**
+ * Copyright 2017 Pivotal Software, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.micrometer.core.instrument.prometheus.internal;
+
+import io.micrometer.core.instrument.Tag;
+import io.prometheus.client.Collector;
+import io.prometheus.client.exporter.common.TextFormat;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes metric family samples in the Prometheus text exposition format 0.0.4, producing the same output as
+ * {@link TextFormat#write004(java.io.Writer, Enumeration)}, but encoding it as UTF-8 straight into a byte buffer that
+ * is flushed to an {@link OutputStream} whenever it fills. Samples are streamed as they are collected, so the size of
+ * the exposition doesn't determine the memory needed to write it.
+ * <p>
+ * Families collected from Micrometer's own collectors are written straight from their children, which keep their
+ * name and labels pre-rendered as bytes, rather than through intermediate {@link Collector.MetricFamilySamples.Sample}
+ * objects. Integral values are formatted without allocating.
+ * <p>
+ * The same encoder writes the OpenMetrics text format, along with the exemplars of samples collected as
+ * {@link ExemplarSample}. Histogram families are split to fit its stricter typing, keeping the samples of each child
+ * together. Children with cumulative buckets are written as a histogram of their buckets, count and sum, and every
+ * other sample goes to a separate {@code <name>_quantiles} summary. Families with no cumulative buckets at all are
+ * written as a summary of their quantiles, count and sum. Non-cumulative buckets are written as an {@code unknown}
+ * family named after the summary with a {@code _bucket} suffix.
+ * <p>
+ * An encoder reuses its buffer from one scrape to the next and is not thread safe.
+ *
+ * @author Jon Schneider
+ */
+public class PrometheusTextEncoder {
+    public static final String OPENMETRICS_CONTENT_TYPE = "application/openmetrics-text; version=1.0.0; charset=utf-8";
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    private int position;
+    private OutputStream out;
+
+    /**
+     * Scratch space for the digits of integral values.
+     */
+    private final byte[] digits = new byte[20];
+
+    public void write(OutputStream out, Enumeration<Collector.MetricFamilySamples> mfs) throws IOException {
+        this.out = out;
+        try {
+            while (mfs.hasMoreElements()) {
+                writeFamily(mfs.nextElement());
+            }
+            flushBuffer();
+        } finally {
+            this.out = null;
+            this.position = 0;
+        }
+    }
+
+    /**
+     * Writes metric family samples in the OpenMetrics text format 1.0.0. Families are always written from their
+     * samples, since only samples carry exemplars.
+     */
+    public void writeOpenMetrics(OutputStream out, Enumeration<Collector.MetricFamilySamples> mfs) throws IOException {
+        this.out = out;
+        try {
+            while (mfs.hasMoreElements()) {
+                writeOpenMetricsFamily(mfs.nextElement());
+            }
+            writeAscii("# EOF\n");
+            flushBuffer();
+        } finally {
+            this.out = null;
+            this.position = 0;
+        }
+    }
+
+    private void writeOpenMetricsFamily(Collector.MetricFamilySamples family) throws IOException {
+        if (family.type != Collector.Type.HISTOGRAM) {
+            writeOpenMetricsFamily(family.name, family.type, family.help, family.samples);
+            return;
+        }
+
+        // the samples of each child, since OpenMetrics doesn't allow the samples of different label sets to interleave
+        String bucketName = family.name + "_bucket";
+        Map<List<String>, ChildSamples> children = new LinkedHashMap<>();
+        boolean anyCumulative = false;
+        for (Collector.MetricFamilySamples.Sample sample : family.samples) {
+            ChildSamples child = children.computeIfAbsent(childLabels(sample), labels -> new ChildSamples());
+            if (sample.name.equals(bucketName) && sample.labelNames.contains("le")) {
+                child.cumulative.add(sample);
+                anyCumulative = true;
+            } else if (sample.name.equals(bucketName)) {
+                child.nonCumulative.add(sample);
+            } else if (sample.name.equals(family.name)) {
+                child.quantiles.add(sample);
+            } else {
+                child.countAndSum.add(sample);
+            }
+        }
+
+        if (!anyCumulative) {
+            List<Collector.MetricFamilySamples.Sample> summary = new ArrayList<>();
+            List<Collector.MetricFamilySamples.Sample> buckets = new ArrayList<>();
+            for (ChildSamples child : children.values()) {
+                summary.addAll(child.quantiles);
+                summary.addAll(child.countAndSum);
+                buckets.addAll(child.nonCumulative);
+            }
+            writeOpenMetricsFamily(family.name, Collector.Type.SUMMARY, family.help, summary);
+            if (!buckets.isEmpty()) {
+                writeOpenMetricsFamily(bucketName, Collector.Type.UNTYPED, family.help, buckets);
+            }
+            return;
+        }
+
+        // an OpenMetrics histogram only holds buckets with an le label, their count and their sum. Everything else
+        // goes to a summary named <name>_quantiles, whose samples have to be renamed after it.
+        String quantilesName = family.name + "_quantiles";
+        List<Collector.MetricFamilySamples.Sample> histogram = new ArrayList<>();
+        List<Collector.MetricFamilySamples.Sample> summary = new ArrayList<>();
+        List<Collector.MetricFamilySamples.Sample> buckets = new ArrayList<>();
+        for (ChildSamples child : children.values()) {
+            summary.addAll(rename(child.quantiles, family.name, quantilesName));
+            if (child.cumulative.isEmpty()) {
+                summary.addAll(rename(child.countAndSum, family.name, quantilesName));
+                buckets.addAll(rename(child.nonCumulative, family.name, quantilesName));
+            } else {
+                histogram.addAll(child.cumulative);
+                histogram.addAll(child.countAndSum);
+            }
+        }
+        writeOpenMetricsFamily(family.name, Collector.Type.HISTOGRAM, family.help, histogram);
+        if (!summary.isEmpty()) {
+            writeOpenMetricsFamily(quantilesName, Collector.Type.SUMMARY, family.help, summary);
+        }
+        if (!buckets.isEmpty()) {
+            writeOpenMetricsFamily(quantilesName + "_bucket", Collector.Type.UNTYPED, family.help, buckets);
+        }
+    }
+
+    /**
+     * @return The names and values of a sample's labels, other than the label that distinguishes a quantile or bucket
+     * from the other samples of its child.
+     */
+    private static List<String> childLabels(Collector.MetricFamilySamples.Sample sample) {
+        List<String> labels = new ArrayList<>(sample.labelNames.size() * 2);
+        for (int i = 0; i < sample.labelNames.size(); i++) {
+            String labelName = sample.labelNames.get(i);
+            if (!labelName.equals("le") && !labelName.equals("bucket") && !labelName.equals("quantile")) {
+                labels.add(labelName);
+                labels.add(sample.labelValues.get(i));
+            }
+        }
+        return labels;
+    }
+
+    /**
+     * Replaces the family name that sample names start with.
+     */
+    private static List<Collector.MetricFamilySamples.Sample> rename(List<Collector.MetricFamilySamples.Sample> samples,
+                                                                     String familyName, String newFamilyName) {
+        List<Collector.MetricFamilySamples.Sample> renamed = new ArrayList<>(samples.size());
+        for (Collector.MetricFamilySamples.Sample sample : samples) {
+            renamed.add(new Collector.MetricFamilySamples.Sample(newFamilyName + sample.name.substring(familyName.length()),
+                sample.labelNames, sample.labelValues, sample.value));
+        }
+        return renamed;
+    }
+
+    private static class ChildSamples {
+        final List<Collector.MetricFamilySamples.Sample> quantiles = new ArrayList<>();
+        final List<Collector.MetricFamilySamples.Sample> cumulative = new ArrayList<>();
+        final List<Collector.MetricFamilySamples.Sample> nonCumulative = new ArrayList<>();
+        final List<Collector.MetricFamilySamples.Sample> countAndSum = new ArrayList<>();
+    }
+
+    private void writeOpenMetricsFamily(String familyName, Collector.Type type, String help,
+                                        List<Collector.MetricFamilySamples.Sample> samples) throws IOException {
+        boolean counter = type == Collector.Type.COUNTER;
+
+        // OpenMetrics names a counter's family without the _total suffix of its samples
+        String name = counter && familyName.endsWith("_total") ?
+            familyName.substring(0, familyName.length() - "_total".length()) : familyName;
+
+        writeAscii("# TYPE ");
+        writeUtf8(name);
+        writeByte(' ');
+        writeAscii(openMetricsTypeString(type));
+        writeByte('\n');
+
+        if (!help.trim().isEmpty()) {
+            writeAscii("# HELP ");
+            writeUtf8(name);
+            writeByte(' ');
+            writeEscapedLabelValue(help);
+            writeByte('\n');
+        }
+
+        for (Collector.MetricFamilySamples.Sample sample : samples) {
+            writeUtf8(sample.name);
+            if (counter && !sample.name.endsWith("_total")) {
+                writeAscii("_total");
+            }
+
+            List<String> labelNames = sample.labelNames;
+            if (!labelNames.isEmpty()) {
+                writeByte('{');
+                List<String> labelValues = sample.labelValues;
+                for (int i = 0; i < labelNames.size(); i++) {
+                    if (i > 0) {
+                        writeByte(',');
+                    }
+                    writeUtf8(labelNames.get(i));
+                    writeAscii("=\"");
+                    writeEscapedLabelValue(labelValues.get(i));
+                    writeByte('"');
+                }
+                writeByte('}');
+            }
+            writeByte(' ');
+            writeDouble(sample.value);
+
+            if (sample instanceof ExemplarSample) {
+                writeExemplar(((ExemplarSample) sample).exemplar);
+            }
+            writeByte('\n');
+        }
+    }
+
+    private void writeExemplar(Exemplar exemplar) throws IOException {
+        writeAscii(" # {");
+        boolean first = true;
+        for (Tag tag : exemplar.getTags()) {
+            if (!first) {
+                writeByte(',');
+            }
+            first = false;
+            writeUtf8(tag.getKey());
+            writeAscii("=\"");
+            writeEscapedLabelValue(tag.getValue());
+            writeByte('"');
+        }
+        writeAscii("} ");
+        writeDouble(exemplar.getValue());
+
+        // in seconds, with the milliseconds of the wall clock as a fraction
+        long timestamp = exemplar.getTimestamp();
+        writeByte(' ');
+        writeLong(timestamp / 1000);
+        writeByte('.');
+        long millis = timestamp % 1000;
+        writeByte('0' + (int) (millis / 100));
+        writeByte('0' + (int) (millis / 10 % 10));
+        writeByte('0' + (int) (millis % 10));
+    }
+
+    private void writeFamily(Collector.MetricFamilySamples family) throws IOException {
+        writeAscii("# HELP ");
+        writeUtf8(family.name);
+        writeByte(' ');
+        writeEscapedHelp(family.help);
+        writeByte('\n');
+
+        writeAscii("# TYPE ");
+        writeUtf8(family.name);
+        writeByte(' ');
+        writeAscii(typeString(family.type));
+        writeByte('\n');
+
+        if (family instanceof EncodableMetricFamilySamples && !((EncodableMetricFamilySamples) family).isMaterialized()) {
+            ((EncodableMetricFamilySamples) family).encodeSamples(this);
+            return;
+        }
+
+        for (Collector.MetricFamilySamples.Sample sample : family.samples) {
+            writeUtf8(sample.name);
+            List<String> labelNames = sample.labelNames;
+            if (!labelNames.isEmpty()) {
+                writeByte('{');
+                List<String> labelValues = sample.labelValues;
+                for (int i = 0; i < labelNames.size(); i++) {
+                    writeUtf8(labelNames.get(i));
+                    writeAscii("=\"");
+                    writeEscapedLabelValue(labelValues.get(i));
+                    writeAscii("\",");
+                }
+                writeByte('}');
+            }
+            writeByte(' ');
+            writeAscii(Collector.doubleToGoString(sample.value));
+            writeByte('\n');
+        }
+    }
+
+    /**
+     * Writes a sample whose name and labels have been rendered with {@link #name(String)} and
+     * {@link #labels(List, List)}.
+     *
+     * @param extraLabel An additional label rendered with {@link #label(String, String)}, or {@code null}.
+     */
+    void writeSample(byte[] name, byte[] labels, byte[] extraLabel, double value) throws IOException {
+        writeBytes(name);
+        if (labels.length > 0 || extraLabel != null) {
+            writeByte('{');
+            writeBytes(labels);
+            if (extraLabel != null) {
+                writeBytes(extraLabel);
+            }
+            writeByte('}');
+        }
+        writeByte(' ');
+        writeDouble(value);
+        writeByte('\n');
+    }
+
+    /**
+     * Writes a sample with an additional label whose value varies from one scrape to the next.
+     *
+     * @param extraLabelKey The name of the additional label, rendered with {@link #name(String)}.
+     */
+    void writeSample(byte[] name, byte[] labels, byte[] extraLabelKey, String extraLabelValue, double value) throws IOException {
+        writeBytes(name);
+        writeByte('{');
+        writeBytes(labels);
+        writeBytes(extraLabelKey);
+        writeAscii("=\"");
+        writeEscapedLabelValue(extraLabelValue);
+        writeAscii("\",");
+        writeByte('}');
+        writeByte(' ');
+        writeDouble(value);
+        writeByte('\n');
+    }
+
+    /**
+     * Writes a sample with an additional numeric label, formatted like {@link Collector#doubleToGoString(double)}.
+     */
+    void writeSample(byte[] name, byte[] labels, byte[] extraLabelKey, double extraLabelValue, double value) throws IOException {
+        writeBytes(name);
+        writeByte('{');
+        writeBytes(labels);
+        writeBytes(extraLabelKey);
+        writeAscii("=\"");
+        writeDouble(extraLabelValue);
+        writeAscii("\",");
+        writeByte('}');
+        writeByte(' ');
+        writeDouble(value);
+        writeByte('\n');
+    }
+
+    /**
+     * @return A metric or label name encoded as it is written to the exposition.
+     */
+    static byte[] name(String name) {
+        return name.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return Label pairs encoded as they are written between the braces of a sample, each followed by a comma.
+     */
+    static byte[] labels(List<String> keys, List<String> values) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        PrometheusTextEncoder encoder = new PrometheusTextEncoder();
+        encoder.out = bytes;
+        try {
+            for (int i = 0; i < keys.size(); i++) {
+                encoder.writeUtf8(keys.get(i));
+                encoder.writeAscii("=\"");
+                encoder.writeEscapedLabelValue(values.get(i));
+                encoder.writeAscii("\",");
+            }
+            encoder.flushBuffer();
+        } catch (IOException e) {
+            // This actually never happens since ByteArrayOutputStream::write() doesn't throw any IOException
+            throw new RuntimeException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * @return A single label pair encoded as it is written between the braces of a sample, followed by a comma.
+     */
+    static byte[] label(String key, String value) {
+        return labels(Collections.singletonList(key), Collections.singletonList(value));
+    }
+
+    /**
+     * Formats a value as {@link Collector#doubleToGoString(double)} does. Integral values, which covers counts and
+     * most bucket bounds, are formatted digit by digit. Other values fall back to {@link Double#toString(double)},
+     * whose shortest round-trip representation they have to match.
+     */
+    private void writeDouble(double d) throws IOException {
+        if (d == Double.POSITIVE_INFINITY) {
+            writeAscii("+Inf");
+        } else if (d == Double.NEGATIVE_INFINITY) {
+            writeAscii("-Inf");
+        } else if (Double.isNaN(d)) {
+            writeAscii("NaN");
+        } else if (d == (long) d && Math.abs(d) < 1e7 && Double.doubleToRawLongBits(d) != Long.MIN_VALUE) {
+            // below 10^7 Double.toString doesn't switch to scientific notation, and -0.0 is excluded
+            writeLong((long) d);
+            writeAscii(".0");
+        } else {
+            writeAscii(Double.toString(d));
+        }
+    }
+
+    private void writeLong(long value) throws IOException {
+        if (value < 0) {
+            writeByte('-');
+            value = -value;
+        }
+        int i = digits.length;
+        do {
+            digits[--i] = (byte) ('0' + value % 10);
+            value /= 10;
+        } while (value > 0);
+        for (; i < digits.length; i++) {
+            writeByte(digits[i]);
+        }
+    }
+
+    private void writeBytes(byte[] bytes) throws IOException {
+        if (bytes.length > buffer.length - position) {
+            flushBuffer();
+            if (bytes.length > buffer.length) {
+                out.write(bytes);
+                return;
+            }
+        }
+        System.arraycopy(bytes, 0, buffer, position, bytes.length);
+        position += bytes.length;
+    }
+
+    private void writeEscapedHelp(String s) throws IOException {
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            switch (c) {
+                case '\\':
+                    writeAscii("\\\\");
+                    break;
+                case '\n':
+                    writeAscii("\\n");
+                    break;
+                default:
+                    i = writeUtf8(s, i);
+            }
+        }
+    }
+
+    private void writeEscapedLabelValue(String s) throws IOException {
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            switch (c) {
+                case '\\':
+                    writeAscii("\\\\");
+                    break;
+                case '\"':
+                    writeAscii("\\\"");
+                    break;
+                case '\n':
+                    writeAscii("\\n");
+                    break;
+                default:
+                    i = writeUtf8(s, i);
+            }
+        }
+    }
+
+    private static String typeString(Collector.Type t) {
+        switch (t) {
+            case GAUGE:
+                return "gauge";
+            case COUNTER:
+                return "counter";
+            case SUMMARY:
+                return "summary";
+            case HISTOGRAM:
+                return "histogram";
+            default:
+                return "untyped";
+        }
+    }
+
+    private static String openMetricsTypeString(Collector.Type t) {
+        switch (t) {
+            case GAUGE:
+                return "gauge";
+            case COUNTER:
+                return "counter";
+            case SUMMARY:
+                return "summary";
+            case HISTOGRAM:
+                return "histogram";
+            default:
+                return "unknown";
+        }
+    }
+
+    /**
+     * @param s A string made up only of ASCII characters.
+     */
+    private void writeAscii(String s) throws IOException {
+        for (int i = 0; i < s.length(); i++) {
+            writeByte(s.charAt(i));
+        }
+    }
+
+    private void writeUtf8(String s) throws IOException {
+        for (int i = 0; i < s.length(); i++) {
+            i = writeUtf8(s, i);
+        }
+    }
+
+    /**
+     * Encodes the character at {@code i}, along with the low surrogate that follows it if it is a high surrogate.
+     * Unpaired surrogates are replaced with '?', as {@link String#getBytes(java.nio.charset.Charset)} does.
+     *
+     * @return The index of the last character that was encoded.
+     */
+    private int writeUtf8(String s, int i) throws IOException {
+        char c = s.charAt(i);
+        if (c < 0x80) {
+            writeByte(c);
+        } else if (c < 0x800) {
+            writeByte(0xC0 | (c >> 6));
+            writeByte(0x80 | (c & 0x3F));
+        } else if (Character.isSurrogate(c)) {
+            if (Character.isHighSurrogate(c) && i + 1 < s.length() && Character.isLowSurrogate(s.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, s.charAt(++i));
+                writeByte(0xF0 | (codePoint >> 18));
+                writeByte(0x80 | ((codePoint >> 12) & 0x3F));
+                writeByte(0x80 | ((codePoint >> 6) & 0x3F));
+                writeByte(0x80 | (codePoint & 0x3F));
+            } else {
+                writeByte('?');
+            }
+        } else {
+            writeByte(0xE0 | (c >> 12));
+            writeByte(0x80 | ((c >> 6) & 0x3F));
+            writeByte(0x80 | (c & 0x3F));
+        }
+        return i;
+    }
+
+    private void writeByte(int b) throws IOException {
+        if (position == buffer.length) {
+            flushBuffer();
+        }
+        buffer[position++] = (byte) b;
+    }
+
+    private void flushBuffer() throws IOException {
+        out.write(buffer, 0, position);
+        position = 0;
+    }
+}
@@ -17,6 +17,7 @@ package io.micrometer.core.instrument.simple;
 
 import io.micrometer.core.instrument.*;
 import io.micrometer.core.instrument.stats.hist.Histogram;
+import io.micrometer.core.instrument.stats.quantile.BatchedQuantiles;
 import io.micrometer.core.instrument.stats.quantile.Quantiles;
 
 import java.util.LinkedList;
@@ -66,11 +67,14 @@ public class SimpleMeterRegistry extends AbstractMeterRegistry {
 
     private void registerQuantilesGaugeIfNecessary(String name, Iterable<Tag> tags, Quantiles quantiles) {
         if (quantiles != null) {
+            BatchedQuantiles batched = new BatchedQuantiles(quantiles);
+            int index = 0;
             for (Double q : quantiles.monitored()) {
                 List<Tag> quantileTags = new LinkedList<>();
                 tags.forEach(quantileTags::add);
                 quantileTags.add(Tag.of("quantile", Double.isNaN(q) ? "NaN" : Double.toString(q)));
-                gauge(name, quantileTags, q, quantiles::get);
+                int i = index++;
+                gauge(name, quantileTags, q, q2 -> batched.get(i));
             }
         }
     }
@@ -16,16 +16,51 @@
 package io.micrometer.core.instrument.spectator;
 
 import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
 import io.micrometer.core.instrument.Tag;
+import io.micrometer.core.instrument.stats.AsyncStatsRecorder;
+import io.micrometer.core.instrument.stats.hist.Histogram;
+import io.micrometer.core.instrument.stats.quantile.HistogramQuantiles;
+import io.micrometer.core.instrument.stats.quantile.Quantiles;
 import io.micrometer.core.instrument.util.MeterEquivalence;
 
+import java.util.function.DoubleConsumer;
+
 public class SpectatorDistributionSummary implements DistributionSummary {
     private com.netflix.spectator.api.DistributionSummary distributionSummary;
     private final String description;
+    private final Quantiles quantiles;
+    private final Histogram<?> histogram;
+    private final MeterRegistry.Config config;
+    private final DoubleConsumer stats = this::observeStats;
+
+    /**
+     * When quantiles are derived from the same histogram that is published, each sample is only observed once.
+     */
+    private final boolean quantilesShareHistogram;
 
     public SpectatorDistributionSummary(com.netflix.spectator.api.DistributionSummary distributionSummary, String description) {
+        this(distributionSummary, description, null, null);
+    }
+
+    public SpectatorDistributionSummary(com.netflix.spectator.api.DistributionSummary distributionSummary, String description,
+                                        Quantiles quantiles, Histogram<?> histogram) {
+        this(distributionSummary, description, quantiles, histogram, null);
+    }
+
+    /**
+     * @param config Configuration of the registry, consulted for whether quantiles and histograms are updated in the
+     *               background.
+     */
+    public SpectatorDistributionSummary(com.netflix.spectator.api.DistributionSummary distributionSummary, String description,
+                                        Quantiles quantiles, Histogram<?> histogram, MeterRegistry.Config config) {
         this.distributionSummary = distributionSummary;
         this.description = description;
+        this.quantiles = quantiles;
+        this.histogram = histogram;
+        this.config = config;
+        this.quantilesShareHistogram = histogram != null && quantiles instanceof HistogramQuantiles &&
+            ((HistogramQuantiles) quantiles).getHistogram() == histogram;
     }
 
     /**
@@ -36,6 +71,23 @@ public class SpectatorDistributionSummary implements DistributionSummary {
     @Override
     public void record(double amount) {
         distributionSummary.record((long) amount);
+        if (quantiles != null || histogram != null) {
+            AsyncStatsRecorder async = config == null ? null : config.asyncStatsRecorder();
+            if (async != null) {
+                async.record(stats, amount);
+            } else {
+                observeStats(amount);
+            }
+        }
+    }
+
+    private void observeStats(double amount) {
+        if (quantiles != null && !quantilesShareHistogram) {
+            quantiles.observe(amount);
+        }
+        if (histogram != null) {
+            histogram.observe(amount);
+        }
     }
 
     @Override
@@ -20,14 +20,23 @@ import com.netflix.spectator.api.Id;
 import com.netflix.spectator.api.Measurement;
 import com.netflix.spectator.api.Registry;
 import io.micrometer.core.instrument.*;
+import io.micrometer.core.instrument.stats.AsyncStatsRecorder;
+import io.micrometer.core.instrument.stats.hist.Bucket;
+import io.micrometer.core.instrument.stats.hist.BucketCoalescer;
 import io.micrometer.core.instrument.stats.hist.Histogram;
+import io.micrometer.core.instrument.stats.hist.HistogramSnapshot;
+import io.micrometer.core.instrument.stats.hist.TimeScaleCumulativeHistogram;
+import io.micrometer.core.instrument.stats.hist.TimeScaleNormalHistogram;
+import io.micrometer.core.instrument.stats.quantile.BatchedQuantiles;
+import io.micrometer.core.instrument.stats.quantile.HistogramQuantiles;
 import io.micrometer.core.instrument.stats.quantile.Quantiles;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 import java.util.function.ToDoubleFunction;
-import java.util.function.UnaryOperator;
 import java.util.stream.Stream;
 
 import static java.util.stream.Collectors.toList;
@@ -58,18 +67,28 @@ public abstract class SpectatorMeterRegistry extends AbstractMeterRegistry {
 
     @Override
     protected io.micrometer.core.instrument.DistributionSummary newDistributionSummary(String name, Iterable<Tag> tags, String description, Quantiles quantiles, Histogram<?> histogram) {
-        registerQuantilesGaugeIfNecessary(name, tags, quantiles, UnaryOperator.identity());
+        Histogram<?> recorded = registerHistogramCounterIfNecessary(name, tags, histogram);
+        quantiles = quantilesOf(quantiles, histogram, recorded);
+        registerQuantilesGaugeIfNecessary(name, tags, quantiles);
         com.netflix.spectator.api.DistributionSummary ds = registry.distributionSummary(name, toSpectatorTags(tags));
-        return new SpectatorDistributionSummary(ds, description);
+        return new SpectatorDistributionSummary(ds, description, quantiles, recorded, config());
     }
 
     @Override
     protected io.micrometer.core.instrument.Timer newTimer(String name, Iterable<Tag> tags, String description, Histogram<?> histogram, Quantiles quantiles) {
-        // scale nanosecond precise quantile values to seconds
-        registerQuantilesGaugeIfNecessary(name, tags, quantiles, t -> t / 1.0e6);
-        registerHistogramCounterIfNecessary(name, tags, histogram);
+        Histogram<?> shifted = histogram;
+        if (histogram instanceof TimeScaleCumulativeHistogram) {
+            shifted = ((TimeScaleCumulativeHistogram) histogram).shiftScale(TimeUnit.SECONDS);
+        } else if (histogram instanceof TimeScaleNormalHistogram) {
+            shifted = ((TimeScaleNormalHistogram) histogram).shiftScale(TimeUnit.SECONDS);
+        }
+        Histogram<?> recorded = registerHistogramCounterIfNecessary(name, tags, shifted);
+        quantiles = quantilesOf(quantiles, histogram, recorded);
+
+        // timers observe quantiles in seconds, the same base unit as their histogram buckets
+        registerQuantilesGaugeIfNecessary(name, tags, quantiles);
         com.netflix.spectator.api.Timer timer = registry.timer(name, toSpectatorTags(tags));
-        return new SpectatorTimer(timer, description, quantiles, config().clock());
+        return new SpectatorTimer(timer, description, quantiles, recorded, config());
     }
 
     @Override
@@ -80,26 +99,90 @@ public abstract class SpectatorMeterRegistry extends AbstractMeterRegistry {
         return new SpectatorGauge(gauge, description);
     }
 
-    private void registerHistogramCounterIfNecessary(String name, Iterable<io.micrometer.core.instrument.Tag> tags, Histogram<?> histogram) {
-        // FIXME need the heisen-counter to complete
-//        if(histogram != null) {
-//            for (Bucket<?> bucket : histogram.getBuckets()) {
-//                List<com.netflix.spectator.api.Tag> histogramTags = new LinkedList<>(toSpectatorTags(tags));
-//                histogramTags.add(new BasicTag("bucket", bucket.toString()));
-//                histogramTags.add(new BasicTag("statistic", "histogram"));
-//                registry.counter(registry.createId(tagFormatter.formatName(name), histogramTags)).count();
-//            }
-//        }
+    /**
+     * Registers a meter reporting each of the histogram's buckets as a separate measurement.
+     *
+     * @return The histogram that samples should be recorded to.
+     */
+    private Histogram<?> registerHistogramCounterIfNecessary(String name, Iterable<io.micrometer.core.instrument.Tag> tags, Histogram<?> histogram) {
+        if (histogram == null) {
+            return null;
+        }
+
+        Histogram<?> recorded = decorateHistogram(histogram);
+        Id histogramId = registry.createId(name, toSpectatorTags(tags)).withTag("statistic", "histogram");
+        com.netflix.spectator.api.AbstractMeter<Histogram<?>> histogramMeter = new com.netflix.spectator.api.AbstractMeter<Histogram<?>>(registry.clock(), histogramId, recorded) {
+            @Override
+            public Iterable<Measurement> measure() {
+                flushAsyncStats();
+                long now = clock.wallTime();
+                List<Measurement> measurements = new ArrayList<>();
+                // histograms whose buckets are not numeric cannot be coalesced, so they are published at full resolution
+                BucketCoalescer coalescer = recorded.hasNumericBuckets() ? config().histogramBucketCoalescer() : BucketCoalescer.NONE;
+                if (coalescer == BucketCoalescer.NONE) {
+                    for (Bucket<?> bucket : recorded.getBuckets()) {
+                        measurements.add(new Measurement(histogramId.withTag("bucket", bucket.getTag()), now, bucket.getValue()));
+                    }
+                } else {
+                    HistogramSnapshot snapshot = coalescer.coalesce(recorded.snapshot());
+                    long[] counts = recorded.isCumulative() ? snapshot.cumulativeCounts() : snapshot.counts();
+                    for (int i = 0; i < snapshot.size(); i++) {
+                        measurements.add(new Measurement(histogramId.withTag("bucket", Double.toString(snapshot.bound(i))), now, counts[i]));
+                    }
+                }
+                return measurements;
+            }
+        };
+        registry.register(histogramMeter);
+        return recorded;
+    }
+
+    /**
+     * When quantiles are derived from the same histogram that is published, derives them from the histogram that is
+     * actually recorded to, which may have been shifted to another time scale or decorated, so that meters observe
+     * each sample once.
+     */
+    @SuppressWarnings("unchecked")
+    private static Quantiles quantilesOf(Quantiles quantiles, Histogram<?> histogram, Histogram<?> recorded) {
+        if (histogram != null && quantiles instanceof HistogramQuantiles &&
+            ((HistogramQuantiles) quantiles).getHistogram() == histogram && recorded != histogram) {
+            return new HistogramQuantiles((Histogram<Double>) recorded, quantiles.monitored());
+        }
+        return quantiles;
+    }
+
+    private void flushAsyncStats() {
+        AsyncStatsRecorder async = config().asyncStatsRecorder();
+        if (async != null) {
+            async.beforeRead();
+        }
+    }
+
+    /**
+     * Gives implementations the opportunity to change how histogram buckets accumulate before they are published,
+     * e.g. to report per-interval rather than cumulative counts.
+     *
+     * @param histogram The histogram provided to a timer or distribution summary builder.
+     * @return The histogram that samples are recorded to and whose buckets are published.
+     */
+    protected Histogram<?> decorateHistogram(Histogram<?> histogram) {
+        return histogram;
     }
 
-    private void registerQuantilesGaugeIfNecessary(String name, Iterable<io.micrometer.core.instrument.Tag> tags, Quantiles quantiles, UnaryOperator<Double> scaling) {
+    private void registerQuantilesGaugeIfNecessary(String name, Iterable<io.micrometer.core.instrument.Tag> tags, Quantiles quantiles) {
         if (quantiles != null) {
+            BatchedQuantiles batched = new BatchedQuantiles(quantiles);
+            int index = 0;
             for (Double q : quantiles.monitored()) {
+                int i = index++;
                 List<com.netflix.spectator.api.Tag> quantileTags = new LinkedList<>(toSpectatorTags(tags));
                 if (!Double.isNaN(q)) {
                     quantileTags.add(new BasicTag("quantile", Double.toString(q)));
                     quantileTags.add(new BasicTag("statistic", "value"));
-                    registry.gauge(registry.createId(name, quantileTags), q, q2 -> scaling.apply(quantiles.get(q2)));
+                    registry.gauge(registry.createId(name, quantileTags), q, q2 -> {
+                        flushAsyncStats();
+                        return batched.get(i);
+                    });
                 }
             }
         }
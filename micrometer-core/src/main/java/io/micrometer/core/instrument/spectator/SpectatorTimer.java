@@ -17,28 +17,60 @@ package io.micrometer.core.instrument.spectator;
 
 import com.netflix.spectator.api.Timer;
 import io.micrometer.core.instrument.AbstractTimer;
-import io.micrometer.core.instrument.Clock;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.stats.AsyncStatsRecorder;
+import io.micrometer.core.instrument.stats.hist.Histogram;
+import io.micrometer.core.instrument.stats.quantile.HistogramQuantiles;
 import io.micrometer.core.instrument.stats.quantile.Quantiles;
 import io.micrometer.core.instrument.util.TimeUtils;
 
 import java.util.concurrent.TimeUnit;
+import java.util.function.DoubleConsumer;
 
 public class SpectatorTimer extends AbstractTimer {
     private final com.netflix.spectator.api.Timer timer;
     private final Quantiles quantiles;
+    private final Histogram<?> histogram;
+    private final MeterRegistry.Config config;
+    private final DoubleConsumer stats = this::observeStats;
 
-    SpectatorTimer(Timer timer, String description, Quantiles quantiles, Clock clock) {
-        super(timer.id().name(), SpectatorUtils.tags(timer), description, clock);
+    /**
+     * When quantiles are derived from the same histogram that is published, each sample is only observed once.
+     */
+    private final boolean quantilesShareHistogram;
+
+    SpectatorTimer(Timer timer, String description, Quantiles quantiles, Histogram<?> histogram, MeterRegistry.Config config) {
+        super(timer.id().name(), SpectatorUtils.tags(timer), description, config.clock());
         this.timer = timer;
         this.quantiles = quantiles;
+        this.histogram = histogram;
+        this.config = config;
+        this.quantilesShareHistogram = histogram != null && quantiles instanceof HistogramQuantiles &&
+            ((HistogramQuantiles) quantiles).getHistogram() == histogram;
     }
 
     @Override
     public void record(long amount, TimeUnit unit) {
         long nanoAmount = unit.toNanos(amount);
         timer.record(nanoAmount, TimeUnit.NANOSECONDS);
-        if(quantiles != null) {
-            quantiles.observe(nanoAmount);
+        if(quantiles != null || histogram != null) {
+            AsyncStatsRecorder async = config.asyncStatsRecorder();
+            if (async != null) {
+                async.record(stats, nanoAmount);
+            } else {
+                observeStats(nanoAmount);
+            }
+        }
+    }
+
+    private void observeStats(double nanoAmount) {
+        // histograms of time are shifted to a base unit of seconds when the timer is created, and quantiles share it
+        double seconds = TimeUtils.nanosToUnit(nanoAmount, TimeUnit.SECONDS);
+        if(quantiles != null && !quantilesShareHistogram) {
+            quantiles.observe(seconds);
+        }
+        if(histogram != null) {
+            histogram.observe(seconds);
         }
     }
 
@@ -18,6 +18,8 @@ package io.micrometer.core.instrument.spectator.step;
 import com.netflix.spectator.api.Registry;
 import io.micrometer.core.instrument.*;
 import io.micrometer.core.instrument.spectator.SpectatorMeterRegistry;
+import io.micrometer.core.instrument.stats.hist.Histogram;
+import io.micrometer.core.instrument.stats.hist.StepHistogram;
 
 import java.util.List;
 import java.util.stream.Collectors;
@@ -54,4 +56,16 @@ public abstract class StepSpectatorMeterRegistry extends SpectatorMeterRegistry
 
         return super.register(name, tags, type, rateMeasurements);
     }
+
+    /**
+     * Histogram buckets report the number of samples observed in the last complete step interval.
+     */
+    @Override
+    protected Histogram<?> decorateHistogram(Histogram<?> histogram) {
+        return stepHistogram(histogram);
+    }
+
+    private <T> StepHistogram<T> stepHistogram(Histogram<T> histogram) {
+        return new StepHistogram<>(histogram, clock, stepMillis);
+    }
 }
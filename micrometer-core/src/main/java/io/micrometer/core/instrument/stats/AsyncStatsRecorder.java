@@ -0,0 +1,308 @@
+/**
+ * Copyright 2017 Pivotal Software, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.micrometer.core.instrument.stats;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.DoubleConsumer;
+
+/**
+ * Moves the work of updating quantile sketches and histograms off of the threads recording to timers and distribution
+ * summaries. When configured on a registry with {@link MeterRegistry.Config#asyncStatsRecorder(AsyncStatsRecorder)},
+ * recording a sample only updates the meter's count and total inline and publishes the raw value to a bounded ring
+ * buffer. A single background thread drains the buffer in batches and updates the quantiles and histograms of every
+ * meter of the registry.
+ * <p>
+ * Publishing never blocks or allocates: a recording thread claims a slot with one compare-and-set on the tail of the
+ * buffer, writes the value and releases the slot with an ordered write of its sequence number. If the buffer is full
+ * because the consumer has fallen behind, the sample is dropped from quantiles and histograms and counted in
+ * {@link #droppedSamples()}, while still being counted in the meter's count and total. Bind the recorder to a registry
+ * to monitor dropped and pending samples.
+ * <p>
+ * Quantiles and histograms therefore lag recording slightly. By default, registries flush the buffer on the scraping
+ * or publishing thread before reading them, so every sample recorded before a scrape is reflected in it.
+ *
+ * @author Jon Schneider
+ */
+public final class AsyncStatsRecorder implements MeterBinder, AutoCloseable {
+    private final int mask;
+    private final int batchSize;
+    private final long idleParkNanos;
+    private final boolean flushOnRead;
+
+    /**
+     * The sequence number of each slot. A slot is free to be claimed at position {@code p} when its sequence is
+     * {@code p}, and holds a published sample for the consumer when its sequence is {@code p + 1}.
+     */
+    private final AtomicLongArray sequences;
+    private final double[] values;
+    private final DoubleConsumer[] sinks;
+
+    private final AtomicLong tail = new AtomicLong();
+
+    /**
+     * The next position to consume, guarded by {@link #drainLock}.
+     */
+    private long head;
+    private final ReentrantLock drainLock = new ReentrantLock();
+
+    private final LongAdder dropped = new LongAdder();
+
+    /**
+     * The background consumer, or null when samples are only drained by flushing.
+     */
+    private final Thread consumer;
+    private volatile boolean running = true;
+
+    AsyncStatsRecorder(int bufferSize, int batchSize, long idleParkNanos, boolean flushOnRead) {
+        this(bufferSize, batchSize, idleParkNanos, flushOnRead, true);
+    }
+
+    /**
+     * @param startConsumer Whether to drain samples on a background thread. Without one, samples are only passed to
+     *                      their sinks by {@link #flush()}, which makes the state of the buffer deterministic in tests.
+     */
+    AsyncStatsRecorder(int bufferSize, int batchSize, long idleParkNanos, boolean flushOnRead, boolean startConsumer) {
+        int capacity = bufferSize <= 1 ? 2 : Integer.highestOneBit(bufferSize - 1) << 1;
+        this.mask = capacity - 1;
+        this.batchSize = batchSize;
+        this.idleParkNanos = idleParkNanos;
+        this.flushOnRead = flushOnRead;
+
+        this.sequences = new AtomicLongArray(capacity);
+        for (int i = 0; i < capacity; i++) {
+            sequences.set(i, i);
+        }
+        this.values = new double[capacity];
+        this.sinks = new DoubleConsumer[capacity];
+
+        if (startConsumer) {
+            this.consumer = new Thread(this::consume, "micrometer-async-stats");
+            this.consumer.setDaemon(true);
+            this.consumer.start();
+        } else {
+            this.consumer = null;
+        }
+    }
+
+    /**
+     * Publish a sample to be passed to {@code sink} on the consumer thread.
+     *
+     * @return {@code false} if the buffer was full and the sample was dropped.
+     */
+    public boolean record(DoubleConsumer sink, double value) {
+        long pos = tail.get();
+        while (true) {
+            int slot = (int) pos & mask;
+            long diff = sequences.get(slot) - pos;
+            if (diff == 0) {
+                if (tail.compareAndSet(pos, pos + 1)) {
+                    values[slot] = value;
+                    sinks[slot] = sink;
+                    sequences.lazySet(slot, pos + 1);
+                    return true;
+                }
+                pos = tail.get();
+            } else if (diff < 0) {
+                // the slot still holds a sample from one lap ago that has not been consumed
+                dropped.increment();
+                return false;
+            } else {
+                // another producer claimed this position first
+                pos = tail.get();
+            }
+        }
+    }
+
+    /**
+     * Pass every sample published before the flush started to its sink on the calling thread, stopping early only at
+     * a slot that was claimed but is still being written. Samples published while flushing are left to the consumer
+     * or the next flush, so that a flush finishes even while recording continues.
+     */
+    public void flush() {
+        drainLock.lock();
+        try {
+            long end = tail.get();
+            if (end > head) {
+                // at most one lap of the buffer
+                drain((int) (end - head));
+            }
+        } finally {
+            drainLock.unlock();
+        }
+    }
+
+    /**
+     * Called by registries before they read quantiles or histograms.
+     */
+    public void beforeRead() {
+        if (flushOnRead) {
+            flush();
+        }
+    }
+
+    /**
+     * @return The number of samples that were not passed to quantiles and histograms because the buffer was full.
+     */
+    public long droppedSamples() {
+        return dropped.sum();
+    }
+
+    /**
+     * @return An estimate of the number of samples waiting to be consumed.
+     */
+    public long pendingSamples() {
+        drainLock.lock();
+        try {
+            return Math.max(0, tail.get() - head);
+        } finally {
+            drainLock.unlock();
+        }
+    }
+
+    /**
+     * Must be called while holding {@link #drainLock}.
+     *
+     * @return The number of samples consumed.
+     */
+    private int drain(int limit) {
+        int consumed = 0;
+        while (consumed < limit) {
+            int slot = (int) head & mask;
+            if (sequences.get(slot) != head + 1) {
+                break;
+            }
+
+            DoubleConsumer sink = sinks[slot];
+            double value = values[slot];
+            sinks[slot] = null;
+            sequences.lazySet(slot, head + mask + 1);
+            head++;
+            consumed++;
+
+            try {
+                sink.accept(value);
+            } catch (RuntimeException ignored) {
+                // a failing meter must not stop samples from reaching every other meter
+            }
+        }
+        return consumed;
+    }
+
+    private void consume() {
+        while (running) {
+            int consumed = 0;
+            if (drainLock.tryLock()) {
+                try {
+                    consumed = drain(batchSize);
+                } finally {
+                    drainLock.unlock();
+                }
+            }
+            if (consumed == 0) {
+                LockSupport.parkNanos(this, idleParkNanos);
+            }
+        }
+    }
+
+    /**
+     * Stop the consumer thread after passing all published samples to their sinks.
+     */
+    @Override
+    public void close() {
+        running = false;
+        if (consumer != null) {
+            LockSupport.unpark(consumer);
+            try {
+                consumer.join(TimeUnit.SECONDS.toMillis(5));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        flush();
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        registry.more().counter("stats.async.dropped", Collections.emptyList(), this, AsyncStatsRecorder::droppedSamples);
+        registry.gauge("stats.async.pending", this, AsyncStatsRecorder::pendingSamples);
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public static class Builder {
+        private int bufferSize = 65536;
+        private int batchSize = 1024;
+        private long idleParkNanos = TimeUnit.MILLISECONDS.toNanos(1);
+        private boolean flushOnRead = true;
+
+        /**
+         * @param bufferSize The number of samples that can be waiting to be consumed before further samples are
+         *                   dropped, rounded up to a power of two.
+         */
+        public Builder bufferSize(int bufferSize) {
+            if (bufferSize < 1) {
+                throw new IllegalArgumentException("Buffer size must be positive");
+            }
+            this.bufferSize = bufferSize;
+            return this;
+        }
+
+        /**
+         * @param batchSize The maximum number of samples the consumer drains between checks for whether it should
+         *                  stop, and before it gives a flushing reader a chance to take over.
+         */
+        public Builder batchSize(int batchSize) {
+            if (batchSize < 1) {
+                throw new IllegalArgumentException("Batch size must be positive");
+            }
+            this.batchSize = batchSize;
+            return this;
+        }
+
+        /**
+         * @param idle How long the consumer waits before checking for new samples when the buffer is empty.
+         */
+        public Builder idleWait(long idle, TimeUnit unit) {
+            this.idleParkNanos = unit.toNanos(idle);
+            return this;
+        }
+
+        /**
+         * @param flushOnRead Whether registries drain the buffer on the scraping or publishing thread before reading
+         *                    quantiles and histograms. Disable to keep scrapes from ever doing recording work, at the
+         *                    cost of quantiles and histograms lagging by up to the consumer's batch.
+         */
+        public Builder flushOnRead(boolean flushOnRead) {
+            this.flushOnRead = flushOnRead;
+            return this;
+        }
+
+        public AsyncStatsRecorder create() {
+            return new AsyncStatsRecorder(bufferSize, batchSize, idleParkNanos, flushOnRead);
+        }
+    }
+}
@@ -37,6 +37,13 @@ public class Bucket<T> {
         this.value.add(initialValue);
     }
 
+    /**
+     * @return The tag in its original form, e.g. the bucket's upper bound for histograms with numeric buckets.
+     */
+    public T getRawTag() {
+        return tag;
+    }
+
     public String getTag() {
         return getTag(Object::toString);
     }
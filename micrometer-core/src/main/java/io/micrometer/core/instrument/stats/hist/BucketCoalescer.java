@@ -0,0 +1,52 @@
+/**
+ * Copyright 2017 Pivotal Software, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.micrometer.core.instrument.stats.hist;
+
+/**
+ * Reduces the number of histogram buckets shipped to a monitoring system, for backends that charge per series. It is
+ * applied to a {@link HistogramSnapshot} as a registry exports the histogram, so the histogram keeps recording at full
+ * resolution in memory.
+ *
+ * @author Jon Schneider
+ */
+@FunctionalInterface
+public interface BucketCoalescer {
+    /**
+     * Export every bucket as it was recorded.
+     */
+    BucketCoalescer NONE = snapshot -> snapshot;
+
+    HistogramSnapshot coalesce(HistogramSnapshot snapshot);
+
+    /**
+     * Export a coarser, fixed set of buckets.
+     *
+     * @see HistogramSnapshot#coalesce(double...)
+     */
+    static BucketCoalescer bounds(double... bounds) {
+        double[] targetBounds = bounds.clone();
+        return snapshot -> snapshot.coalesce(targetBounds);
+    }
+
+    /**
+     * Export only buckets that contain at least one sample.
+     *
+     * @see HistogramSnapshot#nonEmpty()
+     */
+    static BucketCoalescer nonEmpty() {
+        return HistogramSnapshot::nonEmpty;
+    }
+}
@@ -33,9 +33,19 @@ public class CumulativeHistogram<T> implements Histogram<T> {
     private final ConcurrentNavigableMap<T, Bucket<T>> buckets;
 
     public CumulativeHistogram(CumulativeBucketFunction<T> f) {
+        this(f, true);
+    }
+
+    /**
+     * @param allocateBuckets Whether to keep bucket counts on-heap. Subclasses that store counts elsewhere must
+     *                        override {@link #observe(double)}, {@link #getBuckets()} and {@link #snapshot()}.
+     */
+    protected CumulativeHistogram(CumulativeBucketFunction<T> f, boolean allocateBuckets) {
         this.f = f;
         this.buckets = f.bucketComparator() == null ? new ConcurrentSkipListMap<>() : new ConcurrentSkipListMap<>(f.bucketComparator());
-        f.buckets().forEach(b -> this.buckets.put(b, new Bucket<>(b)));
+        if (allocateBuckets) {
+            f.buckets().forEach(b -> this.buckets.put(b, new Bucket<>(b)));
+        }
     }
 
     @Override
@@ -50,6 +60,16 @@ public class CumulativeHistogram<T> implements Histogram<T> {
         return buckets.values();
     }
 
+    @Override
+    public boolean isCumulative() {
+        return true;
+    }
+
+    @Override
+    public HistogramSnapshot snapshot() {
+        return HistogramSnapshot.of(buckets.values(), true);
+    }
+
     public static <T> CumulativeHistogram<T> buckets(CumulativeBucketFunction<T> bucketFunction) {
         return new CumulativeHistogram<>(bucketFunction);
     }
@@ -58,6 +78,13 @@ public class CumulativeHistogram<T> implements Histogram<T> {
         return new TimeScaleCumulativeHistogram(bucketFunction, timeScale);
     }
 
+    /**
+     * @param arena The off-heap arena to allocate bucket counters from.
+     */
+    public static <T> OffHeapCumulativeHistogram<T> buckets(CumulativeBucketFunction<T> bucketFunction, OffHeapHistogramArena arena) {
+        return new OffHeapCumulativeHistogram<>(bucketFunction, arena);
+    }
+
     public static CumulativeBucketFunction<Double> exponential(double start, double exp, int count) {
         return fromDoubleStream(IntStream.rangeClosed(0, count - 1)
                 .mapToDouble(n -> start * Math.pow(exp, n)));
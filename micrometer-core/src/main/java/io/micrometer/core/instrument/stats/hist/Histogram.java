@@ -28,4 +28,31 @@ public interface Histogram<T> {
     void observe(double value);
 
     Collection<Bucket<T>> getBuckets();
+
+    /**
+     * @return Whether each bucket's value includes the samples counted by all lower buckets.
+     */
+    default boolean isCumulative() {
+        return false;
+    }
+
+    /**
+     * @return Whether every bucket is tagged with a number, so that the histogram can be snapshotted and coalesced.
+     */
+    default boolean hasNumericBuckets() {
+        for (Bucket<T> bucket : getBuckets()) {
+            if (!(bucket.getRawTag() instanceof Number)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return An immutable view of the current bucket counts, suitable for merging with snapshots of other histograms.
+     * @throws UnsupportedOperationException if the histogram's buckets are not numeric.
+     */
+    default HistogramSnapshot snapshot() {
+        return HistogramSnapshot.of(getBuckets(), false);
+    }
 }
\ No newline at end of file
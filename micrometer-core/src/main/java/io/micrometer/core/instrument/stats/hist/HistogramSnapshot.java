@@ -0,0 +1,345 @@
+/**
+ * Copyright 2017 Pivotal Software, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.micrometer.core.instrument.stats.hist;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * An immutable, point-in-time view of a histogram with numeric buckets, held as primitive arrays of bucket upper
+ * bounds and the number of samples that fell into each bucket (not cumulative). Snapshots can be merged with one
+ * another without string parsing or re-sorting, whether they come from histograms with different tags in one JVM or
+ * are shipped between JVMs in their binary form with {@link #toByteArray()} and {@link #fromByteArray(byte[])}.
+ * <p>
+ * When two snapshots with different bucket layouts are merged, the result contains the union of their bounds. Each
+ * sample still counts toward the upper bound of the bucket it was originally recorded in, so cumulative counts of the
+ * merged snapshot are exact at every bound that both layouts share.
+ *
+ * @author Jon Schneider
+ */
+public final class HistogramSnapshot {
+    private static final byte VERSION = 1;
+    private static final HistogramSnapshot EMPTY = new HistogramSnapshot(new double[0], new long[0]);
+
+    private final double[] bounds;
+    private final long[] counts;
+
+    private HistogramSnapshot(double[] bounds, long[] counts) {
+        this.bounds = bounds;
+        this.counts = counts;
+    }
+
+    /**
+     * @param bounds Upper bound of each bucket, in strictly ascending order.
+     * @param counts The number of samples in each bucket, not including samples in lower buckets.
+     */
+    public static HistogramSnapshot of(double[] bounds, long[] counts) {
+        if (bounds.length != counts.length) {
+            throw new IllegalArgumentException("Expected a count for each of the " + bounds.length + " bounds, but got " + counts.length);
+        }
+        for (int i = 0; i < bounds.length; i++) {
+            if (Double.isNaN(bounds[i]) || (i > 0 && bounds[i] <= bounds[i - 1])) {
+                throw new IllegalArgumentException("Bucket bounds must be in strictly ascending order");
+            }
+            if (counts[i] < 0) {
+                throw new IllegalArgumentException("Bucket counts must not be negative");
+            }
+        }
+        return new HistogramSnapshot(bounds.clone(), counts.clone());
+    }
+
+    /**
+     * @param buckets    Buckets with numeric tags, in any order.
+     * @param cumulative Whether each bucket's value includes the samples of all lower buckets.
+     * @throws UnsupportedOperationException if any bucket's tag is not numeric.
+     */
+    static HistogramSnapshot of(Collection<? extends Bucket<?>> buckets, boolean cumulative) {
+        List<Bucket<?>> sorted = new ArrayList<>(buckets);
+        for (Bucket<?> bucket : sorted) {
+            if (!(bucket.getRawTag() instanceof Number)) {
+                throw new UnsupportedOperationException("Only histograms with numeric buckets can be snapshotted");
+            }
+        }
+        sorted.sort(Comparator.comparingDouble(b -> ((Number) b.getRawTag()).doubleValue()));
+
+        double[] bounds = new double[sorted.size()];
+        long[] counts = new long[sorted.size()];
+        long below = 0;
+        for (int i = 0; i < bounds.length; i++) {
+            bounds[i] = ((Number) sorted.get(i).getRawTag()).doubleValue();
+            long value = sorted.get(i).value.sum();
+            if (cumulative) {
+                // buckets are not read atomically, so a concurrent observation may be seen in a lower bucket but
+                // not yet a higher one
+                counts[i] = Math.max(0, value - below);
+                below = Math.max(below, value);
+            } else {
+                counts[i] = value;
+            }
+        }
+        return of(bounds, counts);
+    }
+
+    public static HistogramSnapshot empty() {
+        return EMPTY;
+    }
+
+    /**
+     * @return The number of buckets.
+     */
+    public int size() {
+        return bounds.length;
+    }
+
+    /**
+     * @return The upper bound of the bucket at {@code index}.
+     */
+    public double bound(int index) {
+        return bounds[index];
+    }
+
+    /**
+     * @return The number of samples in the bucket at {@code index}.
+     */
+    public long count(int index) {
+        return counts[index];
+    }
+
+    /**
+     * @return The number of samples in the bucket at {@code index} and every bucket below it.
+     */
+    public long cumulativeCount(int index) {
+        long sum = 0;
+        for (int i = 0; i <= index; i++) {
+            sum += counts[i];
+        }
+        return sum;
+    }
+
+    /**
+     * @return The total number of samples in all buckets.
+     */
+    public long total() {
+        return size() == 0 ? 0 : cumulativeCount(size() - 1);
+    }
+
+    public double[] bounds() {
+        return bounds.clone();
+    }
+
+    public long[] counts() {
+        return counts.clone();
+    }
+
+    public long[] cumulativeCounts() {
+        long[] cumulative = new long[counts.length];
+        long sum = 0;
+        for (int i = 0; i < counts.length; i++) {
+            sum += counts[i];
+            cumulative[i] = sum;
+        }
+        return cumulative;
+    }
+
+    /**
+     * Combine the counts of two snapshots in a single pass over their already sorted bounds.
+     *
+     * @return A new snapshot containing the union of both snapshots' bounds.
+     */
+    public HistogramSnapshot merge(HistogramSnapshot other) {
+        if (other.size() == 0) {
+            return this;
+        }
+        if (size() == 0) {
+            return other;
+        }
+        if (Arrays.equals(bounds, other.bounds)) {
+            long[] merged = new long[counts.length];
+            for (int i = 0; i < counts.length; i++) {
+                merged[i] = counts[i] + other.counts[i];
+            }
+            return new HistogramSnapshot(bounds, merged);
+        }
+
+        double[] mergedBounds = new double[bounds.length + other.bounds.length];
+        long[] mergedCounts = new long[mergedBounds.length];
+        int i = 0, j = 0, n = 0;
+        while (i < bounds.length || j < other.bounds.length) {
+            if (j == other.bounds.length || (i < bounds.length && bounds[i] < other.bounds[j])) {
+                mergedBounds[n] = bounds[i];
+                mergedCounts[n++] = counts[i++];
+            } else if (i == bounds.length || other.bounds[j] < bounds[i]) {
+                mergedBounds[n] = other.bounds[j];
+                mergedCounts[n++] = other.counts[j++];
+            } else {
+                mergedBounds[n] = bounds[i];
+                mergedCounts[n++] = counts[i++] + other.counts[j++];
+            }
+        }
+        return new HistogramSnapshot(Arrays.copyOf(mergedBounds, n), Arrays.copyOf(mergedCounts, n));
+    }
+
+    /**
+     * Reduce this snapshot to a coarser set of buckets in a single pass over its counts. Each bucket's samples are
+     * attributed to the first target bound greater than or equal to its own upper bound, so cumulative counts remain
+     * exact at every target bound that is also a bound of this snapshot. A bucket for {@code +Inf} is always retained.
+     *
+     * @param targetBounds Upper bounds of the coarser buckets, in strictly ascending order.
+     * @return A new snapshot with the target bounds.
+     */
+    public HistogramSnapshot coalesce(double... targetBounds) {
+        int n = targetBounds.length;
+        if (n == 0 || targetBounds[n - 1] != Double.POSITIVE_INFINITY) {
+            targetBounds = Arrays.copyOf(targetBounds, n + 1);
+            targetBounds[n] = Double.POSITIVE_INFINITY;
+        }
+
+        long[] coalesced = new long[targetBounds.length];
+        int j = 0;
+        for (int i = 0; i < bounds.length; i++) {
+            while (targetBounds[j] < bounds[i]) {
+                j++;
+            }
+            coalesced[j] += counts[i];
+        }
+        return of(targetBounds, coalesced);
+    }
+
+    /**
+     * Drop empty buckets, which does not change the cumulative count at any remaining bound. The highest bucket is
+     * always retained so that the total number of samples is still represented.
+     *
+     * @return A snapshot containing only buckets with at least one sample, or this snapshot if none are empty.
+     */
+    public HistogramSnapshot nonEmpty() {
+        int nonEmpty = 0;
+        for (int i = 0; i < counts.length; i++) {
+            if (counts[i] > 0 || i == counts.length - 1) {
+                nonEmpty++;
+            }
+        }
+        if (nonEmpty == counts.length) {
+            return this;
+        }
+
+        double[] keptBounds = new double[nonEmpty];
+        long[] keptCounts = new long[nonEmpty];
+        int n = 0;
+        for (int i = 0; i < counts.length; i++) {
+            if (counts[i] > 0 || i == counts.length - 1) {
+                keptBounds[n] = bounds[i];
+                keptCounts[n++] = counts[i];
+            }
+        }
+        return new HistogramSnapshot(keptBounds, keptCounts);
+    }
+
+    /**
+     * Encode this snapshot as a version byte, the number of buckets, each bound as a raw IEEE 754 double, and each
+     * count as an unsigned variable length integer, so that sparse histograms are small on the wire.
+     */
+    public byte[] toByteArray() {
+        byte[] buf = new byte[1 + 5 + bounds.length * (8 + 10)];
+        int pos = 0;
+        buf[pos++] = VERSION;
+        pos = writeVarLong(buf, pos, bounds.length);
+        for (int i = 0; i < bounds.length; i++) {
+            long bits = Double.doubleToLongBits(bounds[i]);
+            for (int shift = 56; shift >= 0; shift -= 8) {
+                buf[pos++] = (byte) (bits >>> shift);
+            }
+            pos = writeVarLong(buf, pos, counts[i]);
+        }
+        return Arrays.copyOf(buf, pos);
+    }
+
+    /**
+     * @param bytes A snapshot encoded by {@link #toByteArray()}.
+     * @throws IllegalArgumentException if {@code bytes} is not a valid encoding of a snapshot.
+     */
+    public static HistogramSnapshot fromByteArray(byte[] bytes) {
+        try {
+            if (bytes[0] != VERSION) {
+                throw new IllegalArgumentException("Unsupported histogram snapshot encoding version " + bytes[0]);
+            }
+            int[] pos = {1};
+            long size = readVarLong(bytes, pos);
+            if (size < 0 || size > (bytes.length - pos[0]) / 9) {
+                throw new IllegalArgumentException("Invalid histogram snapshot bucket count " + size);
+            }
+            double[] bounds = new double[(int) size];
+            long[] counts = new long[(int) size];
+            for (int i = 0; i < size; i++) {
+                long bits = 0;
+                for (int b = 0; b < 8; b++) {
+                    bits = (bits << 8) | (bytes[pos[0]++] & 0xFF);
+                }
+                bounds[i] = Double.longBitsToDouble(bits);
+                counts[i] = readVarLong(bytes, pos);
+            }
+            return of(bounds, counts);
+        } catch (ArrayIndexOutOfBoundsException e) {
+            throw new IllegalArgumentException("Truncated histogram snapshot", e);
+        }
+    }
+
+    private static int writeVarLong(byte[] buf, int pos, long value) {
+        while ((value & ~0x7FL) != 0) {
+            buf[pos++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buf[pos++] = (byte) value;
+        return pos;
+    }
+
+    private static long readVarLong(byte[] buf, int[] pos) {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = buf[pos[0]++];
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("Malformed variable length integer in histogram snapshot");
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        HistogramSnapshot that = (HistogramSnapshot) o;
+        return Arrays.equals(bounds, that.bounds) && Arrays.equals(counts, that.counts);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * Arrays.hashCode(bounds) + Arrays.hashCode(counts);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("HistogramSnapshot{");
+        for (int i = 0; i < bounds.length; i++) {
+            if (i > 0) sb.append(", ");
+            sb.append(bounds[i]).append('=').append(counts[i]);
+        }
+        return sb.append('}').toString();
+    }
+}
@@ -0,0 +1,119 @@
+/**
+ * Copyright 2017 Pivotal Software, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.micrometer.core.instrument.stats.hist;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A cumulative histogram whose bucket counters live in an {@link OffHeapHistogramArena}. Each observation is a single
+ * atomic add to the counter of the bucket it falls in, and the cumulative counts are summed when buckets are read.
+ * <p>
+ * Call {@link #release()} once the histogram is no longer needed to return its counters to the arena. Registries that
+ * support removing meters do so when the meter recording to it is removed.
+ *
+ * @author Jon Schneider
+ */
+public class OffHeapCumulativeHistogram<T> extends CumulativeHistogram<T> {
+    private final OffHeapHistogramArena arena;
+    private final Object[] tags;
+    private final Comparator<Object> comparator;
+    private final int firstSlot;
+    private final AtomicBoolean released = new AtomicBoolean();
+
+    /**
+     * The number of observations between checking that this histogram is not released and adding to its counter.
+     */
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    @SuppressWarnings("unchecked")
+    public OffHeapCumulativeHistogram(CumulativeBucketFunction<T> f, OffHeapHistogramArena arena) {
+        super(f, false);
+        this.arena = arena;
+        this.comparator = f.bucketComparator() == null ?
+                (a, b) -> ((Comparable<Object>) a).compareTo(b) :
+                (Comparator<Object>) f.bucketComparator();
+        this.tags = f.buckets().toArray();
+        Arrays.sort(tags, comparator);
+        this.firstSlot = arena.allocate(tags.length);
+    }
+
+    @Override
+    public void observe(double value) {
+        int index = Arrays.binarySearch(tags, f.bucketFloor(value), comparator);
+        if (index < 0) {
+            // the first bucket greater than the floor
+            index = -index - 1;
+        }
+        if (index < tags.length) {
+            // Announce the add before checking for a release. Either release() sees this observation in flight and
+            // waits for it before giving the counters back, or this observation sees the release and is dropped.
+            inFlight.incrementAndGet();
+            try {
+                if (!released.get()) {
+                    arena.add(firstSlot + index, 1);
+                }
+            } finally {
+                inFlight.decrementAndGet();
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public Collection<Bucket<T>> getBuckets() {
+        List<Bucket<T>> buckets = new ArrayList<>(tags.length);
+        long cumulativeCount = 0;
+        for (int i = 0; i < tags.length; i++) {
+            cumulativeCount += arena.get(firstSlot + i);
+            buckets.add(new Bucket<>((T) tags[i], cumulativeCount));
+        }
+        return buckets;
+    }
+
+    @Override
+    public HistogramSnapshot snapshot() {
+        double[] bounds = new double[tags.length];
+        long[] counts = new long[tags.length];
+        for (int i = 0; i < tags.length; i++) {
+            if (!(tags[i] instanceof Number)) {
+                throw new UnsupportedOperationException("Only histograms with numeric buckets can be snapshotted");
+            }
+            bounds[i] = ((Number) tags[i]).doubleValue();
+            counts[i] = arena.get(firstSlot + i);
+        }
+        return HistogramSnapshot.of(bounds, counts);
+    }
+
+    /**
+     * Returns this histogram's counters to the arena to be reused by another histogram. Further observations are
+     * ignored, and observations already in progress are waited for, so that none of them is counted by the histogram
+     * that reuses the counters. Releasing more than once has no further effect.
+     */
+    public void release() {
+        if (released.compareAndSet(false, true)) {
+            while (inFlight.get() != 0) {
+                Thread.yield();
+            }
+            arena.release(firstSlot, tags.length);
+        }
+    }
+}
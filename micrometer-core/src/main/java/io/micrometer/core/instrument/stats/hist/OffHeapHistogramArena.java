@@ -0,0 +1,252 @@
+/**
+ * Copyright 2017 Pivotal Software, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.micrometer.core.instrument.stats.hist;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Field;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.lang.invoke.MethodType.methodType;
+
+/**
+ * A single block of direct memory that histograms allocate their bucket counters from, so that tens of thousands of
+ * histograms with many buckets each cost 8 bytes per bucket outside of the heap rather than several objects per bucket
+ * that the garbage collector has to scan. Memory is claimed with a bump pointer. Counters released by a histogram,
+ * for example when its meter is removed from a registry, are reused by the next histogram with the same number of
+ * buckets, so tag churn among meters with the same bucket layout does not grow the arena.
+ * <p>
+ * Java 8 has no {@code VarHandle}, so counters are updated with atomic adds through method handles to
+ * {@code sun.misc.Unsafe} where it is available, looked up reflectively so that no internal API is referenced at
+ * compile time. Otherwise, updates fall back to striped locks around the buffer.
+ * <p>
+ * Bind the arena to a registry to monitor how much of it is in use.
+ *
+ * @author Jon Schneider
+ */
+public class OffHeapHistogramArena implements MeterBinder {
+    private static final int SLOT_BYTES = Long.BYTES;
+    private static final int LOCK_STRIPES = 64;
+
+    /**
+     * {@code (Object, long, long) -> long}, {@code (Object, long) -> long} and {@code (Object, long, long) -> void}
+     * handles bound to the {@code Unsafe} instance, or all null when it is unavailable.
+     */
+    private static final MethodHandle GET_AND_ADD_LONG;
+    private static final MethodHandle GET_LONG_VOLATILE;
+    private static final MethodHandle PUT_LONG_VOLATILE;
+    private static final long BUFFER_ADDRESS_OFFSET;
+
+    static {
+        MethodHandle getAndAddLong = null;
+        MethodHandle getLongVolatile = null;
+        MethodHandle putLongVolatile = null;
+        long addressOffset = -1;
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+            theUnsafe.setAccessible(true);
+            Object unsafe = theUnsafe.get(null);
+
+            MethodHandles.Lookup lookup = MethodHandles.lookup();
+            MethodHandle objectFieldOffset = lookup.findVirtual(unsafeClass, "objectFieldOffset",
+                    methodType(long.class, Field.class)).bindTo(unsafe);
+            addressOffset = (long) objectFieldOffset.invokeExact(Buffer.class.getDeclaredField("address"));
+
+            getAndAddLong = lookup.findVirtual(unsafeClass, "getAndAddLong",
+                    methodType(long.class, Object.class, long.class, long.class)).bindTo(unsafe);
+            getLongVolatile = lookup.findVirtual(unsafeClass, "getLongVolatile",
+                    methodType(long.class, Object.class, long.class)).bindTo(unsafe);
+            putLongVolatile = lookup.findVirtual(unsafeClass, "putLongVolatile",
+                    methodType(void.class, Object.class, long.class, long.class)).bindTo(unsafe);
+        } catch (Throwable ignored) {
+            getAndAddLong = null;
+            getLongVolatile = null;
+            putLongVolatile = null;
+        }
+        GET_AND_ADD_LONG = getAndAddLong;
+        GET_LONG_VOLATILE = getLongVolatile;
+        PUT_LONG_VOLATILE = putLongVolatile;
+        BUFFER_ADDRESS_OFFSET = addressOffset;
+    }
+
+    private final ByteBuffer buffer;
+    private final int capacitySlots;
+    private final AtomicInteger allocatedSlots = new AtomicInteger();
+
+    /**
+     * The first slot of each released run of counters, by the length of the run.
+     */
+    private final ConcurrentMap<Integer, Queue<Integer>> releasedRuns = new ConcurrentHashMap<>();
+    private final AtomicInteger releasedSlots = new AtomicInteger();
+
+    /**
+     * Address of the first 8-byte aligned slot, or -1 when falling back to locking.
+     */
+    private final long baseAddress;
+    private final int baseOffset;
+    private final Object[] locks;
+
+    /**
+     * @param capacitySlots The total number of bucket counters that can be allocated from this arena.
+     */
+    public OffHeapHistogramArena(int capacitySlots) {
+        this(capacitySlots, GET_AND_ADD_LONG != null);
+    }
+
+    OffHeapHistogramArena(int capacitySlots, boolean useUnsafe) {
+        if (capacitySlots <= 0 || capacitySlots > (Integer.MAX_VALUE - SLOT_BYTES) / SLOT_BYTES) {
+            throw new IllegalArgumentException("Invalid arena capacity of " + capacitySlots + " slots");
+        }
+        this.capacitySlots = capacitySlots;
+
+        // leave room to align slots to 8 bytes, which atomic operations on longs require
+        this.buffer = ByteBuffer.allocateDirect(capacitySlots * SLOT_BYTES + SLOT_BYTES).order(ByteOrder.nativeOrder());
+
+        if (useUnsafe && GET_AND_ADD_LONG != null) {
+            long address = getLongVolatile(buffer, BUFFER_ADDRESS_OFFSET);
+            this.baseOffset = (int) ((SLOT_BYTES - (address & (SLOT_BYTES - 1))) & (SLOT_BYTES - 1));
+            this.baseAddress = address + baseOffset;
+            this.locks = null;
+        } else {
+            this.baseOffset = 0;
+            this.baseAddress = -1;
+            this.locks = new Object[LOCK_STRIPES];
+            for (int i = 0; i < LOCK_STRIPES; i++) {
+                locks[i] = new Object();
+            }
+        }
+    }
+
+    /**
+     * @param slots The number of counters to claim.
+     * @return The index of the first claimed counter. The counters are initially zero.
+     * @throws IllegalStateException if the arena does not have enough unclaimed counters left.
+     */
+    int allocate(int slots) {
+        Queue<Integer> runs = releasedRuns.get(slots);
+        if (runs != null) {
+            Integer firstSlot = runs.poll();
+            if (firstSlot != null) {
+                releasedSlots.addAndGet(-slots);
+                return firstSlot;
+            }
+        }
+
+        while (true) {
+            int allocated = allocatedSlots.get();
+            if (allocated + slots > capacitySlots) {
+                throw new IllegalStateException("Off-heap histogram arena is full. " + (capacitySlots - allocated) +
+                        " of " + capacitySlots + " slots remain, but " + slots + " were requested.");
+            }
+            if (allocatedSlots.compareAndSet(allocated, allocated + slots)) {
+                return allocated;
+            }
+        }
+    }
+
+    /**
+     * Zeroes a run of counters and makes it available to the next allocation of the same length.
+     *
+     * @param firstSlot The index returned by {@link #allocate(int)}.
+     * @param slots     The number of counters that were allocated.
+     */
+    void release(int firstSlot, int slots) {
+        for (int i = 0; i < slots; i++) {
+            set(firstSlot + i, 0);
+        }
+        releasedSlots.addAndGet(slots);
+        releasedRuns.computeIfAbsent(slots, n -> new ConcurrentLinkedQueue<>()).offer(firstSlot);
+    }
+
+    void add(int slot, long amount) {
+        if (baseAddress != -1) {
+            try {
+                long ignored = (long) GET_AND_ADD_LONG.invokeExact((Object) null, baseAddress + (long) slot * SLOT_BYTES, amount);
+            } catch (Throwable t) {
+                throw new IllegalStateException(t);
+            }
+        } else {
+            int index = baseOffset + slot * SLOT_BYTES;
+            synchronized (locks[slot & (LOCK_STRIPES - 1)]) {
+                buffer.putLong(index, buffer.getLong(index) + amount);
+            }
+        }
+    }
+
+    long get(int slot) {
+        if (baseAddress != -1) {
+            return getLongVolatile(null, baseAddress + (long) slot * SLOT_BYTES);
+        }
+        int index = baseOffset + slot * SLOT_BYTES;
+        synchronized (locks[slot & (LOCK_STRIPES - 1)]) {
+            return buffer.getLong(index);
+        }
+    }
+
+    private void set(int slot, long value) {
+        if (baseAddress != -1) {
+            try {
+                PUT_LONG_VOLATILE.invokeExact((Object) null, baseAddress + (long) slot * SLOT_BYTES, value);
+            } catch (Throwable t) {
+                throw new IllegalStateException(t);
+            }
+        } else {
+            int index = baseOffset + slot * SLOT_BYTES;
+            synchronized (locks[slot & (LOCK_STRIPES - 1)]) {
+                buffer.putLong(index, value);
+            }
+        }
+    }
+
+    private static long getLongVolatile(Object o, long offset) {
+        try {
+            return (long) GET_LONG_VOLATILE.invokeExact(o, offset);
+        } catch (Throwable t) {
+            throw new IllegalStateException(t);
+        }
+    }
+
+    /**
+     * @return The number of bytes claimed by histograms and not since released.
+     */
+    public long bytesUsed() {
+        return (long) (allocatedSlots.get() - releasedSlots.get()) * SLOT_BYTES;
+    }
+
+    /**
+     * @return The number of bytes of direct memory reserved by this arena.
+     */
+    public long capacityBytes() {
+        return buffer.capacity();
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        registry.gauge("histogram.arena.memory.used", this, OffHeapHistogramArena::bytesUsed);
+        registry.gauge("histogram.arena.total.capacity", this, OffHeapHistogramArena::capacityBytes);
+    }
+}
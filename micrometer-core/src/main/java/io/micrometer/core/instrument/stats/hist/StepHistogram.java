@@ -0,0 +1,115 @@
+/**
+ * Copyright 2017 Pivotal Software, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.micrometer.core.instrument.stats.hist;
+
+import io.micrometer.core.instrument.Clock;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A histogram whose buckets report the number of samples observed during the last complete step interval rather than
+ * over the life of the process, for monitoring systems that expect per-interval distributions to be pushed to them.
+ * <p>
+ * Samples are recorded into a delegate histogram, which keeps accumulating without ever being reset or locked. At the
+ * first observation or read after a step boundary, the delegate's counts are compared with those seen at the previous
+ * boundary and the differences are published as an immutable set of buckets. Publishing therefore never blocks
+ * recording, and reads in the middle of an interval always see the same, complete previous interval. The delegate's
+ * bucket semantics are preserved, so wrapping a {@link CumulativeHistogram} yields cumulative per-interval counts.
+ *
+ * @author Jon Schneider
+ */
+public class StepHistogram<T> implements Histogram<T> {
+    private final Histogram<T> delegate;
+    private final Clock clock;
+    private final long step;
+
+    private final AtomicLong lastInitPos;
+    private final Map<T, Long> lastAbsoluteCounts = new HashMap<>();
+    private volatile Collection<Bucket<T>> previous = Collections.emptyList();
+
+    /**
+     * @param delegate The histogram that samples are recorded to.
+     * @param clock    The clock used to determine step boundaries.
+     * @param step     The step interval in milliseconds, typically the registry's publishing interval.
+     */
+    public StepHistogram(Histogram<T> delegate, Clock clock, long step) {
+        this.delegate = delegate;
+        this.clock = clock;
+        this.step = step;
+        this.lastInitPos = new AtomicLong(clock.wallTime() / step);
+    }
+
+    @Override
+    public void observe(double value) {
+        roll();
+        delegate.observe(value);
+    }
+
+    /**
+     * @return Buckets holding the number of samples observed in the last complete step interval.
+     */
+    @Override
+    public Collection<Bucket<T>> getBuckets() {
+        roll();
+        return previous;
+    }
+
+    @Override
+    public boolean isCumulative() {
+        return delegate.isCumulative();
+    }
+
+    @Override
+    public HistogramSnapshot snapshot() {
+        return HistogramSnapshot.of(getBuckets(), isCumulative());
+    }
+
+    /**
+     * @return The histogram accumulating counts over the life of the process.
+     */
+    public Histogram<T> getDelegate() {
+        return delegate;
+    }
+
+    private void roll() {
+        final long stepTime = clock.wallTime() / step;
+        final long lastInit = lastInitPos.get();
+        if (lastInit < stepTime && lastInitPos.compareAndSet(lastInit, stepTime)) {
+            boolean activeInPreviousStep = lastInit == stepTime - 1;
+            List<Bucket<T>> deltas = new ArrayList<>();
+
+            // contended only if a roll is still in progress at the next boundary, never by recording
+            synchronized (lastAbsoluteCounts) {
+                for (Bucket<T> bucket : delegate.getBuckets()) {
+                    long absolute = bucket.value.sum();
+                    Long last = lastAbsoluteCounts.put(bucket.getRawTag(), absolute);
+                    long delta = last == null ? absolute : absolute - last;
+
+                    // if there was no observation or read during the previous interval, everything since the last
+                    // roll was recorded in an older interval
+                    deltas.add(new Bucket<>(bucket.getRawTag(), activeInPreviousStep ? Math.max(0, delta) : 0));
+                }
+            }
+            previous = Collections.unmodifiableList(deltas);
+        }
+    }
+}
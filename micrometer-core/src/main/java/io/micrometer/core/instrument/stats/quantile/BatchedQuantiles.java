@@ -0,0 +1,58 @@
+/**
+ * Copyright 2017 Pivotal Software, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.micrometer.core.instrument.stats.quantile;
+
+import java.util.Arrays;
+
+/**
+ * Serves the monitored quantiles of a {@link Quantiles} to gauges that are polled one at a time, while evaluating
+ * them all in a single call to {@link Quantiles#getMonitored(double[])}. The values are re-evaluated whenever a gauge
+ * reads a quantile it has already read since the last evaluation, so when each gauge is polled once per publishing
+ * interval the summary is only flushed, merged or sorted once per interval rather than once per quantile.
+ *
+ * @author Jon Schneider
+ */
+public final class BatchedQuantiles {
+    private final Quantiles quantiles;
+    private double[] values;
+
+    /**
+     * Whether each quantile has been read since the last evaluation.
+     */
+    private final boolean[] read;
+
+    public BatchedQuantiles(Quantiles quantiles) {
+        this.quantiles = quantiles;
+        this.values = new double[quantiles.monitored().size()];
+        this.read = new boolean[values.length];
+
+        // the first read of any quantile evaluates them all
+        Arrays.fill(read, true);
+    }
+
+    /**
+     * @param index The position of the quantile in the iteration order of {@link Quantiles#monitored()}.
+     * @return The value of the quantile.
+     */
+    public synchronized double get(int index) {
+        if (read[index]) {
+            values = quantiles.getMonitored(values);
+            Arrays.fill(read, false);
+        }
+        read[index] = true;
+        return values[index];
+    }
+}
@@ -0,0 +1,225 @@
+/**
+ * Copyright 2017 Pivotal Software, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.micrometer.core.instrument.stats.quantile;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A {@link CKMSQuantiles} that many threads can record to without contending on a monitor. Observations are written
+ * to one of several striped buffers of primitive doubles by claiming a slot with a single atomic increment. A thread
+ * that fills the last slot of a buffer swaps in a fresh buffer and hands the full one off to a lock-free queue.
+ * Recording threads never block.
+ * <p>
+ * Merging into the underlying summary is mostly left to readers: {@link #get(double)} folds all full buffers and
+ * flushes partially filled ones before querying, so every observation that completed before the query is reflected
+ * in its result. So that full buffers don't pile up when nothing reads for a long time, a thread handing off a buffer
+ * once more than {@link #MAX_PENDING_BUFFERS} are waiting merges them itself if it can take the merge lock without
+ * waiting. If the lock is held, whoever holds it is already merging.
+ *
+ * @author Jon Schneider
+ */
+public class BufferedCKMSQuantiles implements Quantiles {
+    /**
+     * The number of full buffers past which a recording thread tries to merge them rather than leave them for a reader.
+     */
+    static final int MAX_PENDING_BUFFERS = 16;
+
+    private final CKMSQuantiles summary;
+    private final int bufferSize;
+
+    private final AtomicReferenceArray<Buffer> stripes;
+    private final int stripeMask;
+
+    private final Queue<Buffer> full = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pending = new AtomicInteger();
+    private final ReentrantLock mergeLock = new ReentrantLock();
+
+    BufferedCKMSQuantiles(CKMSQuantiles summary, int stripes, int bufferSize) {
+        this.summary = summary;
+        this.bufferSize = bufferSize;
+
+        int stripeCount = stripes <= 1 ? 1 : Integer.highestOneBit(stripes - 1) << 1;
+        this.stripes = new AtomicReferenceArray<>(stripeCount);
+        for (int i = 0; i < stripeCount; i++) {
+            this.stripes.set(i, new Buffer(bufferSize));
+        }
+        this.stripeMask = stripeCount - 1;
+    }
+
+    @Override
+    public void observe(double value) {
+        int stripe = stripeIndex();
+        while (true) {
+            Buffer buffer = stripes.get(stripe);
+            int slot = buffer.claimed.getAndIncrement();
+            if (slot < bufferSize) {
+                buffer.values[slot] = value;
+                buffer.written.incrementAndGet();
+                if (slot == bufferSize - 1) {
+                    // the thread claiming the last slot owns handing the buffer off
+                    stripes.compareAndSet(stripe, buffer, new Buffer(bufferSize));
+                    full.offer(buffer);
+                    if (pending.incrementAndGet() > MAX_PENDING_BUFFERS && mergeLock.tryLock()) {
+                        try {
+                            mergeFull();
+                        } finally {
+                            mergeLock.unlock();
+                        }
+                    }
+                }
+                return;
+            }
+            // the buffer is full or was closed by a flush; help swap in a new one and try again
+            stripes.compareAndSet(stripe, buffer, new Buffer(bufferSize));
+        }
+    }
+
+    @Override
+    public Double get(double q) {
+        mergeLock.lock();
+        try {
+            flush();
+            return summary.get(q);
+        } finally {
+            mergeLock.unlock();
+        }
+    }
+
+    @Override
+    public double[] getMonitored(double[] values) {
+        mergeLock.lock();
+        try {
+            flush();
+            return summary.getMonitored(values);
+        } finally {
+            mergeLock.unlock();
+        }
+    }
+
+    @Override
+    public Collection<Double> monitored() {
+        return summary.monitored();
+    }
+
+    /**
+     * Merge every buffered observation into the summary. Must be called while holding the merge lock.
+     */
+    private void flush() {
+        for (int i = 0; i < stripes.length(); i++) {
+            Buffer buffer = stripes.getAndSet(i, new Buffer(bufferSize));
+
+            // close the buffer to further writes. If it was already full, the thread that filled it owns it.
+            int claimed = buffer.claimed.getAndAdd(bufferSize);
+            if (claimed > 0 && claimed < bufferSize) {
+                buffer.merge(summary, claimed);
+            }
+        }
+        mergeFull();
+    }
+
+    /**
+     * Must be called while holding the merge lock.
+     */
+    private void mergeFull() {
+        Buffer buffer;
+        while ((buffer = full.poll()) != null) {
+            pending.decrementAndGet();
+            buffer.merge(summary, bufferSize);
+        }
+    }
+
+    /**
+     * @return The number of full buffers waiting to be merged.
+     */
+    int pendingBuffers() {
+        return pending.get();
+    }
+
+    private int stripeIndex() {
+        long id = Thread.currentThread().getId();
+        return (int) ((id * 0x9E3779B97F4A7C15L) >>> 40) & stripeMask;
+    }
+
+    private static class Buffer {
+        final double[] values;
+        final AtomicInteger claimed = new AtomicInteger();
+        final AtomicInteger written = new AtomicInteger();
+
+        Buffer(int size) {
+            this.values = new double[size];
+        }
+
+        /**
+         * Must be called while holding the merge lock.
+         */
+        void merge(CKMSQuantiles summary, int count) {
+            // wait out writers that claimed a slot but have not yet stored their value
+            while (written.get() < count) {
+                Thread.yield();
+            }
+            for (int i = 0; i < count; i++) {
+                summary.observe(values[i]);
+            }
+        }
+    }
+
+    public static Builder quantile(double quantile, double error) {
+        return new Builder().quantile(quantile, error);
+    }
+
+    public static class Builder {
+        private final List<CKMSQuantiles.Quantile> quantiles = new ArrayList<>();
+        private int stripes = Runtime.getRuntime().availableProcessors() * 2;
+        private int bufferSize = 256;
+
+        public Builder quantile(double quantile, double error) {
+            quantiles.add(new CKMSQuantiles.Quantile(quantile, error));
+            return this;
+        }
+
+        /**
+         * @param stripes The number of buffers that concurrent observations are spread across, rounded up to a
+         *                power of two. Defaults to twice the number of available processors.
+         */
+        public Builder stripes(int stripes) {
+            this.stripes = stripes;
+            return this;
+        }
+
+        /**
+         * @param bufferSize The number of observations each buffer holds before it is merged into the summary.
+         */
+        public Builder bufferSize(int bufferSize) {
+            if (bufferSize < 1) {
+                throw new IllegalArgumentException("Buffer size must be positive");
+            }
+            this.bufferSize = bufferSize;
+            return this;
+        }
+
+        public BufferedCKMSQuantiles create() {
+            return new BufferedCKMSQuantiles(new CKMSQuantiles(quantiles.toArray(new CKMSQuantiles.Quantile[quantiles.size()])),
+                    stripes, bufferSize);
+        }
+    }
+}
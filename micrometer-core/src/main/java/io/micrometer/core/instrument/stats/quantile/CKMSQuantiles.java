@@ -100,30 +100,51 @@ public class CKMSQuantiles implements Quantiles {
         compress();
 
         synchronized (sample) {
-            if (sample.size() == 0) {
-                return Double.NaN;
+            return query(q);
+        }
+    }
+
+    @Override
+    public double[] getMonitored(double[] values) {
+        insertBatch();
+        compress();
+
+        double[] result = values != null && values.length >= quantiles.length ? values : new double[quantiles.length];
+        synchronized (sample) {
+            for (int i = 0; i < quantiles.length; i++) {
+                result[i] = query(quantiles[i].getQuantile());
             }
+        }
+        return result;
+    }
 
-            int rankMin = 0;
-            int desired = (int) (q * count);
+    /**
+     * Must be called while holding the lock on {@link #sample}, after the buffer has been flushed.
+     */
+    private double query(double q) {
+        if (sample.size() == 0) {
+            return Double.NaN;
+        }
 
-            ListIterator<Item> it = sample.listIterator();
-            Item prev, cur;
+        int rankMin = 0;
+        int desired = (int) (q * count);
+
+        ListIterator<Item> it = sample.listIterator();
+        Item prev, cur;
+        cur = it.next();
+        while (it.hasNext()) {
+            prev = cur;
             cur = it.next();
-            while (it.hasNext()) {
-                prev = cur;
-                cur = it.next();
 
-                rankMin += prev.g;
+            rankMin += prev.g;
 
-                if (rankMin + cur.g + cur.delta > desired + (allowableError(desired) / 2)) {
-                    return prev.value;
-                }
+            if (rankMin + cur.g + cur.delta > desired + (allowableError(desired) / 2)) {
+                return prev.value;
             }
-
-            // edge case of wanting max value
-            return sample.getLast().value;
         }
+
+        // edge case of wanting max value
+        return sample.getLast().value;
     }
 
     @Override
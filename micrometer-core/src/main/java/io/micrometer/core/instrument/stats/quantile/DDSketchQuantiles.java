@@ -0,0 +1,470 @@
+/**
+ * Copyright 2017 Pivotal Software, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.micrometer.core.instrument.stats.quantile;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * A quantile sketch with a guaranteed relative error that can be merged with other sketches of the same accuracy,
+ * whether recorded on another thread, under other tags or in another JVM.
+ * <p>
+ * Positive and negative observations are counted in buckets whose boundaries grow geometrically by a factor of
+ * {@code gamma = (1 + alpha) / (1 - alpha)}, where {@code alpha} is the relative accuracy, so an observation is
+ * assigned to its bucket with a single logarithm and array increment. Every bucket is reported as the value that is
+ * within {@code alpha} of everything it holds, so any quantile is estimated to within a factor of {@code alpha} of the
+ * observation actually at that rank. Values too close to zero to be indexed are counted separately as zero, and values
+ * that are not finite are ignored.
+ * <p>
+ * The number of buckets is bounded separately for positive and negative observations. When observations of one sign
+ * span a wider range than {@code maxBuckets} buckets can hold, the buckets of that sign closest to zero are collapsed
+ * into each other. This only affects the accuracy of quantiles among the observations of smallest magnitude: the
+ * lowest positive values, and for negative observations the highest (least negative) values. With the default of 2048
+ * buckets and 1% accuracy, observations spanning more than 17 orders of magnitude fit without collapsing.
+ * <p>
+ * Sketches are shipped between JVMs in their binary form with {@link #toByteArray()} and
+ * {@link #fromByteArray(byte[])}, encoding each run of buckets as an offset and variable length counts.
+ * <p>
+ * See Masson, Rim and Lee, "DDSketch: A Fast and Fully-Mergeable Quantile Sketch with Relative-Error Guarantees",
+ * PVLDB 12(12), 2019.
+ *
+ * @author Jon Schneider
+ */
+public class DDSketchQuantiles implements Quantiles {
+    private static final byte VERSION = 1;
+
+    private final Collection<Double> monitored;
+    private final double relativeAccuracy;
+    private final int maxBuckets;
+
+    private final double gamma;
+    private final double logGamma;
+    private final double minIndexableValue;
+
+    private final Store positive;
+    private final Store negative;
+    private long zeroCount;
+
+    public DDSketchQuantiles(Collection<Double> monitored, double relativeAccuracy, int maxBuckets) {
+        if (!(relativeAccuracy > 0 && relativeAccuracy < 1)) {
+            throw new IllegalArgumentException("Relative accuracy must lay between 0 and 1.");
+        }
+        if (maxBuckets < 1) {
+            throw new IllegalArgumentException("There must be at least one bucket.");
+        }
+
+        this.monitored = monitored;
+        this.relativeAccuracy = relativeAccuracy;
+        this.maxBuckets = maxBuckets;
+        this.gamma = (1 + relativeAccuracy) / (1 - relativeAccuracy);
+        this.logGamma = Math.log(gamma);
+        this.minIndexableValue = Double.MIN_NORMAL * gamma;
+        this.positive = new Store(maxBuckets);
+        this.negative = new Store(maxBuckets);
+    }
+
+    @Override
+    public synchronized void observe(double value) {
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            return;
+        }
+
+        if (value > minIndexableValue) {
+            positive.add(index(value), 1);
+        } else if (value < -minIndexableValue) {
+            negative.add(index(-value), 1);
+        } else {
+            zeroCount++;
+        }
+    }
+
+    @Override
+    public synchronized Double get(double q) {
+        return quantile(q);
+    }
+
+    @Override
+    public synchronized double[] getMonitored(double[] values) {
+        double[] result = values != null && values.length >= monitored.size() ? values : new double[monitored.size()];
+        int i = 0;
+        for (Double q : monitored) {
+            result[i++] = quantile(q);
+        }
+        return result;
+    }
+
+    private double quantile(double q) {
+        long count = negative.total + zeroCount + positive.total;
+        if (count == 0 || q < 0 || q > 1) {
+            return Double.NaN;
+        }
+
+        long rank = (long) (q * (count - 1));
+        if (rank < negative.total) {
+            // the most negative values are held in the highest buckets of the negative store
+            return -value(negative.indexAtRank(negative.total - 1 - rank));
+        }
+        rank -= negative.total;
+        if (rank < zeroCount) {
+            return 0;
+        }
+        return value(positive.indexAtRank(rank - zeroCount));
+    }
+
+    @Override
+    public Collection<Double> monitored() {
+        return monitored;
+    }
+
+    /**
+     * @return The number of observations, including those merged from other sketches.
+     */
+    public synchronized long getCount() {
+        return negative.total + zeroCount + positive.total;
+    }
+
+    /**
+     * Add the observations of another sketch to this one. The other sketch is unchanged.
+     *
+     * @param other A sketch with the same relative accuracy.
+     * @throws IllegalArgumentException if the sketches have different relative accuracies.
+     */
+    public void merge(DDSketchQuantiles other) {
+        if (other.relativeAccuracy != relativeAccuracy) {
+            throw new IllegalArgumentException("Cannot merge a sketch with relative accuracy " + other.relativeAccuracy +
+                " into one with relative accuracy " + relativeAccuracy);
+        }
+        if (other == this) {
+            return;
+        }
+
+        // copy the other sketch first so that the two are never locked at once
+        Store otherPositive;
+        Store otherNegative;
+        long otherZeroCount;
+        synchronized (other) {
+            otherPositive = other.positive.copy();
+            otherNegative = other.negative.copy();
+            otherZeroCount = other.zeroCount;
+        }
+
+        synchronized (this) {
+            positive.addAll(otherPositive);
+            negative.addAll(otherNegative);
+            zeroCount += otherZeroCount;
+        }
+    }
+
+    private int index(double value) {
+        return (int) Math.ceil(Math.log(value) / logGamma);
+    }
+
+    private double value(int index) {
+        return 2 * Math.pow(gamma, index) / (gamma + 1);
+    }
+
+    /**
+     * Encode this sketch as a version byte, its relative accuracy and monitored quantiles as raw IEEE 754 doubles,
+     * its bucket limit and zero count, and the range of occupied buckets of its positive and negative stores, each as
+     * the zig-zag encoded index of its lowest bucket followed by every count as an unsigned variable length integer.
+     */
+    public synchronized byte[] toByteArray() {
+        byte[] buf = new byte[1 + 8 + 5 + monitored.size() * 8 + 5 + 10 + 2 * (5 + 5) +
+            (positive.range() + negative.range()) * 10];
+        int pos = 0;
+        buf[pos++] = VERSION;
+        pos = writeDouble(buf, pos, relativeAccuracy);
+        pos = writeVarLong(buf, pos, monitored.size());
+        for (Double q : monitored) {
+            pos = writeDouble(buf, pos, q);
+        }
+        pos = writeVarLong(buf, pos, maxBuckets);
+        pos = writeVarLong(buf, pos, zeroCount);
+        pos = positive.write(buf, pos);
+        pos = negative.write(buf, pos);
+        return Arrays.copyOf(buf, pos);
+    }
+
+    /**
+     * @param bytes A sketch encoded by {@link #toByteArray()}.
+     * @throws IllegalArgumentException if {@code bytes} is not a valid encoding of a sketch.
+     */
+    public static DDSketchQuantiles fromByteArray(byte[] bytes) {
+        try {
+            if (bytes[0] != VERSION) {
+                throw new IllegalArgumentException("Unsupported sketch encoding version " + bytes[0]);
+            }
+            int[] pos = {1};
+            double relativeAccuracy = readDouble(bytes, pos);
+            if (!(relativeAccuracy > 0 && relativeAccuracy < 1)) {
+                throw new IllegalArgumentException("Invalid sketch relative accuracy " + relativeAccuracy);
+            }
+
+            long monitoredCount = readVarLong(bytes, pos);
+            if (monitoredCount < 0 || monitoredCount > (bytes.length - pos[0]) / 8) {
+                throw new IllegalArgumentException("Invalid sketch quantile count " + monitoredCount);
+            }
+            Collection<Double> monitored = new ArrayList<>();
+            for (int i = 0; i < monitoredCount; i++) {
+                monitored.add(readDouble(bytes, pos));
+            }
+
+            long maxBuckets = readVarLong(bytes, pos);
+            if (maxBuckets < 1 || maxBuckets > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("Invalid sketch bucket limit " + maxBuckets);
+            }
+
+            DDSketchQuantiles sketch = new DDSketchQuantiles(monitored, relativeAccuracy, (int) maxBuckets);
+            sketch.zeroCount = readVarLong(bytes, pos);
+            sketch.positive.read(bytes, pos);
+            sketch.negative.read(bytes, pos);
+            return sketch;
+        } catch (ArrayIndexOutOfBoundsException e) {
+            throw new IllegalArgumentException("Truncated sketch", e);
+        }
+    }
+
+    private static int writeDouble(byte[] buf, int pos, double value) {
+        long bits = Double.doubleToLongBits(value);
+        for (int shift = 56; shift >= 0; shift -= 8) {
+            buf[pos++] = (byte) (bits >>> shift);
+        }
+        return pos;
+    }
+
+    private static double readDouble(byte[] buf, int[] pos) {
+        long bits = 0;
+        for (int b = 0; b < 8; b++) {
+            bits = (bits << 8) | (buf[pos[0]++] & 0xFF);
+        }
+        return Double.longBitsToDouble(bits);
+    }
+
+    private static int writeVarLong(byte[] buf, int pos, long value) {
+        while ((value & ~0x7FL) != 0) {
+            buf[pos++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buf[pos++] = (byte) value;
+        return pos;
+    }
+
+    private static long readVarLong(byte[] buf, int[] pos) {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = buf[pos[0]++];
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("Malformed variable length integer in sketch");
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getCanonicalName() + " { relativeAccuracy=" + relativeAccuracy + ", maxBuckets=" + maxBuckets + " }";
+    }
+
+    /**
+     * Counts for a contiguous range of bucket indices, held in an array that grows as the range widens up to the
+     * bucket limit, beyond which the lowest buckets, which hold the magnitudes closest to zero, are collapsed.
+     */
+    private static final class Store {
+        private final int maxBuckets;
+
+        private long[] counts = new long[0];
+
+        /**
+         * The bucket index of {@code counts[0]}.
+         */
+        private int offset;
+
+        private int minIndex;
+        private int maxIndex;
+        private long total;
+
+        Store(int maxBuckets) {
+            this.maxBuckets = maxBuckets;
+        }
+
+        void add(int index, long n) {
+            if (n == 0) {
+                return;
+            }
+
+            if (total == 0) {
+                ensureRange(index, index);
+                minIndex = index;
+                maxIndex = index;
+            } else {
+                int lo = Math.min(minIndex, index);
+                int hi = Math.max(maxIndex, index);
+
+                if ((long) hi - lo + 1 > maxBuckets) {
+                    // fold everything below the lowest bucket that still fits into that bucket
+                    int newLo = hi - maxBuckets + 1;
+                    long folded = 0;
+                    for (int i = minIndex; i <= maxIndex && i < newLo; i++) {
+                        folded += counts[i - offset];
+                        counts[i - offset] = 0;
+                    }
+                    ensureRange(newLo, hi);
+                    counts[newLo - offset] += folded;
+                    index = Math.max(index, newLo);
+                    lo = newLo;
+                } else {
+                    ensureRange(lo, hi);
+                }
+
+                minIndex = lo;
+                maxIndex = hi;
+            }
+
+            counts[index - offset] += n;
+            total += n;
+        }
+
+        void addAll(Store other) {
+            if (other.total == 0) {
+                return;
+            }
+            for (int i = other.minIndex; i <= other.maxIndex; i++) {
+                add(i, other.counts[i - other.offset]);
+            }
+        }
+
+        /**
+         * Make the array cover the bucket indices from {@code lo} to {@code hi}, which must span no more than the
+         * bucket limit, keeping the counts of occupied buckets within that range.
+         */
+        private void ensureRange(int lo, int hi) {
+            if (counts.length > 0 && lo >= offset && (long) hi < (long) offset + counts.length) {
+                return;
+            }
+
+            int length = (int) Math.min(maxBuckets, Math.max((long) hi - lo + 1, counts.length * 2L));
+            // leave room to grow in the direction the range is widening
+            int newOffset = counts.length > 0 && lo < offset ? hi - length + 1 : lo;
+
+            long[] grown = new long[length];
+            if (total > 0) {
+                for (int i = Math.max(minIndex, lo); i <= Math.min(maxIndex, hi); i++) {
+                    grown[i - newOffset] = counts[i - offset];
+                }
+            }
+            counts = grown;
+            offset = newOffset;
+        }
+
+        /**
+         * @return The index of the bucket holding the observation at {@code rank}, counting from the lowest bucket.
+         */
+        int indexAtRank(long rank) {
+            long cumulative = 0;
+            for (int i = minIndex; i <= maxIndex; i++) {
+                cumulative += counts[i - offset];
+                if (cumulative > rank) {
+                    return i;
+                }
+            }
+            return maxIndex;
+        }
+
+        int range() {
+            return total == 0 ? 0 : maxIndex - minIndex + 1;
+        }
+
+        Store copy() {
+            Store copy = new Store(maxBuckets);
+            copy.counts = counts.clone();
+            copy.offset = offset;
+            copy.minIndex = minIndex;
+            copy.maxIndex = maxIndex;
+            copy.total = total;
+            return copy;
+        }
+
+        int write(byte[] buf, int pos) {
+            int range = range();
+            pos = writeVarLong(buf, pos, range);
+            if (range > 0) {
+                // zig-zag encode the lowest index, which is negative for values below one
+                pos = writeVarLong(buf, pos, ((minIndex << 1) ^ (minIndex >> 31)) & 0xFFFFFFFFL);
+                for (int i = minIndex; i <= maxIndex; i++) {
+                    pos = writeVarLong(buf, pos, counts[i - offset]);
+                }
+            }
+            return pos;
+        }
+
+        void read(byte[] buf, int[] pos) {
+            long range = readVarLong(buf, pos);
+            if (range < 0 || range > buf.length - pos[0]) {
+                throw new IllegalArgumentException("Invalid sketch bucket range " + range);
+            }
+            if (range > 0) {
+                long zigZag = readVarLong(buf, pos);
+                int lowest = (int) (zigZag >>> 1) ^ -(int) (zigZag & 1);
+                for (int i = 0; i < range; i++) {
+                    long count = readVarLong(buf, pos);
+                    if (count < 0) {
+                        throw new IllegalArgumentException("Bucket counts must not be negative");
+                    }
+                    add(lowest + i, count);
+                }
+            }
+        }
+    }
+
+    public static Builder quantiles(double... quantiles) {
+        return new Builder().quantiles(quantiles);
+    }
+
+    public static class Builder {
+        private Collection<Double> monitored = new ArrayList<>();
+        private double relativeAccuracy = 0.01;
+        private int maxBuckets = 2048;
+
+        public Builder quantiles(double... quantiles) {
+            for (double quantile : quantiles) {
+                monitored.add(quantile);
+            }
+            return this;
+        }
+
+        /**
+         * @param relativeAccuracy The maximum error of an estimate, relative to the observation at the queried rank.
+         */
+        public Builder relativeAccuracy(double relativeAccuracy) {
+            this.relativeAccuracy = relativeAccuracy;
+            return this;
+        }
+
+        /**
+         * @param maxBuckets The maximum number of buckets for each of positive and negative observations.
+         */
+        public Builder maxBuckets(int maxBuckets) {
+            this.maxBuckets = maxBuckets;
+            return this;
+        }
+
+        public DDSketchQuantiles create() {
+            return new DDSketchQuantiles(monitored, relativeAccuracy, maxBuckets);
+        }
+    }
+}
@@ -0,0 +1,165 @@
+/**
+ * Copyright 2017 Pivotal Software, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.micrometer.core.instrument.stats.quantile;
+
+import io.micrometer.core.instrument.stats.hist.Histogram;
+import io.micrometer.core.instrument.stats.hist.HistogramSnapshot;
+
+import java.util.ArrayList;
+import java.util.Collection;
+
+/**
+ * Derives quantiles from the bucket counts of a {@link Histogram} at read time instead of maintaining a separate
+ * sketch. When the same histogram is also given to a timer or distribution summary builder, the Prometheus and
+ * Spectator-based registries recognize that it is shared and observe each sample into it a single time. Other
+ * registries may observe it once for the histogram and once for the quantiles.
+ * <p>
+ * A quantile is located in the first bucket of the snapshot whose cumulative count reaches its rank, and its value is
+ * linearly interpolated between the bound of the bucket before it in the snapshot and its own bound, assuming samples
+ * are evenly spread in between. For a histogram that reports every bucket of its layout, such as a
+ * {@link io.micrometer.core.instrument.stats.hist.CumulativeHistogram}, that is the bucket's own lower edge, and the
+ * error of an estimate is bounded by the layout of the buckets rather than by the number of samples:
+ * <ul>
+ * <li>The absolute error never exceeds the width of the bucket containing the quantile. For linear buckets of
+ * width {@code w}, estimates are within {@code w} of the true value.</li>
+ * <li>For exponential buckets growing by a factor of {@code b}, the relative error never exceeds {@code b - 1}.</li>
+ * <li>The lowest bucket is assumed to start at zero, or at its own bound if that bound is negative.</li>
+ * <li>A {@link io.micrometer.core.instrument.stats.hist.NormalHistogram} only reports buckets that samples fell into,
+ * so interpolation spans any empty buckets below the one containing the quantile, down to the previous bucket with
+ * samples, or to zero. The error is then bounded by the width of that span rather than of a single bucket.</li>
+ * <li>Quantiles whose rank falls in the {@code +Inf} bucket cannot be interpolated and are reported as the largest
+ * finite bucket bound, which underestimates them by an unknown amount. Size the buckets so that the highest monitored
+ * quantile falls below the last finite bound.</li>
+ * </ul>
+ *
+ * @author Jon Schneider
+ */
+public class HistogramQuantiles implements Quantiles {
+    private final Histogram<Double> histogram;
+    private final Collection<Double> monitored;
+
+    public HistogramQuantiles(Histogram<Double> histogram, Collection<Double> monitored) {
+        this.histogram = histogram;
+        this.monitored = monitored;
+    }
+
+    @Override
+    public void observe(double value) {
+        histogram.observe(value);
+    }
+
+    @Override
+    public Double get(double percentile) {
+        HistogramSnapshot snapshot = histogram.snapshot();
+        if (snapshot.size() == 0) {
+            return Double.NaN;
+        }
+        return interpolate(snapshot.bounds(), snapshot.cumulativeCounts(), percentile);
+    }
+
+    @Override
+    public double[] getMonitored(double[] values) {
+        double[] result = values != null && values.length >= monitored.size() ? values : new double[monitored.size()];
+
+        // every quantile is interpolated from the same snapshot
+        HistogramSnapshot snapshot = histogram.snapshot();
+        double[] bounds = snapshot.bounds();
+        long[] cumulativeCounts = snapshot.cumulativeCounts();
+
+        int i = 0;
+        for (Double q : monitored) {
+            result[i++] = snapshot.size() == 0 ? Double.NaN : interpolate(bounds, cumulativeCounts, q);
+        }
+        return result;
+    }
+
+    /**
+     * @param bounds           Upper bounds of each bucket, in ascending order.
+     * @param cumulativeCounts The number of samples less than or equal to each bound.
+     * @param percentile       (0 .. 1.0)
+     * @return The interpolated value at {@code percentile}, or {@link Double#NaN} if there are no samples.
+     */
+    static double interpolate(double[] bounds, long[] cumulativeCounts, double percentile) {
+        long total = cumulativeCounts[cumulativeCounts.length - 1];
+        if (total == 0) {
+            return Double.NaN;
+        }
+
+        double rank = percentile * total;
+        int i = 0;
+        while (i < cumulativeCounts.length - 1 && cumulativeCounts[i] < rank) {
+            i++;
+        }
+
+        double upper = bounds[i];
+        double lower = i == 0 ? Math.min(0, upper) : bounds[i - 1];
+        if (Double.isInfinite(upper)) {
+            return i == 0 ? Double.NaN : lower;
+        }
+
+        long countBelow = i == 0 ? 0 : cumulativeCounts[i - 1];
+        long countInBucket = cumulativeCounts[i] - countBelow;
+        if (countInBucket == 0) {
+            return upper;
+        }
+
+        return lower + (upper - lower) * (rank - countBelow) / countInBucket;
+    }
+
+    @Override
+    public Collection<Double> monitored() {
+        return monitored;
+    }
+
+    /**
+     * @return The histogram whose buckets quantiles are derived from.
+     */
+    public Histogram<Double> getHistogram() {
+        return histogram;
+    }
+
+    public static Builder quantiles(double... quantiles) {
+        return new Builder().quantiles(quantiles);
+    }
+
+    public static class Builder {
+        private Collection<Double> monitored = new ArrayList<>();
+        private Histogram<Double> histogram;
+
+        public Builder quantiles(double... quantiles) {
+            for (double quantile : quantiles) {
+                monitored.add(quantile);
+            }
+            return this;
+        }
+
+        /**
+         * @param histogram The histogram to derive quantiles from. The finer its buckets around the monitored
+         *                  quantiles, the more accurate the estimates.
+         */
+        public Builder histogram(Histogram<Double> histogram) {
+            this.histogram = histogram;
+            return this;
+        }
+
+        public HistogramQuantiles create() {
+            if (histogram == null) {
+                throw new IllegalStateException("A histogram is required to derive quantiles from.");
+            }
+            return new HistogramQuantiles(histogram, monitored);
+        }
+    }
+}
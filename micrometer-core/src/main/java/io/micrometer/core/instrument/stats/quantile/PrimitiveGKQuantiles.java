@@ -0,0 +1,249 @@
+/**
+ * Copyright 2017 Pivotal Software, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.micrometer.core.instrument.stats.quantile;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * An implementation of the Greenwald-Khanna algorithm for computing epsilon-approximate quantiles that keeps its
+ * summary in parallel primitive arrays of values, {@code g} (the difference between the minimum rank of a value and
+ * that of its predecessor) and {@code delta} (the span between a value's minimum and maximum rank). Observations are
+ * inserted in place and the summary is compressed in place every {@code 1 / (2 * epsilon)} observations, so neither
+ * recording nor querying allocates once the arrays have grown to fit the summary.
+ * <p>
+ * The summary holds {@code O((1 / epsilon) * log(epsilon * n))} entries after {@code n} observations, and in practice
+ * stays within a small multiple of {@code 1 / epsilon}. A query for quantile {@code q} returns a value whose rank is
+ * within {@code epsilon * n} of {@code q * n}. The minimum and maximum observations are always retained exactly.
+ * <p>
+ * See Greenwald and Khanna, "Space-efficient online computation of quantile summaries" in SIGMOD 2001.
+ *
+ * @author Jon Schneider
+ */
+public class PrimitiveGKQuantiles implements Quantiles {
+    private static final int INITIAL_CAPACITY = 64;
+
+    /**
+     * This implementation, unlike others, monitors all potential quantiles equally, but
+     * we need somewhere to store the state of what we INTEND to ask later of it
+     */
+    private final Collection<Double> monitored;
+
+    private final double epsilon;
+    private final int compressInterval;
+
+    private double[] values = new double[INITIAL_CAPACITY];
+    private int[] g = new int[INITIAL_CAPACITY];
+    private int[] delta = new int[INITIAL_CAPACITY];
+    private int size;
+    private long count;
+
+    /**
+     * @param epsilon The maximum error bound for quantile estimation, as a fraction of the number of observations.
+     */
+    public PrimitiveGKQuantiles(Collection<Double> monitored, double epsilon) {
+        if (epsilon <= 0 || epsilon >= 1) {
+            throw new IllegalArgumentException("An appropriate epsilon value must lay between 0 and 1.");
+        }
+        this.monitored = monitored;
+        this.epsilon = epsilon;
+        this.compressInterval = Math.max(1, (int) Math.floor(1.0 / (2.0 * epsilon)));
+    }
+
+    @Override
+    public synchronized void observe(double value) {
+        // the first entry with a greater value, so equal values are inserted after existing ones
+        int i = upperBound(value);
+
+        // the minimum and maximum are known exactly, anything in between inherits the uncertainty of its successor
+        int newDelta = (i == 0 || i == size) ? 0 : g[i] + delta[i] - 1;
+
+        if (size == values.length) {
+            int capacity = size * 2;
+            values = Arrays.copyOf(values, capacity);
+            g = Arrays.copyOf(g, capacity);
+            delta = Arrays.copyOf(delta, capacity);
+        }
+
+        System.arraycopy(values, i, values, i + 1, size - i);
+        System.arraycopy(g, i, g, i + 1, size - i);
+        System.arraycopy(delta, i, delta, i + 1, size - i);
+        values[i] = value;
+        g[i] = 1;
+        delta[i] = Math.max(0, newDelta);
+        size++;
+        count++;
+
+        if (count % compressInterval == 0) {
+            compress();
+        }
+    }
+
+    @Override
+    public synchronized Double get(double q) {
+        if (size == 0 || q < 0 || q > 1) {
+            return Double.NaN;
+        }
+        if (q == 0) {
+            return values[0];
+        }
+        if (q == 1) {
+            return values[size - 1];
+        }
+
+        double rank = Math.ceil(q * count);
+        double tolerance = epsilon * count;
+
+        long minRank = 0;
+        for (int i = 0; i < size; i++) {
+            minRank += g[i];
+            long maxRank = minRank + delta[i];
+            if (maxRank - tolerance <= rank && rank <= minRank + tolerance) {
+                return values[i];
+            }
+        }
+        return values[size - 1];
+    }
+
+    /**
+     * Evaluates every monitored quantile against the same summary.
+     */
+    @Override
+    public synchronized double[] getMonitored(double[] values) {
+        return Quantiles.super.getMonitored(values);
+    }
+
+    @Override
+    public Collection<Double> monitored() {
+        return monitored;
+    }
+
+    /**
+     * @return The number of observations.
+     */
+    public synchronized long getCount() {
+        return count;
+    }
+
+    /**
+     * Forget all observations, keeping the arrays that have already been allocated for reuse.
+     */
+    public synchronized void clear() {
+        size = 0;
+        count = 0;
+    }
+
+    /**
+     * Copy the summary's values, in ascending order, and the number of observations each one stands for into the
+     * given arrays. The weights sum to {@link #getCount()}.
+     *
+     * @return The index after the last entry written.
+     */
+    synchronized int copyTo(double[] toValues, long[] toWeights, int offset) {
+        System.arraycopy(values, 0, toValues, offset, size);
+        for (int i = 0; i < size; i++) {
+            toWeights[offset + i] = g[i];
+        }
+        return offset + size;
+    }
+
+    /**
+     * @return The number of entries in the summary.
+     */
+    synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Merge adjacent entries from right to left wherever the merged entry's rank uncertainty stays within
+     * {@code 2 * epsilon * n}, compacting the surviving entries towards the end of the arrays and then shifting them
+     * back to the start. The minimum is never merged away.
+     */
+    private void compress() {
+        if (size < 3) {
+            return;
+        }
+
+        long threshold = (long) Math.floor(2 * epsilon * count);
+
+        // index of the entry absorbing its predecessors
+        int w = size - 1;
+        for (int i = size - 2; i >= 1; i--) {
+            if (g[i] + g[w] + delta[w] <= threshold) {
+                g[w] += g[i];
+            } else {
+                w--;
+                values[w] = values[i];
+                g[w] = g[i];
+                delta[w] = delta[i];
+            }
+        }
+        w--;
+        values[w] = values[0];
+        g[w] = g[0];
+        delta[w] = delta[0];
+
+        size -= w;
+        System.arraycopy(values, w, values, 0, size);
+        System.arraycopy(g, w, g, 0, size);
+        System.arraycopy(delta, w, delta, 0, size);
+    }
+
+    private int upperBound(double value) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (values[mid] <= value) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getCanonicalName() + " { epsilon=" + epsilon + " }";
+    }
+
+    public static Builder quantiles(double... quantiles) {
+        return new Builder().quantiles(quantiles);
+    }
+
+    public static class Builder {
+        private Collection<Double> monitored = new ArrayList<>();
+        private double error = 0.05;
+
+        public Builder quantiles(double... quantiles) {
+            for (double quantile : quantiles) {
+                monitored.add(quantile);
+            }
+            return this;
+        }
+
+        public Builder error(double epsilon) {
+            this.error = epsilon;
+            return this;
+        }
+
+        public PrimitiveGKQuantiles create() {
+            return new PrimitiveGKQuantiles(monitored, error);
+        }
+    }
+}
@@ -37,6 +37,23 @@ public interface Quantiles {
      */
     Double get(double percentile);
 
+    /**
+     * Evaluate every monitored quantile at once, so that implementations which flush, merge or sort their summary
+     * before answering a query only do so once for all of them.
+     *
+     * @param values An array to reuse for the result if it is large enough, or {@code null}.
+     * @return The value of each monitored quantile, in the iteration order of {@link #monitored()}.
+     */
+    default double[] getMonitored(double[] values) {
+        Collection<Double> monitored = monitored();
+        double[] result = values != null && values.length >= monitored.size() ? values : new double[monitored.size()];
+        int i = 0;
+        for (Double q : monitored) {
+            result[i++] = get(q);
+        }
+        return result;
+    }
+
     /**
      * Get all monitored quantiles
      */
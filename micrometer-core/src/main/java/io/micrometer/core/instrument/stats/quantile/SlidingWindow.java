@@ -16,8 +16,8 @@
 package io.micrometer.core.instrument.stats.quantile;
 
 import java.io.Serializable;
+import java.util.ArrayList;
 import java.util.Collection;
-import java.util.LinkedList;
 
 /**
  * Modified from: https://github.com/mayconbordin/streaminer#quantiles
@@ -32,27 +32,48 @@ import java.util.LinkedList;
  * summary).<br>
  * Because of moving the borders is left to the user this implementation can be used for managing
  * windows that age per time unit as well as per seen element.
+ * <p>
+ * Elements are held in a circular array along with the position of the window at which each one slides out,
+ * so sliding the window only advances its position and discards expired elements from the oldest end, rather
+ * than updating the life time of every element. Adding and sliding take constant (amortized) time and don't allocate
+ * once the array has grown to fit the window.
  *
  * @param <T> any kind of object
  * @author Markus Kokott
  * @author Jon Schneider
  */
 public class SlidingWindow<T> implements Serializable {
-    private static final long serialVersionUID = 5971578246884329784L;
-    private LinkedList<Element<T>> elements;
-    private Integer windowSize;
+    private static final long serialVersionUID = -2271385404387219396L;
+    private static final int INITIAL_CAPACITY = 8;
+
+    private final int windowSize;
+
+    private Object[] elements = new Object[INITIAL_CAPACITY];
+    private int[] sizes = new int[INITIAL_CAPACITY];
+
+    /**
+     * The position of the window at which each element's life time reaches zero.
+     */
+    private long[] expiries = new long[INITIAL_CAPACITY];
+
+    /**
+     * The index in the arrays of the oldest element.
+     */
+    private int oldest;
+    private int count;
+
+    /**
+     * How far the window has slid since it was created.
+     */
+    private long position;
 
     /**
      * The window size is fixed after initiating an instance of <code>SlidingWindow</code>
      *
-     * @param windowSize a (positive) {@link Integer} value.
+     * @param windowSize a (positive) value.
      */
-    public SlidingWindow(Integer windowSize) {
-        if (windowSize < 0) {
-            windowSize *= -1;
-        }
-        this.windowSize = windowSize;
-        this.elements = new LinkedList<>();
+    public SlidingWindow(int windowSize) {
+        this.windowSize = Math.abs(windowSize);
     }
 
     /**
@@ -63,8 +84,7 @@ public class SlidingWindow<T> implements Serializable {
      * @param element
      */
     public void add(T element) {
-        Element<T> newElement = new Element<>(element, this.windowSize, 0);
-        this.elements.addFirst(newElement);
+        append(element, this.windowSize, 0);
     }
 
     /**
@@ -72,11 +92,11 @@ public class SlidingWindow<T> implements Serializable {
      * Please note, that no older elements will be discarded until you slide the window manually!
      *
      * @param element
-     * @param size    - {@link Integer} value that specifies the <code>element</code>s size
+     * @param size    - value that specifies the <code>element</code>s size
      * @throws RuntimeException if <code>size</code> is greater than {@link #windowSize} or a negative
-     *                          {@link Integer}
+     *                          integer
      */
-    public void add(T element, Integer size) {
+    public void add(T element, int size) {
 
         if (size > this.windowSize) {
             throw new RuntimeException("Size of element exceeds the size of the sliding window.");
@@ -85,8 +105,7 @@ public class SlidingWindow<T> implements Serializable {
             throw new RuntimeException("The size of an element can't be a negative integer.");
         }
 
-        Element<T> newElement = new Element<>(element, this.windowSize - size, size);
-        this.elements.addFirst(newElement);
+        append(element, this.windowSize - size, size);
     }
 
     /**
@@ -95,33 +114,34 @@ public class SlidingWindow<T> implements Serializable {
     public void slideWindowByOnePosition() {
 
         this.refreshWindow();
-        this.shiftElementsByOne();
+        this.position++;
     }
 
     /**
      * Moves the window a given number of positions.
      *
-     * @param positions - a {@link Integer} value representing the elapsed "time"
+     * @param positions - a value representing the elapsed "time"
      * @throws RuntimeException if <code>positions</code> is a negative value
      */
-    public void slideWindow(Integer positions) {
+    public void slideWindow(int positions) {
 
         if (positions < 0) {
             throw new RuntimeException("You can't go back in time...");
         }
 
         this.refreshWindow();
-        this.shiftElements(positions);
+        this.position += positions;
     }
 
     /**
-     * Returns the element at position <code>index</code>
+     * Returns the element at position <code>index</code>, where the newest element is at position 0.
      *
      * @param index
      * @return element of type <b>T</b>
      */
-    public T get(Integer index) {
-        return this.elements.get(index).getElement();
+    @SuppressWarnings("unchecked")
+    public T get(int index) {
+        return (T) this.elements[slot(index)];
     }
 
     /**
@@ -131,10 +151,10 @@ public class SlidingWindow<T> implements Serializable {
      */
     public T getOldestElement() {
 
-        if (this.elements.isEmpty()) {
+        if (this.count == 0) {
             return null;
         }
-        return this.elements.getLast().getElement();
+        return get(this.count - 1);
     }
 
     /**
@@ -144,22 +164,22 @@ public class SlidingWindow<T> implements Serializable {
      */
     public T getNewestElement() {
 
-        if (this.elements.isEmpty()) {
+        if (this.count == 0) {
             return null;
         }
-        return this.elements.getFirst().getElement();
+        return get(0);
     }
 
     /**
-     * Returns a collection containing each element in the window
+     * Returns a collection containing each element in the window, from the newest to the oldest.
      *
      * @return a {@link Collection} of element of type <b>T</b>
      */
     public Collection<T> getAll() {
-        Collection<T> elements = new LinkedList<>();
+        Collection<T> elements = new ArrayList<>(this.count);
 
-        for (int i = 0; i < this.elements.size(); i++) {
-            elements.add(this.elements.get(i).getElement());
+        for (int i = 0; i < this.count; i++) {
+            elements.add(get(i));
         }
 
         return elements;
@@ -171,10 +191,10 @@ public class SlidingWindow<T> implements Serializable {
      * @return a {@link Collection} of element of type {@link Integer}
      */
     public Collection<Integer> getAllLifeTimes() {
-        Collection<Integer> lifeTimes = new LinkedList<>();
+        Collection<Integer> lifeTimes = new ArrayList<>(this.count);
 
-        for (int i = 0; i < this.elements.size(); i++) {
-            lifeTimes.add(this.elements.get(i).getTimeToLive());
+        for (int i = 0; i < this.count; i++) {
+            lifeTimes.add(getLifeTime(i));
         }
 
         return lifeTimes;
@@ -186,16 +206,16 @@ public class SlidingWindow<T> implements Serializable {
      * @param index
      * @return the life time of an element
      */
-    public Integer getLifeTime(Integer index) {
-        return this.elements.get(index).getTimeToLive();
+    public int getLifeTime(int index) {
+        return (int) (this.expiries[slot(index)] - this.position);
     }
 
     /**
      * Returns the size of this sliding window.
      *
-     * @return an {@link Integer} that stands for the size of the window
+     * @return a value that stands for the size of the window
      */
-    public Integer getWindowSize() {
+    public int getWindowSize() {
         return this.windowSize;
     }
 
@@ -203,10 +223,17 @@ public class SlidingWindow<T> implements Serializable {
      * Returns the element's size at position <code>index</code>
      *
      * @param index
-     * @return {@link Integer} value
+     * @return the element's size
+     */
+    public int getSize(int index) {
+        return this.sizes[slot(index)];
+    }
+
+    /**
+     * @return the number of elements in the window
      */
-    public Integer getSize(Integer index) {
-        return this.elements.get(index).getSize();
+    public int size() {
+        return this.count;
     }
 
     /**
@@ -216,85 +243,75 @@ public class SlidingWindow<T> implements Serializable {
      * <code>false</code> if at least one element in the window is active.
      */
     public boolean isEmpty() {
-        return this.elements.isEmpty();
+        return this.count == 0;
     }
 
-    /**
-     * Removes elements, that crossed the border and therefore are out dated.
-     */
-    private void refreshWindow() {
-
-        while (!this.elements.isEmpty() && this.elements.getLast().getTimeToLive() < 0) {
-            elements.removeLast();
+    private void append(T element, int timeToLive, int size) {
+        if (this.count == this.elements.length) {
+            grow();
         }
+
+        int slot = (this.oldest + this.count) & (this.elements.length - 1);
+        this.elements[slot] = element;
+        this.sizes[slot] = size;
+        this.expiries[slot] = this.position + timeToLive;
+        this.count++;
     }
 
     /**
-     * Internally called to decrease the elements' life time by one
+     * Doubles the capacity of the arrays, unwrapping the elements so that the oldest is at the start.
      */
-    private void shiftElementsByOne() {
-
-        for (int i = 0; i < this.elements.size(); i++) {
-            this.elements.get(i).decrementTimeToLiveByOne();
+    private void grow() {
+        int capacity = this.elements.length * 2;
+        Object[] elements = new Object[capacity];
+        int[] sizes = new int[capacity];
+        long[] expiries = new long[capacity];
+
+        for (int i = 0; i < this.count; i++) {
+            int from = (this.oldest + i) & (this.elements.length - 1);
+            elements[i] = this.elements[from];
+            sizes[i] = this.sizes[from];
+            expiries[i] = this.expiries[from];
         }
+
+        this.elements = elements;
+        this.sizes = sizes;
+        this.expiries = expiries;
+        this.oldest = 0;
     }
 
     /**
-     * Internally called to decrease the elements' life time by a given number.
-     *
-     * @param positions
+     * Removes elements, that crossed the border and therefore are out dated.
      */
-    private void shiftElements(Integer positions) {
+    private void refreshWindow() {
 
-        for (int i = 0; i < this.elements.size(); i++) {
-            this.elements.get(i).decrementTimeToLive(positions);
+        while (this.count > 0 && this.expiries[this.oldest] - this.position < 0) {
+            this.elements[this.oldest] = null;
+            this.oldest = (this.oldest + 1) & (this.elements.length - 1);
+            this.count--;
         }
     }
 
     /**
-     * Wrapper class that contains the elements and their life times.
-     *
-     * @param <E>
+     * @return the index in the arrays of the element at <code>index</code>, counting from the newest
      */
-
-    private class Element<E> implements Serializable {
-        /**
-         *
-         */
-        private static final long serialVersionUID = 3908165358308721662L;
-        private Integer timeToLive;
-        private Integer size;
-        private E element;
-
-        Element(E element, Integer timeToLive, Integer size) {
-            this.element = element;
-            this.timeToLive = timeToLive;
-            this.size = size;
-        }
-
-        void decrementTimeToLive(Integer amount) {
-            this.timeToLive -= amount;
-        }
-
-        void decrementTimeToLiveByOne() {
-            this.timeToLive--;
-        }
-
-        Integer getTimeToLive() {
-            return this.timeToLive;
-        }
-
-        E getElement() {
-            return this.element;
-        }
-
-        public Integer getSize() {
-            return size;
+    private int slot(int index) {
+        if (index < 0 || index >= this.count) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + this.count);
         }
+        return (this.oldest + this.count - 1 - index) & (this.elements.length - 1);
+    }
 
-        @Override
-        public String toString() {
-            return "[ TTL: " + this.timeToLive + ", size: " + this.size + ", element: " + this.element + " ]";
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("[");
+        for (int i = 0; i < this.count; i++) {
+            if (i > 0) {
+                sb.append(", ");
+            }
+            sb.append("[ TTL: ").append(getLifeTime(i)).append(", size: ").append(getSize(i))
+                .append(", element: ").append(get(i)).append(" ]");
         }
+        return sb.append("]").toString();
     }
 }
@@ -0,0 +1,263 @@
+/**
+ * Copyright 2017 Pivotal Software, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.micrometer.core.instrument.stats.quantile;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A thread-safe variant of {@link Frugal2UQuantiles} for timers and distribution summaries recorded to from many
+ * threads at once. Each thread records to one of several stripes, each holding a complete set of Frugal2U estimators,
+ * and the estimates of all stripes are combined into one at read time, weighted by the number of observations each
+ * stripe has seen. Memory remains a small constant: three words per quantile per stripe.
+ * <p>
+ * The state of every stripe is kept in a single {@link AtomicLongArray}, with each stripe starting on its own cache
+ * line and padding at both ends of the array, so threads recording to different stripes never write to the same cache
+ * line. A stripe is guarded by a spin lock in its first word; a thread that finds its stripe locked moves on to the next
+ * one rather than waiting. Random numbers come from {@link ThreadLocalRandom} so that no shared generator is contended.
+ *
+ * @author Jon Schneider
+ */
+public class StripedFrugal2UQuantiles implements Quantiles {
+    /**
+     * The number of longs in a 64 byte cache line.
+     */
+    private static final int LINE = 8;
+
+    private static final int LOCK = 0;
+    private static final int COUNT = 1;
+    private static final int HEADER = 2;
+
+    private static final int ESTIMATE = 0;
+    private static final int STEP = 1;
+    private static final int SIGN = 2;
+    private static final int FIELDS = 3;
+
+    private final double[] quantiles;
+    private final double[] initialEstimates;
+    private final Collection<Double> registered;
+
+    private final AtomicLongArray cells;
+    private final int stripeCount;
+    private final int stripeWidth;
+
+    StripedFrugal2UQuantiles(double[] quantiles, double[] initialEstimates, int stripes) {
+        this.quantiles = quantiles;
+        this.initialEstimates = initialEstimates;
+
+        registered = new ArrayList<>();
+        for (double quantile : quantiles) {
+            registered.add(quantile);
+        }
+
+        this.stripeCount = stripes <= 1 ? 1 : Integer.highestOneBit(stripes - 1) << 1;
+
+        // round each stripe up to a whole number of cache lines
+        this.stripeWidth = ((HEADER + FIELDS * quantiles.length + LINE - 1) / LINE) * LINE;
+        this.cells = new AtomicLongArray(LINE + stripeCount * stripeWidth + LINE);
+
+        for (int s = 0; s < stripeCount; s++) {
+            for (int i = 0; i < quantiles.length; i++) {
+                int base = quantileBase(s, i);
+                cells.set(base + ESTIMATE, Double.doubleToRawLongBits(initialEstimates[i]));
+                cells.set(base + STEP, 1);
+            }
+        }
+    }
+
+    @Override
+    public void observe(double value) {
+        int s = stripeIndex();
+        for (int attempts = 1; !cells.compareAndSet(stripeBase(s) + LOCK, 0, 1); attempts++) {
+            // another thread is recording to this stripe, try the next one
+            s = (s + 1) & (stripeCount - 1);
+            if (attempts % stripeCount == 0) {
+                Thread.yield();
+            }
+        }
+
+        try {
+            int stripe = stripeBase(s);
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            for (int i = 0; i < quantiles.length; i++) {
+                insert(quantileBase(s, i), quantiles[i], value, random.nextDouble());
+            }
+            cells.lazySet(stripe + COUNT, cells.get(stripe + COUNT) + 1);
+        } finally {
+            cells.set(stripeBase(s) + LOCK, 0);
+        }
+    }
+
+    /**
+     * The Frugal2U update of one estimator, as in {@link Frugal2UQuantiles}. Must be called while holding the lock of
+     * the estimator's stripe.
+     */
+    private void insert(int base, double q, double s, double rnd) {
+        double m = Double.longBitsToDouble(cells.get(base + ESTIMATE));
+        long step = cells.get(base + STEP);
+        long sign = cells.get(base + SIGN);
+
+        if (sign == 0) {
+            m = s;
+            sign = 1;
+        } else if (s > m && rnd > 1 - q) {
+            step += sign;
+
+            if (step > 0) {
+                m += step;
+            } else {
+                m += 1;
+            }
+
+            if (m > s) {
+                step += (long) (s - m);
+                m = s;
+            }
+
+            if (sign < 0 && step > 1) {
+                step = 1;
+            }
+
+            sign = 1;
+        } else if (s < m && rnd > q) {
+            step += -sign;
+
+            if (step > 0) {
+                m -= step;
+            } else {
+                m--;
+            }
+
+            if (m < s) {
+                step += (long) (m - s);
+                m = s;
+            }
+
+            if (sign > 0 && step > 1) {
+                step = 1;
+            }
+
+            sign = -1;
+        } else {
+            return;
+        }
+
+        cells.lazySet(base + ESTIMATE, Double.doubleToRawLongBits(m));
+        cells.lazySet(base + STEP, step);
+        cells.lazySet(base + SIGN, sign);
+    }
+
+    @Override
+    public Double get(double q) {
+        for (int i = 0; i < quantiles.length; i++) {
+            if (quantiles[i] == q) {
+                return estimate(i);
+            }
+        }
+        return 0.0;
+    }
+
+    @Override
+    public double[] getMonitored(double[] values) {
+        double[] result = values != null && values.length >= quantiles.length ? values : new double[quantiles.length];
+        for (int i = 0; i < quantiles.length; i++) {
+            result[i] = estimate(i);
+        }
+        return result;
+    }
+
+    @Override
+    public Collection<Double> monitored() {
+        return registered;
+    }
+
+    /**
+     * The mean of every stripe's estimate of a quantile, weighted by the number of observations each stripe has seen.
+     */
+    private double estimate(int quantile) {
+        double weightedSum = 0;
+        long total = 0;
+
+        for (int s = 0; s < stripeCount; s++) {
+            int stripe = stripeBase(s);
+            while (!cells.compareAndSet(stripe + LOCK, 0, 1)) {
+                Thread.yield();
+            }
+            try {
+                long count = cells.get(stripe + COUNT);
+                if (count > 0) {
+                    weightedSum += count * Double.longBitsToDouble(cells.get(quantileBase(s, quantile) + ESTIMATE));
+                    total += count;
+                }
+            } finally {
+                cells.set(stripe + LOCK, 0);
+            }
+        }
+
+        return total == 0 ? initialEstimates[quantile] : weightedSum / total;
+    }
+
+    private int stripeBase(int stripe) {
+        return LINE + stripe * stripeWidth;
+    }
+
+    private int quantileBase(int stripe, int quantile) {
+        return stripeBase(stripe) + HEADER + quantile * FIELDS;
+    }
+
+    private int stripeIndex() {
+        long id = Thread.currentThread().getId();
+        return (int) ((id * 0x9E3779B97F4A7C15L) >>> 40) & (stripeCount - 1);
+    }
+
+    public static Builder quantile(double quantile, double estimate) {
+        return new Builder().quantile(quantile, estimate);
+    }
+
+    public static class Builder {
+        private final List<Double> quantiles = new ArrayList<>();
+        private final List<Double> estimates = new ArrayList<>();
+        private int stripes = Runtime.getRuntime().availableProcessors();
+
+        public Builder quantile(double quantile, double estimate) {
+            quantiles.add(quantile);
+            estimates.add(estimate);
+            return this;
+        }
+
+        /**
+         * @param stripes The number of sets of estimators that concurrent observations are spread across, rounded up
+         *                to a power of two. Defaults to the number of available processors.
+         */
+        public Builder stripes(int stripes) {
+            this.stripes = stripes;
+            return this;
+        }
+
+        public StripedFrugal2UQuantiles create() {
+            double[] q = new double[quantiles.size()];
+            double[] e = new double[estimates.size()];
+            for (int i = 0; i < q.length; i++) {
+                q[i] = quantiles.get(i);
+                e[i] = estimates.get(i);
+            }
+            return new StripedFrugal2UQuantiles(q, e, stripes);
+        }
+    }
+}
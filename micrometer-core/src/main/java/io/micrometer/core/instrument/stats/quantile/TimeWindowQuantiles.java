@@ -0,0 +1,255 @@
+/**
+ * Copyright 2017 Pivotal Software, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.micrometer.core.instrument.stats.quantile;
+
+import io.micrometer.core.instrument.Clock;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * Estimates quantiles over the observations of a recent period of time, such as the last ten minutes, rather than over
+ * the life of the process or a fixed number of observations. The period is the same no matter how busy the instrumented
+ * code is, so a summary reflects the same span of traffic on an endpoint serving thousands of requests a second as on
+ * one serving a few an hour.
+ * <p>
+ * The period is divided into a ring of age buckets, each holding a {@link PrimitiveGKQuantiles} sketch of the
+ * observations made while it was current. As the clock's wall time passes into the next age bucket, the oldest sketch
+ * is cleared and reused. A query merges the summaries of all live sketches, so it covers between
+ * {@code maxAge - maxAge / ageBuckets} and {@code maxAge} worth of observations. More age buckets make the covered
+ * period more precise at the cost of memory.
+ * <p>
+ * Each sketch is built with half the requested error so that the merged estimate stays within about
+ * {@code epsilon * n} ranks of the true quantile of the {@code n} observations in the window.
+ *
+ * @author Jon Schneider
+ */
+public class TimeWindowQuantiles implements Quantiles {
+    private final Collection<Double> monitored;
+    private final Clock clock;
+    private final long durationBetweenRotatesMillis;
+
+    private final PrimitiveGKQuantiles[] ring;
+
+    /**
+     * The rotation in which each sketch of the ring was last current.
+     */
+    private final long[] rotations;
+
+    private double[] mergedValues = new double[0];
+    private long[] mergedWeights = new long[0];
+    private double[] scratchValues = new double[0];
+    private long[] scratchWeights = new long[0];
+    private int mergedSize;
+    private long mergedCount;
+    private boolean mergedValid;
+    private long mergedRotation = -1;
+
+    public TimeWindowQuantiles(Collection<Double> monitored, double epsilon, Clock clock, Duration maxAge, int ageBuckets) {
+        if (ageBuckets < 1) {
+            throw new IllegalArgumentException("There must be at least one age bucket.");
+        }
+        if (maxAge.toMillis() < ageBuckets) {
+            throw new IllegalArgumentException("The maximum age must be at least one millisecond per age bucket.");
+        }
+
+        this.monitored = monitored;
+        this.clock = clock;
+        this.durationBetweenRotatesMillis = maxAge.toMillis() / ageBuckets;
+        this.ring = new PrimitiveGKQuantiles[ageBuckets];
+        this.rotations = new long[ageBuckets];
+
+        for (int i = 0; i < ageBuckets; i++) {
+            ring[i] = new PrimitiveGKQuantiles(monitored, epsilon / 2);
+            rotations[i] = Long.MIN_VALUE;
+        }
+    }
+
+    @Override
+    public synchronized void observe(double value) {
+        long rotation = clock.wallTime() / durationBetweenRotatesMillis;
+        int i = (int) (rotation % ring.length);
+        if (rotations[i] != rotation) {
+            ring[i].clear();
+            rotations[i] = rotation;
+        }
+        ring[i].observe(value);
+        mergedValid = false;
+    }
+
+    @Override
+    public synchronized Double get(double q) {
+        if (q < 0 || q > 1) {
+            return Double.NaN;
+        }
+
+        long rotation = clock.wallTime() / durationBetweenRotatesMillis;
+        if (!mergedValid || mergedRotation != rotation) {
+            merge(rotation);
+        }
+
+        if (mergedSize == 0) {
+            return Double.NaN;
+        }
+
+        double rank = q * mergedCount;
+        long cumulative = 0;
+        for (int i = 0; i < mergedSize; i++) {
+            cumulative += mergedWeights[i];
+            if (cumulative >= rank) {
+                return mergedValues[i];
+            }
+        }
+        return mergedValues[mergedSize - 1];
+    }
+
+    /**
+     * Evaluates every monitored quantile against the same summary.
+     */
+    @Override
+    public synchronized double[] getMonitored(double[] values) {
+        return Quantiles.super.getMonitored(values);
+    }
+
+    @Override
+    public Collection<Double> monitored() {
+        return monitored;
+    }
+
+    /**
+     * Merge the summaries of every sketch that is still within the window, two at a time, into one array of values
+     * in ascending order along with the number of observations each stands for.
+     */
+    private void merge(long rotation) {
+        mergedSize = 0;
+        mergedCount = 0;
+
+        for (int r = 0; r < ring.length; r++) {
+            if (rotations[r] <= rotation - ring.length || rotations[r] > rotation) {
+                continue;
+            }
+
+            PrimitiveGKQuantiles sketch = ring[r];
+            int sketchSize = sketch.size();
+            if (sketchSize == 0) {
+                continue;
+            }
+
+            int total = mergedSize + sketchSize;
+            if (scratchValues.length < total * 2) {
+                scratchValues = Arrays.copyOf(scratchValues, total * 2);
+                scratchWeights = Arrays.copyOf(scratchWeights, total * 2);
+            }
+
+            // the sketch's summary goes at the end of the scratch arrays, and the merge is written from the start
+            int sketchEnd = sketch.copyTo(scratchValues, scratchWeights, total);
+
+            int a = 0;
+            int b = total;
+            int w = 0;
+            while (a < mergedSize && b < sketchEnd) {
+                if (mergedValues[a] <= scratchValues[b]) {
+                    scratchValues[w] = mergedValues[a];
+                    scratchWeights[w++] = mergedWeights[a++];
+                } else {
+                    scratchValues[w] = scratchValues[b];
+                    scratchWeights[w++] = scratchWeights[b++];
+                }
+            }
+            while (a < mergedSize) {
+                scratchValues[w] = mergedValues[a];
+                scratchWeights[w++] = mergedWeights[a++];
+            }
+            while (b < sketchEnd) {
+                scratchValues[w] = scratchValues[b];
+                scratchWeights[w++] = scratchWeights[b++];
+            }
+
+            double[] values = mergedValues;
+            long[] weights = mergedWeights;
+            mergedValues = scratchValues;
+            mergedWeights = scratchWeights;
+            scratchValues = values;
+            scratchWeights = weights;
+
+            mergedSize = total;
+            mergedCount += sketch.getCount();
+        }
+
+        mergedValid = true;
+        mergedRotation = rotation;
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getCanonicalName() + " { ageBuckets=" + ring.length +
+            ", durationBetweenRotatesMillis=" + durationBetweenRotatesMillis + " }";
+    }
+
+    public static Builder quantiles(double... quantiles) {
+        return new Builder().quantiles(quantiles);
+    }
+
+    public static class Builder {
+        private Collection<Double> monitored = new ArrayList<>();
+        private double error = 0.01;
+        private Clock clock = Clock.SYSTEM;
+        private Duration maxAge = Duration.ofMinutes(10);
+        private int ageBuckets = 5;
+
+        public Builder quantiles(double... quantiles) {
+            for (double quantile : quantiles) {
+                monitored.add(quantile);
+            }
+            return this;
+        }
+
+        public Builder error(double epsilon) {
+            this.error = epsilon;
+            return this;
+        }
+
+        /**
+         * @param clock The clock whose wall time determines when age buckets rotate, typically the registry's clock.
+         */
+        public Builder clock(Clock clock) {
+            this.clock = clock;
+            return this;
+        }
+
+        /**
+         * @param maxAge The period of time that observations are kept for.
+         */
+        public Builder maxAge(Duration maxAge) {
+            this.maxAge = maxAge;
+            return this;
+        }
+
+        /**
+         * @param ageBuckets The number of sketches the period is divided into.
+         */
+        public Builder ageBuckets(int ageBuckets) {
+            this.ageBuckets = ageBuckets;
+            return this;
+        }
+
+        public TimeWindowQuantiles create() {
+            return new TimeWindowQuantiles(monitored, error, clock, maxAge, ageBuckets);
+        }
+    }
+}
@@ -15,8 +15,9 @@
  */
 package io.micrometer.core.instrument.stats.quantile;
 
-import java.io.Serializable;
-import java.util.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 
 /**
  * Modified from https://github.com/mayconbordin/streaminer#quantiles
@@ -28,34 +29,58 @@ import java.util.*;
  * The fixed size window (please refer to {@link #setWindowSize(int)} to change the default value)
  * of a stream gets copied L times, which generated L &lt;it&gt;levels&lt;/it&gt;. At one level the stream gets
  * partitioned into equal sized blocks. Each level has a block size of it's own. <br>
- * At each block runs an instance of {@link CKMSQuantiles}. To query a quantile, the blocks are used to
+ * At each block runs an instance of {@link PrimitiveGKQuantiles}. To query a quantile, the blocks are used to
  * reassemble the window, choosing disjoint blocks of different level, starting with big blocks and
  * filling the remaining spaces using smaller sized blocks.<br>
+ * Until the first window has been observed, quantiles are answered by a {@link GKQuantiles} over every
+ * observation instead.
+ * <p>
+ * Block summaries are kept in a {@link SlidingWindow} per level, which slides in constant time, and the weighted
+ * summary of the whole window is cached between observations, so repeated queries for several quantiles only assemble
+ * it once.
  *
  * @author Markus Kokott
  * @author Jon Schneider
  */
 public class WindowSketchQuantiles implements Quantiles {
+    private static final int DEFAULT_WINDOW_SIZE = 32768;
+
     /**
      * This implementation, unlike others, monitors all potential quantiles equally, but
      * we need somewhere to store the state of what we INTEND to ask later of it
      */
-    private Collection<Double> monitored;
+    private final Collection<Double> monitored;
+
+    /**
+     * The error bound requested by the user, used for the estimator covering the first window.
+     */
+    private final double requestedEpsilon;
 
-    private static final long serialVersionUID = 8629450116663341157L;
-    private Long elementCount;
+    /**
+     * This value specifies the error bound, rounded to the next smaller power of two.
+     */
+    private final double epsilon;
+
+    private long elementCount;
     private int windowSize;
     private int maxLevel;
 
     private GKQuantiles initialGK;
 
-    private LinkedList<Block> levels = new LinkedList<Block>();
-    private LinkedList<SlidingWindow<Quantiles>> quantiles;
+    /**
+     * One block under construction and one sliding window of completed block summaries per level,
+     * in increasing order of block size.
+     */
+    private Level[] levels;
 
     /**
-     * This value specifies the error bound.
+     * The sorted, weighted summary of the window, valid until the next observation.
      */
-    private double epsilon;
+    private double[] summaryValues = new double[0];
+    private long[] summaryWeights = new long[0];
+    private int summarySize;
+    private long summaryTotalWeight;
+    private boolean summaryValid;
 
     /**
      * @param epsilon <code>double</code> that represents the error bound.
@@ -67,40 +92,54 @@ public class WindowSketchQuantiles implements Quantiles {
             throw new RuntimeException("An appropriate epsilon value must lay between 0 and 1.");
         }
 
-        initialGK = new GKQuantiles(monitored, epsilon);
-
-        this.quantiles = new LinkedList<>();
-        this.elementCount = 0L;
-        this.setWindowSize(32768);
-
-        Double value = 1 / epsilon;
-        this.epsilon = 1 / PowerOfTwo.floorToNext(value);
+        this.requestedEpsilon = epsilon;
+        this.epsilon = 1 / PowerOfTwo.floorToNext(1 / epsilon);
+        this.windowSize = DEFAULT_WINDOW_SIZE;
 
         this.prepareLevels();
     }
 
     @Override
-    public void observe(double value) {
-        this.incrementCount();
+    public synchronized void observe(double value) {
+        this.elementCount++;
         this.insertElement(value);
 
         if (this.elementCount < this.windowSize) {
             this.initialGK.observe(value);
         }
 
-        this.slideWindow();
+        this.summaryValid = false;
     }
 
     @Override
-    public Double get(double q) {
+    public synchronized Double get(double q) {
         if (this.elementCount < this.windowSize) {
             return this.initialGK.get(q);
         }
 
-        LinkedList<Double> summary = this.getFinalSummary();
+        if (!summaryValid) {
+            computeFinalSummary();
+            summaryValid = true;
+        }
+
+        // the value at position (q * total) of the summary, had each value been repeated by its weight
+        long rank = Math.min((long) (q * summaryTotalWeight), summaryTotalWeight - 1);
+        long cumulativeWeight = 0;
+        for (int i = 0; i < summarySize; i++) {
+            cumulativeWeight += summaryWeights[i];
+            if (cumulativeWeight > rank) {
+                return summaryValues[i];
+            }
+        }
+        return summaryValues[summarySize - 1];
+    }
 
-        Double rank = q * summary.size();
-        return summary.get(rank.intValue());
+    /**
+     * Evaluates every monitored quantile against the same summary.
+     */
+    @Override
+    public synchronized double[] getMonitored(double[] values) {
+        return Quantiles.super.getMonitored(values);
     }
 
     @Override
@@ -113,53 +152,25 @@ public class WindowSketchQuantiles implements Quantiles {
      * be filled with new arriving elements. The blocks are stored in increasing order.
      */
     private void prepareLevels() {
-        this.computeMaximumLevel();
+        this.elementCount = 0;
+        this.summaryValid = false;
+        this.initialGK = new GKQuantiles(monitored, requestedEpsilon);
 
-        Double blockSize = this.computeMinBlockSize();
-        Float levelEpsilon = this.computeEpsilonForMinLevel();
+        // the maximum level depends on epsilon
+        this.maxLevel = (int) (Math.log10(4 / epsilon) / Math.log10(2));
 
+        double blockSize = (this.epsilon * this.windowSize) / 4;
+        float levelEpsilon = (float) ((this.epsilon * Math.pow(2, this.maxLevel)) / (2 * (2 * this.maxLevel + 2)));
+
+        this.levels = new Level[this.maxLevel + 1];
         for (int i = 0; i < this.maxLevel + 1; i++) {
-            Block newBlock = new Block(levelEpsilon, blockSize.intValue());
-            levels.addLast(newBlock);
+            // small windows with a fine error bound would otherwise have empty blocks at the lowest levels
+            levels[i] = new Level(levelEpsilon, Math.max(1, (int) blockSize), this.windowSize, computeWeight(levelEpsilon));
             blockSize *= 2;
             levelEpsilon /= 2;
-
-            SlidingWindow<Quantiles> newWindow = new SlidingWindow<Quantiles>(this.windowSize);
-            this.quantiles.add(newWindow);
         }
     }
 
-    /**
-     * Computes the <code>integer</code> value of the maximum level (which depends on epsilon)
-     * and puts it into <code>maxLevel</code>.
-     */
-    private void computeMaximumLevel() {
-        Double maxLevel = Math.log10(4 / epsilon) / Math.log10(2);
-        this.maxLevel = maxLevel.intValue();
-    }
-
-    /**
-     * Computes the error bound of the smallest level.
-     *
-     * @return {@link Float} value determining the error of level zero.
-     */
-    private Float computeEpsilonForMinLevel() {
-        int divisor = 2 * (2 * this.maxLevel + 2);
-        Double epsilon = (this.epsilon * Math.pow(2, this.maxLevel)) / divisor;
-
-        return epsilon.floatValue();
-    }
-
-    /**
-     * Computes the size of blocks at level zero.
-     *
-     * @return the smallest block size represented by a {@link Double} value.
-     */
-    private Double computeMinBlockSize() {
-        Double minBlockSize = this.epsilon * this.windowSize;
-        return (minBlockSize / 4);
-    }
-
     /**
      * By default the window size is set to 32768. You can reset this size any time, but
      * please note, that this will delete the current summary. So you'll probably wish to
@@ -168,7 +179,7 @@ public class WindowSketchQuantiles implements Quantiles {
      * @param windowSize <code>int</code> value that will be ceiled to the next power of two
      *                   before reseting the window size to that value.
      */
-    public final void setWindowSize(int windowSize) {
+    public final synchronized void setWindowSize(int windowSize) {
         windowSize = PowerOfTwo.ceilToNext(windowSize);
 
         // smaller windows doesn't make any sense
@@ -176,36 +187,26 @@ public class WindowSketchQuantiles implements Quantiles {
             return;
         }
 
-        this.quantiles = new LinkedList<SlidingWindow<Quantiles>>();
-        this.elementCount = 0L;
         this.windowSize = windowSize;
-
         this.prepareLevels();
     }
 
     /**
-     * Inserts a given item into the data structure. While a {@link Block} hasn't reached its maximum size,
-     * the item will just be transfered to an instance of {@link CKMSQuantiles} managed by this {@link Block}.
-     * When the {@link Block} becomes full a summary is created and put in a {@link SlidingWindow}.
+     * Inserts a given item into the data structure. While a block hasn't reached its maximum size, the item
+     * will just be transferred to the {@link PrimitiveGKQuantiles} of the block under construction. When the block
+     * becomes full a summary is created and put in the level's sliding window, where it lives until it
+     * has slid out of the window.
      */
-    private void insertElement(Double item) {
-        for (int i = 0; i < this.maxLevel + 1; i++) {
-            this.levels.get(i).insert(item);
-
-            if (this.elementCount % this.levels.get(i).getBlockSize() == 0) {
-                Quantiles newQuantiles = new Quantiles(this.levels.get(i).getEpsilon(), this.levels.get(i).getSummary());
-                this.quantiles.get(i).add(newQuantiles, this.levels.get(i).getBlockSize());
+    private void insertElement(double item) {
+        for (Level level : levels) {
+            level.insert(item);
+            if (this.elementCount % level.blockSize == 0) {
+                level.addSummary();
             }
+            level.slide();
         }
     }
 
-    /**
-     * Increments the element count by one
-     */
-    private void incrementCount() {
-        this.elementCount++;
-    }
-
     /**
      * This method checks all blocks of each level and creates an ensemble that minimizes
      * the epsilon of this ensemble. This is done by choosing disjoint blocks with maximal size,
@@ -213,111 +214,111 @@ public class WindowSketchQuantiles implements Quantiles {
      * If this block is in the state <b>UNDER-CONSTRUCTION</b> right now, it will take the <b>
      * ACTIVE</b> block at level <code>maxLevel - 1</code> and fills the missing partitions by
      * choosing appropriate blocks at lower levels.
-     *
-     * @return {@link LinkedList} of {@link Quantiles} that contains the summary of the stream that
-     * have the smallest epsilon compared to all other possible summaries.
+     * <p>
+     * Because elements of bigger sized blocks are more important than elements of smaller sized
+     * blocks, the resulting summary is "weighted", i.e. elements of bigger sized blocks count more
+     * than elements of smaller sized blocks.
      */
-    private LinkedList<Quantiles> getStreamSummary() {
-        LinkedList<Quantiles> summary = new LinkedList<Quantiles>();
+    private void computeFinalSummary() {
+        summarySize = 0;
+        summaryTotalWeight = 0;
 
         // if the highest level contains an ACTIVE element, this element will cover the whole window
-        if (!this.quantiles.get(maxLevel).isEmpty()) {
-            summary.add(this.quantiles.get(maxLevel).getNewestElement());
-            return summary;
+        Level top = levels[maxLevel];
+        if (!top.isEmpty()) {
+            addToSummary(top, 0);
+            sortSummary();
+            return;
         }
 
         // if there is no ACTIVE element in the highest level we add the only active element of the next
         // lower level into the summary. There is at most one element active, because if there would be
         // two elements, the block in the highest level must be ACTIVE, too.
-        Quantiles bigBlock = this.quantiles.get(maxLevel - 1).getNewestElement();
+        Level big = levels[maxLevel - 1];
+        addToSummary(big, 0);
 
         // interval [ 0 ; leftBorder ] not covered yet
-        int leftBorder = this.quantiles.get(maxLevel - 1).getLifeTime(0);
+        long leftBorder = big.lifeTime(0);
         // interval [ rightBorder ; windowSize ] not covered yet
-        int rightBorder = this.quantiles.get(maxLevel - 1).getLifeTime(0) + this.quantiles.get(maxLevel - 1).getSize(0);
+        long rightBorder = big.lifeTime(0) + big.blockSize;
         // there are at most two intervals uncovered. i.e. at the beginning and at the end of the window.
-        int maxUncovered = this.quantiles.get(0).getSize(0);
+        int maxUncovered = levels[0].blockSize;
 
-        // next level
-        int level = this.maxLevel - 2;
         // covering the left uncovered interval
-        while (level >= 0 && leftBorder > maxUncovered) {
-            for (int i = this.quantiles.get(level).getAll().size() - 1; i > -1; i--) {
-                if (leftBorder > this.quantiles.get(level).getLifeTime(i)) {
-                    leftBorder = this.quantiles.get(level).getLifeTime(i);
-                    summary.addFirst(this.quantiles.get(level).get(i));
+        for (int level = this.maxLevel - 2; level >= 0 && leftBorder > maxUncovered; level--) {
+            Level l = levels[level];
+            for (int i = l.size() - 1; i > -1; i--) {
+                if (leftBorder > l.lifeTime(i)) {
+                    leftBorder = l.lifeTime(i);
+                    addToSummary(l, i);
                 }
             }
-
-            level--;
         }
 
-        summary.add(bigBlock);
-
-        // next level
-        level = this.maxLevel - 2;
         // covering the right uncovered interval
-        while (level >= 0 && rightBorder < this.windowSize - maxUncovered) {
-            for (int i = 0; i < this.quantiles.get(level).getAll().size(); i++) {
-                if (rightBorder < this.quantiles.get(level).getLifeTime(i) + this.quantiles.get(level).getSize(i)) {
-                    rightBorder = this.quantiles.get(level).getLifeTime(i) + this.quantiles.get(level).getSize(i);
-                    summary.addLast(this.quantiles.get(level).get(i));
+        for (int level = this.maxLevel - 2; level >= 0 && rightBorder < this.windowSize - maxUncovered; level--) {
+            Level l = levels[level];
+            for (int i = 0; i < l.size(); i++) {
+                if (rightBorder < l.lifeTime(i) + l.blockSize) {
+                    rightBorder = l.lifeTime(i) + l.blockSize;
+                    addToSummary(l, i);
                 }
             }
-
-            level--;
         }
 
-        return summary;
+        sortSummary();
     }
 
     /**
-     * Because elements of bigger sized blocks are more important than elements of smaller sized
-     * blocks, this method returns a "weighted" summary. I.e., elements of bigger sized blocks
-     * will appear more often in the summary than elements of smaller sized blocks.
-     *
-     * @return {@link LinkedList} of {@link Double} representing the window summary.
+     * Each value of a block's summary is weighted by the number of values in the summary and by the level of the block.
      */
-    private LinkedList<Double> getFinalSummary() {
-        LinkedList<Quantiles> summary = this.getStreamSummary();
-        LinkedList<Double> finalSummary = new LinkedList<Double>();
-
-        // for each block
-        for (Quantiles aSummary : summary) {
-            // for each quantile in the current block
-            Float weight = this.computeLevelForEpsilon(aSummary.getEpsilon());
-
-            for (int j = 0; j < aSummary.getQuantiles().size(); j++) {
-                for (int k = 0; k <= weight; k++) {
-                    finalSummary.addAll(aSummary.getQuantiles());
-                }
-            }
+    private void addToSummary(Level level, int index) {
+        double[] values = level.summary(index);
+        long weight = (long) values.length * level.weight;
+        if (weight == 0) {
+            return;
         }
 
-        Collections.sort(finalSummary);
-        return finalSummary;
+        if (summarySize + values.length > summaryValues.length) {
+            int capacity = Math.max(summarySize + values.length, summaryValues.length * 2);
+            summaryValues = Arrays.copyOf(summaryValues, capacity);
+            summaryWeights = Arrays.copyOf(summaryWeights, capacity);
+        }
+        for (double value : values) {
+            summaryValues[summarySize] = value;
+            summaryWeights[summarySize++] = weight;
+        }
+        summaryTotalWeight += weight * values.length;
     }
 
     /**
-     * Given a {@link Block}'s value of epsilon this method computes its level.
-     *
-     * @param epsilon - an error parameter
-     * @return the level at which {@link Block}s with epsilon are found.
+     * Shell sort of the summary values, carrying their weights along.
      */
-    private Float computeLevelForEpsilon(Float epsilon) {
-        Double argument = 2 * epsilon * (2 * this.maxLevel + 2) / this.epsilon;
-        Double level = this.maxLevel - Math.log(argument) / Math.log(2);
-
-        return level.floatValue();
+    private void sortSummary() {
+        for (int gap = summarySize / 2; gap > 0; gap /= 2) {
+            for (int i = gap; i < summarySize; i++) {
+                double value = summaryValues[i];
+                long weight = summaryWeights[i];
+                int j = i;
+                while (j >= gap && Double.compare(summaryValues[j - gap], value) > 0) {
+                    summaryValues[j] = summaryValues[j - gap];
+                    summaryWeights[j] = summaryWeights[j - gap];
+                    j -= gap;
+                }
+                summaryValues[j] = value;
+                summaryWeights[j] = weight;
+            }
+        }
     }
 
     /**
-     * moves the elements in the {@link SlidingWindow} one position to the end of the window.
+     * Given a block's value of epsilon this method computes its level, and from it the number of times each
+     * value in the block's summary is repeated in the summary of the window.
      */
-    private void slideWindow() {
-        for (int i = 0; i < this.maxLevel + 1; i++) {
-            this.quantiles.get(i).slideWindowByOnePosition();
-        }
+    private int computeWeight(float epsilon) {
+        double argument = 2 * epsilon * (2 * this.maxLevel + 2) / this.epsilon;
+        float level = (float) (this.maxLevel - Math.log(argument) / Math.log(2));
+        return level < 0 ? 0 : (int) Math.floor(level) + 1;
     }
 
     @Override
@@ -326,83 +327,85 @@ public class WindowSketchQuantiles implements Quantiles {
     }
 
     /**
-     * This inner class holds the {@link GKQuantiles} for a specific level.
-     * {@link Block}s of different levels vary in their block size and error bound epsilon.
+     * The block under construction at one level, backed by a {@link PrimitiveGKQuantiles}, along with a sliding window
+     * of the summaries of completed blocks. The window slides by one position per observed element.
      */
-    public class Block implements Serializable {
-        private static final long serialVersionUID = 7802824333706107860L;
-        private Float epsilon;
-        private Integer blockSize;
+    private class Level {
+        final float epsilon;
+        final int blockSize;
+        final int weight;
 
-        private LinkedList<Double> summaryOfLastBlock;
-        private GKQuantiles quantileEstimator;
+        private final PrimitiveGKQuantiles quantileEstimator;
+        private int estimatorCount;
+        private double[] summaryOfLastBlock = new double[0];
 
-        Block(Float epsilon, Integer blockSize) {
+        private final SlidingWindow<double[]> window;
+
+        Level(float epsilon, int blockSize, int windowSize, int weight) {
             this.epsilon = epsilon;
             this.blockSize = blockSize;
-            this.quantileEstimator = new GKQuantiles(monitored, epsilon);
-            this.summaryOfLastBlock = new LinkedList<Double>();
+            this.weight = weight;
+            this.quantileEstimator = new PrimitiveGKQuantiles(monitored, epsilon);
+            this.window = new SlidingWindow<>(windowSize);
         }
 
-        void insert(Double item) {
+        void insert(double item) {
             this.quantileEstimator.observe(item);
 
-            if (Objects.equals(this.quantileEstimator.getCount(), blockSize)) {
+            if (++estimatorCount == blockSize) {
                 this.createSummary();
-                quantileEstimator = new GKQuantiles(monitored, epsilon);
+                quantileEstimator.clear();
+                estimatorCount = 0;
             }
         }
 
-        Integer getBlockSize() {
-            return this.blockSize;
-        }
-
-        LinkedList<Double> getSummary() {
-            return this.summaryOfLastBlock;
-        }
-
-        Float getEpsilon() {
-            return this.epsilon;
-        }
-
         private void createSummary() {
-            Float phi = this.epsilon;
-            LinkedList<Double> summary = new LinkedList<Double>();
+            int size = 0;
+            for (float phi = this.epsilon; phi <= 1; phi += this.epsilon) {
+                size++;
+            }
 
-            while (phi <= 1) {
-                summary.add(quantileEstimator.get(phi));
-                phi += this.epsilon;
+            double[] summary = new double[size];
+            int i = 0;
+            for (float phi = this.epsilon; phi <= 1 && i < size; phi += this.epsilon) {
+                summary[i++] = quantileEstimator.get(phi);
             }
 
             this.summaryOfLastBlock = summary;
         }
-    }
 
-    /**
-     * Just a wrapper class for a summary (i.e. {@link LinkedList} of {@link Double} representing
-     * quantiles and a {@link Float} value representing its error bound epsilon.
-     */
-    public class Quantiles implements Serializable {
-        private static final long serialVersionUID = -6060440214958903531L;
-        private Float epsilon;
-        private LinkedList<Double> quantiles = new LinkedList<Double>();
+        /**
+         * The summary covers the last blockSize elements, so it slides out of the window once the rest of the window
+         * has been observed.
+         */
+        void addSummary() {
+            window.add(summaryOfLastBlock, blockSize);
+        }
 
-        public Quantiles(Float epsilon, LinkedList<Double> quantiles) {
-            this.epsilon = epsilon;
-            this.quantiles = quantiles;
+        /**
+         * Removes summaries that crossed the border of the window and therefore are out dated.
+         */
+        void slide() {
+            window.slideWindowByOnePosition();
+        }
+
+        boolean isEmpty() {
+            return window.isEmpty();
         }
 
-        public Double getQuantile(float phi) {
-            int position = Math.round(phi * this.quantiles.size());
-            return this.quantiles.get(position);
+        int size() {
+            return window.size();
         }
 
-        public LinkedList<Double> getQuantiles() {
-            return this.quantiles;
+        double[] summary(int i) {
+            return window.get(i);
         }
 
-        Float getEpsilon() {
-            return this.epsilon;
+        /**
+         * @return The number of positions the summary at {@code i} will remain in the window.
+         */
+        long lifeTime(int i) {
+            return window.getLifeTime(i);
         }
     }
 
@@ -16,10 +16,21 @@
 package io.micrometer.core.instrument.prometheus;
 
 import io.micrometer.core.Issue;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
 import io.micrometer.core.instrument.Measurement;
 import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.MockClock;
 import io.micrometer.core.instrument.Statistic;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.stats.AsyncStatsRecorder;
+import io.micrometer.core.instrument.stats.hist.BucketCoalescer;
+import io.micrometer.core.instrument.stats.hist.CumulativeHistogram;
+import io.micrometer.core.instrument.stats.hist.Histogram;
+import io.micrometer.core.instrument.stats.hist.NormalHistogram;
+import io.micrometer.core.instrument.stats.hist.OffHeapHistogramArena;
 import io.micrometer.core.instrument.stats.quantile.GKQuantiles;
+import io.micrometer.core.instrument.stats.quantile.HistogramQuantiles;
 import io.prometheus.client.Collector;
 import io.prometheus.client.CollectorRegistry;
 import org.assertj.core.api.Condition;
@@ -27,10 +38,26 @@ import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
 
 import static java.util.Collections.emptyList;
 import static org.assertj.core.api.Assertions.assertThat;
@@ -65,6 +92,66 @@ class PrometheusMeterRegistryTest {
         assertThat(prometheusRegistry.metricFamilySamples()).has(withNameAndTagKey("ds", "quantile"));
     }
 
+    @DisplayName("quantiles derived from a histogram do not record samples into the histogram twice")
+    @Test
+    void histogramQuantiles() {
+        Histogram<Double> hist = CumulativeHistogram.buckets(CumulativeHistogram.linear(0, 10, 10));
+        DistributionSummary ds = registry.summaryBuilder("ds")
+            .histogram(hist)
+            .quantiles(HistogramQuantiles.quantiles(0.5).histogram(hist).create())
+            .create();
+
+        for (int i = 1; i <= 80; i++) {
+            ds.record(i);
+        }
+
+        assertThat(prometheusRegistry.getSampleValue("ds_bucket", new String[]{"le"}, new String[]{"+Inf"}))
+            .isEqualTo(80, offset(1e-12));
+        assertThat(prometheusRegistry.getSampleValue("ds", new String[]{"quantile"}, new String[]{"0.5"}))
+            .isEqualTo(40, offset(10.0));
+    }
+
+    @DisplayName("histogram buckets can be coalesced on export without changing the recorded histogram")
+    @Test
+    void coalescedHistogramBuckets() {
+        registry.config().histogramBucketCoalescer(BucketCoalescer.bounds(20, 40));
+
+        Histogram<Double> hist = CumulativeHistogram.buckets(CumulativeHistogram.linear(10, 10, 4));
+        DistributionSummary ds = registry.summaryBuilder("ds").histogram(hist).create();
+        ds.record(15);
+        ds.record(35);
+
+        assertThat(prometheusRegistry.getSampleValue("ds_bucket", new String[]{"le"}, new String[]{"20.0"})).isEqualTo(1.0);
+        assertThat(prometheusRegistry.getSampleValue("ds_bucket", new String[]{"le"}, new String[]{"40.0"})).isEqualTo(2.0);
+        assertThat(prometheusRegistry.getSampleValue("ds_bucket", new String[]{"le"}, new String[]{"+Inf"})).isEqualTo(2.0);
+        assertThat(prometheusRegistry.getSampleValue("ds_bucket", new String[]{"le"}, new String[]{"30.0"})).isNull();
+
+        assertThat(hist.getBuckets()).hasSize(5);
+    }
+
+    @DisplayName("quantiles and histograms can be updated on a background thread and are flushed on scrape")
+    @Test
+    void asyncStatsRecording() {
+        try (AsyncStatsRecorder recorder = AsyncStatsRecorder.builder().idleWait(1, TimeUnit.HOURS).create()) {
+            registry.config().asyncStatsRecorder(recorder);
+
+            DistributionSummary ds = registry.summaryBuilder("ds")
+                .histogram(CumulativeHistogram.buckets(CumulativeHistogram.linear(0, 10, 10)))
+                .quantiles(GKQuantiles.quantiles(0.5).create())
+                .create();
+
+            for (int i = 1; i <= 80; i++) {
+                ds.record(i);
+            }
+
+            assertThat(prometheusRegistry.getSampleValue("ds_count")).isEqualTo(80.0);
+            assertThat(prometheusRegistry.getSampleValue("ds_bucket", new String[]{"le"}, new String[]{"+Inf"}))
+                .isEqualTo(80, offset(1e-12));
+            assertThat(prometheusRegistry.getSampleValue("ds", new String[]{"quantile"}, new String[]{"0.5"}))
+                .isEqualTo(40, offset(80 * 0.05));
+        }
+    }
+
     @DisplayName("custom distribution summaries respect varying tags")
     @Issue("#27")
     @Test
@@ -77,6 +164,23 @@ class PrometheusMeterRegistryTest {
         });
     }
 
+    @DisplayName("counters and gauges sharing a name are children of one collector, labelled by tag values")
+    @Test
+    void countersAndGaugesWithVaryingTags() {
+        registry.counter("c", "k", "v1").increment();
+        registry.counter("c", "k", "v2").increment(2);
+        registry.gauge("g", Tags.zip("k", "v1"), new AtomicInteger(3));
+        registry.gauge("g", Tags.zip("k", "v2"), new AtomicInteger(4));
+
+        assertThat(prometheusRegistry.getSampleValue("c_total", new String[]{"k"}, new String[]{"v1"})).isEqualTo(1.0);
+        assertThat(prometheusRegistry.getSampleValue("c_total", new String[]{"k"}, new String[]{"v2"})).isEqualTo(2.0);
+        assertThat(prometheusRegistry.getSampleValue("g", new String[]{"k"}, new String[]{"v1"})).isEqualTo(3.0);
+        assertThat(prometheusRegistry.getSampleValue("g", new String[]{"k"}, new String[]{"v2"})).isEqualTo(4.0);
+
+        assertThrows(IllegalArgumentException.class, () -> registry.counter("c", "k", "v3", "other", "v"));
+        assertThrows(IllegalArgumentException.class, () -> registry.counter("c"));
+    }
+
     @DisplayName("custom meters can be typed")
     @Test
     void typedCustomMeters() {
@@ -112,6 +216,471 @@ class PrometheusMeterRegistryTest {
             .contains("HELP long_task_timer my long task timer");
     }
 
+    @DisplayName("scrapes streamed to an output stream, natively encoding micrometer collectors, are the UTF-8 encoding of the scrape text")
+    @Test
+    void scrapeToOutputStream() throws IOException {
+        registry.counterBuilder("counter")
+            .description("dépôt \\ of\nmany lines")
+            .tags("k", "\"quoted\" \u00e9t\u00e9 \ud83d\ude00")
+            .create()
+            .increment();
+        registry.gauge("gauge", Tags.zip("k", "\ud83d"), registry, r -> 1.0 / 3);
+        for (int i = 0; i < 1000; i++) {
+            registry.summary("summary" + i, "k", "v" + i).record(i);
+        }
+
+        DistributionSummary ds = registry.summaryBuilder("ds")
+            .quantiles(GKQuantiles.quantiles(0.5, 0.95).create())
+            .histogram(CumulativeHistogram.buckets(CumulativeHistogram.linear(0, 0.25, 10)))
+            .create();
+        for (double v : new double[]{-0.0, 0.1, 1e7, 12345678.9, 1e-4, Double.MAX_VALUE, -3}) {
+            ds.record(v);
+        }
+        registry.summaryBuilder("normal").histogram(NormalHistogram.buckets(NormalHistogram.linear(0, 1, 3))).create()
+            .record(1);
+        registry.more().longTaskTimer("ltt", "k", "v");
+        registry.register("custom", Tags.zip("k", "v"), Meter.Type.Other,
+            Arrays.asList(new Measurement(() -> 1.5, Statistic.Value), new Measurement(() -> -2e9, Statistic.Total)));
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        registry.scrape(out);
+
+        assertThat(out.toByteArray()).isEqualTo(registry.scrape().getBytes(StandardCharsets.UTF_8));
+    }
+
+    @DisplayName("scrapes are served from a cache within its TTL, counting hits and render time")
+    @Test
+    void cachedScrape() {
+        MockClock clock = new MockClock();
+        PrometheusConfig config = k -> "prometheus.scrapeCacheTtl".equals(k) ? "PT10S" : null;
+        PrometheusMeterRegistry registry = new PrometheusMeterRegistry(config, new CollectorRegistry(), clock);
+
+        Counter counter = registry.counter("c");
+        counter.increment();
+        assertThat(registry.scrape()).contains("c_total 1.0");
+
+        counter.increment();
+        clock.addAndGet(5, TimeUnit.SECONDS);
+        assertThat(registry.scrape()).contains("c_total 1.0");
+        assertThat(registry.counter("prometheus.scrape.cache.hits").count()).isEqualTo(1.0);
+
+        clock.addAndGet(5, TimeUnit.SECONDS);
+        assertThat(registry.scrape()).contains("c_total 2.0");
+        assertThat(registry.timer("prometheus.scrape.render").count()).isEqualTo(2);
+    }
+
+    @DisplayName("concurrent scrapes coalesce onto a single render")
+    @Test
+    void coalescedScrapes() throws Exception {
+        PrometheusConfig config = k -> "prometheus.scrapeCacheTtl".equals(k) ? "PT1M" : null;
+        PrometheusMeterRegistry registry = new PrometheusMeterRegistry(config, new CollectorRegistry(), new MockClock());
+
+        CountDownLatch rendering = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger renders = new AtomicInteger();
+        registry.gauge("slow", renders, r -> {
+            rendering.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+            return r.incrementAndGet();
+        });
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<String>> scrapes = new ArrayList<>();
+            scrapes.add(executor.submit(() -> registry.scrape()));
+            rendering.await();
+            for (int i = 0; i < 3; i++) {
+                scrapes.add(executor.submit(() -> registry.scrape()));
+            }
+            Thread.sleep(100);
+            release.countDown();
+
+            for (Future<String> scrape : scrapes) {
+                assertThat(scrape.get()).contains("slow 1.0");
+            }
+            assertThat(renders.get()).isEqualTo(1);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @DisplayName("gzip-compressed scrapes decompress to the scrape text")
+    @Test
+    void gzipScrape() throws IOException {
+        for (int i = 0; i < 1000; i++) {
+            registry.counter("counter" + i, "k", "v" + i).increment(i);
+        }
+
+        for (int scrape = 0; scrape < 2; scrape++) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            registry.scrape(out, PrometheusScrapeFormat.TEXT, true);
+
+            ByteArrayOutputStream decompressed = new ByteArrayOutputStream();
+            try (GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(out.toByteArray()))) {
+                byte[] buffer = new byte[4096];
+                for (int n = in.read(buffer); n != -1; n = in.read(buffer)) {
+                    decompressed.write(buffer, 0, n);
+                }
+            }
+
+            assertThat(new String(decompressed.toByteArray(), StandardCharsets.UTF_8)).isEqualTo(registry.scrape());
+            assertThat(out.size()).isLessThan(decompressed.size() / 4);
+        }
+    }
+
+    @DisplayName("protobuf scrapes are length-delimited metric families")
+    @Test
+    void protobufScrape() throws IOException {
+        registry.counter("counter", "k", "v").increment(2);
+        DistributionSummary ds = registry.summaryBuilder("ds")
+            .tags("k", "v")
+            .quantiles(GKQuantiles.quantiles(0.5).create())
+            .create();
+        ds.record(1);
+        ds.record(3);
+        DistributionSummary hist = registry.summaryBuilder("hist")
+            .histogram(CumulativeHistogram.buckets(CumulativeHistogram.linear(0, 10, 2)))
+            .create();
+        hist.record(5);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        registry.scrape(out, PrometheusScrapeFormat.PROTOBUF, false);
+
+        ByteArrayInputStream in = new ByteArrayInputStream(out.toByteArray());
+        Map<String, Map<Integer, List<Object>>> families = new HashMap<>();
+        while (in.available() > 0) {
+            byte[] message = new byte[(int) readVarint(in)];
+            assertThat(in.read(message)).isEqualTo(message.length);
+            Map<Integer, List<Object>> family = decode(message);
+            families.put(new String((byte[]) family.get(1).get(0), StandardCharsets.UTF_8), family);
+        }
+
+        assertThat(families).containsOnlyKeys("counter_total", "ds", "hist");
+
+        Map<Integer, List<Object>> counter = families.get("counter_total");
+        assertThat(counter.get(3)).containsExactly(0L);
+        Map<Integer, List<Object>> counterMetric = decode((byte[]) counter.get(4).get(0));
+        Map<Integer, List<Object>> label = decode((byte[]) counterMetric.get(1).get(0));
+        assertThat(new String((byte[]) label.get(1).get(0), StandardCharsets.UTF_8)).isEqualTo("k");
+        assertThat(new String((byte[]) label.get(2).get(0), StandardCharsets.UTF_8)).isEqualTo("v");
+        assertThat(decode((byte[]) counterMetric.get(3).get(0)).get(1)).containsExactly(2.0);
+
+        Map<Integer, List<Object>> dsFamily = families.get("ds");
+        assertThat(dsFamily.get(3)).containsExactly(2L);
+        assertThat(dsFamily.get(4)).hasSize(1);
+        Map<Integer, List<Object>> summary = decode((byte[]) decode((byte[]) dsFamily.get(4).get(0)).get(4).get(0));
+        assertThat(summary.get(1)).containsExactly(2L);
+        assertThat(summary.get(2)).containsExactly(4.0);
+        assertThat(decode((byte[]) summary.get(3).get(0)).get(1)).containsExactly(0.5);
+
+        Map<Integer, List<Object>> histogram = decode((byte[]) decode((byte[]) families.get("hist").get(4).get(0)).get(7).get(0));
+        assertThat(histogram.get(1)).containsExactly(1L);
+        assertThat(histogram.get(3)).hasSize(3);
+        Map<Integer, List<Object>> infBucket = decode((byte[]) histogram.get(3).get(2));
+        assertThat(infBucket.get(1)).containsExactly(1L);
+        assertThat(infBucket.get(2)).containsExactly(Double.POSITIVE_INFINITY);
+    }
+
+    @DisplayName("scrape formats and compression are negotiated from request headers")
+    @Test
+    void negotiation() {
+        assertThat(PrometheusScrapeFormat.fromAccept(null)).isEqualTo(PrometheusScrapeFormat.TEXT);
+        assertThat(PrometheusScrapeFormat.fromAccept("application/vnd.google.protobuf;proto=io.prometheus.client.MetricFamily;" +
+            "encoding=delimited;q=0.7,text/plain;version=0.0.4;q=0.3,*/*;q=0.1")).isEqualTo(PrometheusScrapeFormat.PROTOBUF);
+        assertThat(PrometheusScrapeFormat.fromAccept("application/vnd.google.protobuf;proto=io.prometheus.client.MetricFamily;" +
+            "encoding=text;q=0.7,text/plain;version=0.0.4;q=0.3")).isEqualTo(PrometheusScrapeFormat.TEXT);
+        assertThat(PrometheusScrapeFormat.fromAccept("text/plain")).isEqualTo(PrometheusScrapeFormat.TEXT);
+        assertThat(PrometheusScrapeFormat.fromAccept("application/openmetrics-text;version=1.0.0,text/plain;version=0.0.4;q=0.5,*/*;q=0.1"))
+            .isEqualTo(PrometheusScrapeFormat.OPENMETRICS);
+        assertThat(PrometheusScrapeFormat.fromAccept("application/openmetrics-text;q=0.3,text/plain;q=0.5"))
+            .isEqualTo(PrometheusScrapeFormat.TEXT);
+
+        assertThat(PrometheusMeterRegistry.acceptsGzip(null)).isFalse();
+        assertThat(PrometheusMeterRegistry.acceptsGzip("deflate, gzip")).isTrue();
+        assertThat(PrometheusMeterRegistry.acceptsGzip("gzip;q=0")).isFalse();
+        assertThat(PrometheusMeterRegistry.acceptsGzip("identity")).isFalse();
+    }
+
+    @DisplayName("OpenMetrics scrapes name counter families without _total, and end with an EOF marker")
+    @Test
+    void openMetricsScrape() {
+        registry.counterBuilder("counter").tags("k", "v").description("my \"counter\"").create().increment(2);
+        registry.gauge("gauge", new AtomicInteger(3));
+        registry.more().longTaskTimer("ltt");
+
+        assertThat(openMetricsScrape(registry))
+            .contains("# TYPE counter counter\n# HELP counter my \\\"counter\\\"\ncounter_total{k=\"v\"} 2.0\n")
+            .contains("# TYPE gauge gauge\ngauge 3.0\n")
+            .contains("# TYPE ltt unknown\n")
+            .endsWith("# EOF\n");
+    }
+
+    @DisplayName("OpenMetrics scrapes carry the latest sampled exemplar of counters and histogram buckets")
+    @Test
+    void exemplars() {
+        MockClock clock = new MockClock();
+        clock.addAndGet(1234, TimeUnit.MILLISECONDS);
+        AtomicInteger trace = new AtomicInteger();
+        PrometheusMeterRegistry registry = new PrometheusMeterRegistry(PrometheusConfig.DEFAULT, new CollectorRegistry(), clock,
+            value -> value == 7 ? null : Tags.zip("trace_id", Integer.toString(trace.incrementAndGet())));
+
+        Counter counter = registry.counter("requests", "k", "v");
+        counter.increment();
+        counter.increment(3);
+        registry.counter("unsampled").increment(7);
+
+        DistributionSummary hist = registry.summaryBuilder("hist")
+            .histogram(CumulativeHistogram.buckets(CumulativeHistogram.linear(0, 10, 2)))
+            .create();
+        hist.record(5);
+        hist.record(10);
+        hist.record(15);
+        hist.record(7);
+
+        assertThat(openMetricsScrape(registry))
+            .contains("requests_total{k=\"v\"} 4.0 # {trace_id=\"2\"} 3.0 1.234\n")
+            .contains("unsampled_total 7.0\n")
+            .contains("hist_bucket{le=\"0.0\"} 0.0\n")
+            .contains("hist_bucket{le=\"10.0\"} 3.0 # {trace_id=\"4\"} 10.0 1.234\n")
+            .contains("hist_bucket{le=\"+Inf\"} 4.0 # {trace_id=\"5\"} 15.0 1.234\n");
+
+        // exemplars aren't part of the text format 0.0.4
+        assertThat(registry.scrape()).doesNotContain("trace_id");
+
+        registry.config().histogramBucketCoalescer(BucketCoalescer.bounds(Double.POSITIVE_INFINITY));
+        assertThat(openMetricsScrape(registry))
+            .contains("hist_bucket{le=\"+Inf\"} 4.0 # {trace_id=\"5\"} 15.0 1.234\n");
+    }
+
+    @DisplayName("OpenMetrics scrapes write quantiles collected alongside cumulative buckets as a separate summary")
+    @Test
+    void openMetricsHistogramWithQuantiles() {
+        registry.summaryBuilder("ds")
+            .quantiles(GKQuantiles.quantiles(0.5).create())
+            .histogram(CumulativeHistogram.buckets(CumulativeHistogram.linear(0, 10, 2)))
+            .create()
+            .record(5);
+
+        String scrape = openMetricsScrape(registry);
+        assertThat(scrape)
+            .contains("# TYPE ds histogram\nds_bucket{le=\"0.0\"} 0.0\nds_bucket{le=\"10.0\"} 1.0\n" +
+                "ds_bucket{le=\"+Inf\"} 1.0\nds_count 1.0\nds_sum 5.0\n")
+            .contains("# TYPE ds_quantiles summary\nds_quantiles{quantile=\"0.5\"} 5.0\n");
+    }
+
+    @DisplayName("OpenMetrics scrapes do not type families of non-cumulative buckets as histograms")
+    @Test
+    void openMetricsNormalHistogram() {
+        registry.summaryBuilder("ds")
+            .quantiles(GKQuantiles.quantiles(0.5).create())
+            .histogram(NormalHistogram.buckets(NormalHistogram.linear(0, 10, 2)))
+            .create()
+            .record(5);
+
+        String scrape = openMetricsScrape(registry);
+        assertThat(scrape)
+            .doesNotContain("histogram")
+            .contains("# TYPE ds summary\nds{quantile=\"0.5\"} 5.0\nds_count 1.0\nds_sum 5.0\n")
+            .contains("# TYPE ds_bucket unknown\nds_bucket{bucket=\"10.0\"} 1.0\n");
+    }
+
+    @DisplayName("OpenMetrics scrapes keep the samples of each child of a histogram family together")
+    @Test
+    void openMetricsHistogramChildren() {
+        for (String k : new String[]{"a", "b"}) {
+            registry.summaryBuilder("ds")
+                .tags("k", k)
+                .quantiles(GKQuantiles.quantiles(0.5).create())
+                .histogram(CumulativeHistogram.buckets(CumulativeHistogram.linear(0, 10, 1)))
+                .create()
+                .record(5);
+        }
+
+        assertThat(openMetricsScrape(registry))
+            .contains("# TYPE ds histogram\n" +
+                "ds_bucket{k=\"a\",le=\"0.0\"} 0.0\nds_bucket{k=\"a\",le=\"+Inf\"} 1.0\nds_count{k=\"a\"} 1.0\nds_sum{k=\"a\"} 5.0\n" +
+                "ds_bucket{k=\"b\",le=\"0.0\"} 0.0\nds_bucket{k=\"b\",le=\"+Inf\"} 1.0\nds_count{k=\"b\"} 1.0\nds_sum{k=\"b\"} 5.0\n")
+            .contains("# TYPE ds_quantiles summary\n" +
+                "ds_quantiles{k=\"a\",quantile=\"0.5\"} 5.0\nds_quantiles{k=\"b\",quantile=\"0.5\"} 5.0\n");
+    }
+
+    @DisplayName("OpenMetrics scrapes write children without cumulative buckets entirely to the summary of a mixed family")
+    @Test
+    void openMetricsMixedHistogramFamily() {
+        registry.summaryBuilder("mixed")
+            .tags("k", "h")
+            .histogram(CumulativeHistogram.buckets(CumulativeHistogram.linear(0, 10, 1)))
+            .create()
+            .record(5);
+        registry.summaryBuilder("mixed")
+            .tags("k", "q")
+            .quantiles(GKQuantiles.quantiles(0.5).create())
+            .create()
+            .record(5);
+        registry.summaryBuilder("mixed")
+            .tags("k", "n")
+            .histogram(NormalHistogram.buckets(NormalHistogram.linear(0, 10, 1)))
+            .create()
+            .record(5);
+
+        assertThat(openMetricsScrape(registry))
+            .contains("# TYPE mixed histogram\n" +
+                "mixed_bucket{k=\"h\",le=\"0.0\"} 0.0\nmixed_bucket{k=\"h\",le=\"+Inf\"} 1.0\n" +
+                "mixed_count{k=\"h\"} 1.0\nmixed_sum{k=\"h\"} 5.0\n" +
+                "# TYPE mixed_quantiles summary\n")
+            .contains("mixed_quantiles{k=\"q\",quantile=\"0.5\"} 5.0\nmixed_quantiles_count{k=\"q\"} 1.0\nmixed_quantiles_sum{k=\"q\"} 5.0\n")
+            .contains("mixed_quantiles_count{k=\"n\"} 1.0\nmixed_quantiles_sum{k=\"n\"} 5.0\n")
+            .contains("# TYPE mixed_quantiles_bucket unknown\nmixed_quantiles_bucket{k=\"n\",bucket=\"+Inf\"} 1.0\n")
+            .doesNotContain("mixed_count{k=\"q\"}")
+            .doesNotContain("mixed_count{k=\"n\"}")
+            .doesNotContain("mixed_bucket{k=\"n\"");
+    }
+
+    private static String openMetricsScrape(PrometheusMeterRegistry registry) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            registry.scrape(out, PrometheusScrapeFormat.OPENMETRICS, false);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    @DisplayName("scrapes limited to some sample names only collect the meters that provide them")
+    @Test
+    void filteredScrape() {
+        AtomicInteger requestedEvaluations = new AtomicInteger();
+        AtomicInteger otherEvaluations = new AtomicInteger();
+        registry.gauge("requested", requestedEvaluations, AtomicInteger::incrementAndGet);
+        registry.gauge("other", otherEvaluations, AtomicInteger::incrementAndGet);
+        registry.summary("ds", "k", "v").record(1);
+        registry.more().longTaskTimer("ltt");
+
+        String scrape = registry.scrape(new HashSet<>(Arrays.asList("requested", "ds_count")));
+
+        assertThat(scrape)
+            .contains("requested 1.0")
+            .contains("ds_count{k=\"v\",} 1.0")
+            .doesNotContain("ds_sum")
+            .doesNotContain("ltt");
+        assertThat(otherEvaluations.get()).isZero();
+
+        assertThat(registry.scrape(Collections.emptySet())).contains("other 1.0", "ds_sum", "ltt");
+    }
+
+    @DisplayName("removed meters are no longer scraped, and are created anew when registered again")
+    @Test
+    void removeMeters() {
+        Counter counter = registry.counter("c", "k", "v1");
+        counter.increment();
+        Counter other = registry.counter("c", "k", "v2");
+        registry.gauge("g", Tags.zip("k", "v"), new AtomicInteger(1));
+        registry.timer("t", "k", "v").record(1, TimeUnit.SECONDS);
+        registry.summary("ds", "k", "v").record(1);
+        registry.more().longTaskTimer("ltt", "k", "v");
+        // a name that the naming convention changes
+        registry.register("my.custom", Tags.zip("k", "v"), Meter.Type.Counter,
+            Collections.singletonList(new Measurement(() -> 1.0, Statistic.Count)));
+
+        for (Meter meter : new ArrayList<>(registry.getMeters())) {
+            if (meter != other) {
+                assertThat(registry.remove(meter)).isTrue();
+            }
+        }
+        assertThat(registry.remove(counter)).isFalse();
+
+        assertThat(registry.getMeters()).containsExactly(other);
+        assertThat(registry.scrape())
+            .contains("c_total{k=\"v2\",} 0.0")
+            .doesNotContain("k=\"v\"")
+            .doesNotContain("k=\"v1\"");
+
+        Counter recreated = registry.counter("c", "k", "v1");
+        assertThat(recreated).isNotSameAs(counter);
+        assertThat(registry.scrape()).contains("c_total{k=\"v1\",} 0.0");
+
+        // removing the stale meter again leaves the one that replaced it alone
+        assertThat(registry.remove(counter)).isFalse();
+        assertThat(registry.getMeters()).contains(recreated);
+    }
+
+    @DisplayName("histograms with buckets that aren't numeric are exported at full resolution when a coalescer is configured")
+    @Test
+    void coalescingSkipsNonNumericHistograms() {
+        registry.config().histogramBucketCoalescer(BucketCoalescer.bounds(20));
+
+        registry.summaryBuilder("words").histogram(NormalHistogram.buckets(v -> v > 1 ? "big" : "small")).create().record(5);
+        registry.summaryBuilder("numbers").histogram(CumulativeHistogram.buckets(CumulativeHistogram.linear(10, 10, 4))).create().record(15);
+
+        assertThat(registry.scrape())
+            .contains("words_bucket{bucket=\"big\",} 1.0")
+            .contains("numbers_bucket{le=\"20.0\",} 1.0")
+            .doesNotContain("numbers_bucket{le=\"10.0\",}");
+        assertThat(prometheusRegistry.getSampleValue("words_bucket", new String[]{"bucket"}, new String[]{"big"})).isEqualTo(1.0);
+    }
+
+    @DisplayName("removing a meter releases the off-heap counters of its histogram")
+    @Test
+    void removeMeterReleasesOffHeapHistogram() {
+        OffHeapHistogramArena arena = new OffHeapHistogramArena(8);
+        for (int i = 0; i < 10; i++) {
+            DistributionSummary ds = registry.summaryBuilder("ds")
+                .tags("k", Integer.toString(i))
+                .histogram(CumulativeHistogram.buckets(CumulativeHistogram.linear(10, 10, 3), arena))
+                .create();
+            ds.record(15);
+            assertThat(arena.bytesUsed()).isEqualTo(4 * 8);
+            assertThat(registry.remove(ds)).isTrue();
+            assertThat(arena.bytesUsed()).isEqualTo(0);
+        }
+    }
+
+    private static long readVarint(InputStream in) throws IOException {
+        long value = 0;
+        for (int shift = 0; ; shift += 7) {
+            int b = in.read();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+    }
+
+    /**
+     * @return The fields of a protobuf message, with varints as longs, fixed64 values as doubles and
+     * length-delimited values as bytes.
+     */
+    private static Map<Integer, List<Object>> decode(byte[] message) throws IOException {
+        Map<Integer, List<Object>> fields = new HashMap<>();
+        ByteArrayInputStream in = new ByteArrayInputStream(message);
+        while (in.available() > 0) {
+            long tag = readVarint(in);
+            Object value;
+            switch ((int) (tag & 0x7)) {
+                case 0:
+                    value = readVarint(in);
+                    break;
+                case 1:
+                    long bits = 0;
+                    for (int i = 0; i < 8; i++) {
+                        bits |= (long) in.read() << (8 * i);
+                    }
+                    value = Double.longBitsToDouble(bits);
+                    break;
+                default:
+                    byte[] bytes = new byte[(int) readVarint(in)];
+                    assertThat(in.read(bytes)).isEqualTo(bytes.length);
+                    value = bytes;
+            }
+            fields.computeIfAbsent((int) (tag >>> 3), f -> new ArrayList<>()).add(value);
+        }
+        return fields;
+    }
+
     private Condition<Enumeration<Collector.MetricFamilySamples>> withNameAndTagKey(String name, String tagKey) {
         return new Condition<>(m -> {
             while (m.hasMoreElements()) {
@@ -0,0 +1,196 @@
+/**
+ * Copyright 2017 Pivotal Software, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.micrometer.core.instrument.prometheus;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import io.prometheus.client.CollectorRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Queue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class PrometheusPusherTest {
+    private final PrometheusMeterRegistry registry = new PrometheusMeterRegistry(new CollectorRegistry());
+
+    /**
+     * Requests received by the stub pushgateway.
+     */
+    private final BlockingQueue<Push> pushes = new LinkedBlockingQueue<>();
+
+    /**
+     * Statuses the stub pushgateway responds with, in order, before accepting every push.
+     */
+    private final Queue<Integer> statuses = new ConcurrentLinkedQueue<>();
+
+    private HttpServer pushgateway;
+
+    @BeforeEach
+    void start() throws IOException {
+        registry.counter("processed", "type", "invoice").increment(5);
+
+        pushgateway = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        pushgateway.createContext("/", this::handle);
+        pushgateway.start();
+    }
+
+    @AfterEach
+    void stop() {
+        pushgateway.stop(0);
+    }
+
+    @Test
+    void push() throws Exception {
+        try (PrometheusPusher pusher = builder().groupingKey("instance", "worker 1").create()) {
+            pusher.push();
+
+            Push push = pushes.poll(5, TimeUnit.SECONDS);
+            assertThat(push.method).isEqualTo("PUT");
+            assertThat(push.path).isEqualTo("/metrics/job/batch/instance/worker%201");
+            assertThat(push.contentType).isEqualTo(PrometheusScrapeFormat.TEXT.getContentType());
+            assertThat(push.body).isEqualTo(registry.scrape());
+        }
+    }
+
+    @Test
+    void gzipPush() throws Exception {
+        try (PrometheusPusher pusher = builder().gzip(true).create()) {
+            pusher.push();
+
+            Push push = pushes.poll(5, TimeUnit.SECONDS);
+            assertThat(push.contentEncoding).isEqualTo("gzip");
+            assertThat(push.body).isEqualTo(registry.scrape());
+        }
+    }
+
+    @Test
+    void serverErrorsAreRetried() throws Exception {
+        statuses.add(503);
+        statuses.add(500);
+
+        try (PrometheusPusher pusher = builder().create()) {
+            pusher.push();
+            assertThat(pushes).hasSize(3);
+        }
+    }
+
+    @Test
+    void rejectedPushesAreNotRetried() throws Exception {
+        statuses.add(400);
+
+        try (PrometheusPusher pusher = builder().create()) {
+            assertThrows(IOException.class, pusher::push);
+            assertThat(pushes).hasSize(1);
+        }
+    }
+
+    @Test
+    void retriesAreLimited() {
+        for (int i = 0; i < 10; i++) {
+            statuses.add(503);
+        }
+
+        try (PrometheusPusher pusher = builder().retry(2, Duration.ofMillis(1)).create()) {
+            assertThrows(IOException.class, pusher::push);
+            assertThat(pushes).hasSize(3);
+        }
+    }
+
+    @Test
+    void pushesPeriodicallyUntilClosed() throws Exception {
+        PrometheusPusher pusher = builder().step(Duration.ofMillis(10)).create();
+        assertThat(pushes.poll(5, TimeUnit.SECONDS)).isNotNull();
+        assertThat(pushes.poll(5, TimeUnit.SECONDS)).isNotNull();
+
+        pusher.close();
+        pusher.close();
+        int pushed = pushes.size();
+
+        Thread.sleep(100);
+        assertThat(pushes).hasSize(pushed);
+    }
+
+    @Test
+    void finalPushOnClose() throws Exception {
+        PrometheusPusher pusher = builder().create();
+        registry.counter("processed", "type", "invoice").increment();
+        pusher.close();
+
+        assertThat(pushes).hasSize(1);
+        assertThat(pushes.peek().body).contains("processed_total{type=\"invoice\",} 6.0");
+    }
+
+    private PrometheusPusher.Builder builder() {
+        return PrometheusPusher.builder(registry, "localhost:" + pushgateway.getAddress().getPort(), "batch")
+            .step(Duration.ZERO)
+            .retry(3, Duration.ofMillis(1))
+            .pushOnShutdown(false);
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            String encoding = exchange.getRequestHeaders().getFirst("Content-Encoding");
+            InputStream in = "gzip".equals(encoding) ? new GZIPInputStream(exchange.getRequestBody()) : exchange.getRequestBody();
+            pushes.add(new Push(exchange.getRequestMethod(), exchange.getRequestURI().getRawPath(),
+                exchange.getRequestHeaders().getFirst("Content-Type"), encoding, read(in)));
+
+            Integer status = statuses.poll();
+            exchange.sendResponseHeaders(status == null ? 202 : status, -1);
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private static String read(InputStream in) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        for (int n = in.read(buffer); n != -1; n = in.read(buffer)) {
+            bytes.write(buffer, 0, n);
+        }
+        return new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    private static class Push {
+        final String method;
+        final String path;
+        final String contentType;
+        final String contentEncoding;
+        final String body;
+
+        Push(String method, String path, String contentType, String contentEncoding, String body) {
+            this.method = method;
+            this.path = path;
+            this.contentType = contentType;
+            this.contentEncoding = contentEncoding;
+            this.body = body;
+        }
+    }
+}
@@ -0,0 +1,129 @@
+/**
+ * Copyright 2017 Pivotal Software, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.micrometer.core.instrument.prometheus;
+
+import io.prometheus.client.CollectorRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPInputStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class PrometheusScrapeServerTest {
+    private final PrometheusMeterRegistry registry = new PrometheusMeterRegistry(new CollectorRegistry());
+    private PrometheusScrapeServer server;
+
+    @BeforeEach
+    void start() {
+        registry.counter("requests", "uri", "/api").increment();
+        server = PrometheusScrapeServer.builder(registry).host("localhost").port(0).create();
+    }
+
+    @AfterEach
+    void stop() {
+        server.close();
+    }
+
+    @Test
+    void scrape() throws IOException {
+        HttpURLConnection connection = connect("/metrics");
+        assertThat(connection.getResponseCode()).isEqualTo(200);
+        assertThat(connection.getContentType()).isEqualTo(PrometheusScrapeFormat.TEXT.getContentType());
+        assertThat(read(connection.getInputStream())).isEqualTo(registry.scrape());
+    }
+
+    @Test
+    void gzipScrape() throws IOException {
+        HttpURLConnection connection = connect("/metrics");
+        connection.setRequestProperty("Accept-Encoding", "gzip");
+        assertThat(connection.getHeaderField("Content-Encoding")).isEqualTo("gzip");
+        assertThat(read(new GZIPInputStream(connection.getInputStream()))).isEqualTo(registry.scrape());
+    }
+
+    @Test
+    void protobufScrape() throws IOException {
+        HttpURLConnection connection = connect("/metrics");
+        connection.setRequestProperty("Accept", "application/vnd.google.protobuf;proto=io.prometheus.client.MetricFamily;encoding=delimited");
+        assertThat(connection.getContentType()).isEqualTo(PrometheusScrapeFormat.PROTOBUF.getContentType());
+        assertThat(read(connection.getInputStream())).contains("requests_total");
+    }
+
+    @Test
+    void consecutiveScrapes() throws IOException {
+        for (int i = 0; i < 5; i++) {
+            HttpURLConnection connection = connect("/metrics");
+            assertThat(read(connection.getInputStream())).contains("requests_total{uri=\"/api\",} 1.0");
+        }
+    }
+
+    @Test
+    void filteredScrape() throws IOException {
+        registry.counter("other").increment();
+
+        String scrape = read(connect("/metrics?name%5B%5D=requests_total").getInputStream());
+        assertThat(scrape).contains("requests_total").doesNotContain("other");
+    }
+
+    @Test
+    void unknownPathsAndMethods() throws IOException {
+        assertThat(connect("/other").getResponseCode()).isEqualTo(404);
+
+        HttpURLConnection post = connect("/metrics");
+        post.setRequestMethod("POST");
+        assertThat(post.getResponseCode()).isEqualTo(405);
+    }
+
+    @Test
+    void failedScrapeIsNotServedAsComplete() throws IOException {
+        // enough samples that part of the body is sent before the failing gauge is reached
+        for (int i = 0; i < 1000; i++) {
+            registry.counter("counter" + i).increment();
+        }
+        registry.gauge("broken", this, o -> {
+            throw new IllegalStateException("broken gauge");
+        });
+
+        assertThatThrownBy(() -> read(connect("/metrics").getInputStream())).isInstanceOf(IOException.class);
+
+        // the server keeps serving scrapes after one fails
+        HttpURLConnection other = connect("/other");
+        assertThat(other.getResponseCode()).isEqualTo(404);
+    }
+
+    private HttpURLConnection connect(String path) throws IOException {
+        return (HttpURLConnection) new URL("http://localhost:" + server.getPort() + path).openConnection();
+    }
+
+    private static String read(InputStream in) throws IOException {
+        try (InputStream stream = in) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            for (int n = stream.read(buffer); n != -1; n = stream.read(buffer)) {
+                bytes.write(buffer, 0, n);
+            }
+            return new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+        }
+    }
+}
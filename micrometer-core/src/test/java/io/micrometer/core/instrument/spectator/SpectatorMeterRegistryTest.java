@@ -20,8 +20,14 @@ import com.netflix.spectator.api.Id;
 import com.netflix.spectator.api.Meter;
 import com.netflix.spectator.api.Registry;
 import io.micrometer.core.instrument.Clock;
+import io.micrometer.core.instrument.DistributionSummary;
 import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.stats.hist.BucketCoalescer;
+import io.micrometer.core.instrument.stats.hist.CumulativeHistogram;
+import io.micrometer.core.instrument.stats.hist.Histogram;
+import io.micrometer.core.instrument.stats.hist.NormalHistogram;
 import io.micrometer.core.instrument.stats.quantile.GKQuantiles;
+import io.micrometer.core.instrument.stats.quantile.HistogramQuantiles;
 import org.assertj.core.api.Condition;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
@@ -31,6 +37,7 @@ import java.util.function.Predicate;
 
 import static com.google.common.collect.Streams.stream;
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.offset;
 
 /**
  * @author Jon Schneider
@@ -61,6 +68,84 @@ class SpectatorMeterRegistryTest {
                         "a meter with at least two quantiles where both quantiles have a value"));
     }
 
+    @DisplayName("histogram buckets are registered with a statistic of 'histogram'")
+    @Test
+    void histogram() {
+        SpectatorMeterRegistry registry = new SpectatorMeterRegistry(new DefaultRegistry(), Clock.SYSTEM) {};
+        Registry spectatorRegistry = registry.getSpectatorRegistry();
+
+        registry.summaryBuilder("ds")
+                .histogram(CumulativeHistogram.buckets(CumulativeHistogram.linear(10, 10, 2)))
+                .create()
+                .record(15);
+
+        assertThat(stream(spectatorRegistry)
+                .filter(m -> m.id().name().equals("ds") && stream(m.id().tags()).anyMatch(t -> t.value().equals("histogram")))
+                .flatMap(m -> stream(m.measure()))
+                .map(m -> stream(m.id().tags()).filter(t -> t.key().equals("bucket")).findAny().get().value() + "=" + m.value()))
+                .containsExactlyInAnyOrder("10.0=0.0", "20.0=1.0", "Infinity=1.0");
+    }
+
+    @DisplayName("quantiles derived from a histogram do not record samples into the histogram twice")
+    @Test
+    void histogramQuantiles() {
+        SpectatorMeterRegistry registry = new SpectatorMeterRegistry(new DefaultRegistry(), Clock.SYSTEM) {};
+        Registry spectatorRegistry = registry.getSpectatorRegistry();
+
+        Histogram<Double> summaryHist = CumulativeHistogram.buckets(CumulativeHistogram.linear(0, 10, 10));
+        DistributionSummary ds = registry.summaryBuilder("ds")
+            .histogram(summaryHist)
+            .quantiles(HistogramQuantiles.quantiles(0.5).histogram(summaryHist).create())
+            .create();
+
+        Histogram<Double> timerHist = CumulativeHistogram.buckets(CumulativeHistogram.linear(0, 10, 10), TimeUnit.MILLISECONDS);
+        Timer timer = registry.timerBuilder("timer")
+            .histogram(timerHist)
+            .quantiles(HistogramQuantiles.quantiles(0.5).histogram(timerHist).create())
+            .create();
+
+        for (int i = 1; i <= 80; i++) {
+            ds.record(i);
+            timer.record(i, TimeUnit.MILLISECONDS);
+        }
+
+        assertThat(bucketCount(spectatorRegistry, "ds", "Infinity")).isEqualTo(80);
+        assertThat(quantileValue(spectatorRegistry, "ds", "0.5")).isEqualTo(40, offset(10.0));
+
+        // quantiles of time are reported in seconds, like the histogram they share
+        assertThat(bucketCount(spectatorRegistry, "timer", "Infinity")).isEqualTo(80);
+        assertThat(quantileValue(spectatorRegistry, "timer", "0.5")).isEqualTo(0.04, offset(0.01));
+    }
+
+    @DisplayName("histograms with buckets that aren't numeric are published at full resolution when a coalescer is configured")
+    @Test
+    void coalescingSkipsNonNumericHistograms() {
+        SpectatorMeterRegistry registry = new SpectatorMeterRegistry(new DefaultRegistry(), Clock.SYSTEM) {};
+        Registry spectatorRegistry = registry.getSpectatorRegistry();
+        registry.config().histogramBucketCoalescer(BucketCoalescer.bounds(20));
+
+        registry.summaryBuilder("words").histogram(NormalHistogram.buckets(v -> v > 1 ? "big" : "small")).create().record(5);
+        registry.summaryBuilder("numbers").histogram(CumulativeHistogram.buckets(CumulativeHistogram.linear(10, 10, 4))).create().record(15);
+
+        assertThat(bucketCount(spectatorRegistry, "words", "big")).isEqualTo(1);
+        assertThat(bucketCount(spectatorRegistry, "numbers", "20.0")).isEqualTo(1);
+    }
+
+    private double bucketCount(Registry spectatorRegistry, String name, String bucket) {
+        return stream(spectatorRegistry)
+            .filter(m -> m.id().name().equals(name) && stream(m.id().tags()).anyMatch(t -> t.value().equals("histogram")))
+            .flatMap(m -> stream(m.measure()))
+            .filter(m -> stream(m.id().tags()).anyMatch(t -> t.key().equals("bucket") && t.value().equals(bucket)))
+            .findAny().get().value();
+    }
+
+    private double quantileValue(Registry spectatorRegistry, String name, String quantile) {
+        return stream(spectatorRegistry)
+            .filter(m -> m.id().name().equals(name) && stream(m.id().tags()).anyMatch(t -> t.key().equals("quantile") && t.value().equals(quantile)))
+            .flatMap(m -> stream(m.measure()))
+            .findAny().get().value();
+    }
+
     private Condition<Meter> withNameAndQuantile(String name) {
         Predicate<Id> test = quantilePredicate(name);
         return new Condition<>(m -> test.test(m.id()), "a meter with name `%s` and tag `%s`", name, "quantile");
@@ -0,0 +1,105 @@
+/**
+ * Copyright 2017 Pivotal Software, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.micrometer.core.instrument.stats;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.DoubleConsumer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class AsyncStatsRecorderTest {
+
+    @Test
+    void samplesAreDroppedWhenBufferIsFull() {
+        // without a consumer thread, samples are only drained by flushing
+        try (AsyncStatsRecorder recorder = new AsyncStatsRecorder(4, 1024, TimeUnit.MILLISECONDS.toNanos(1), true, false)) {
+            List<Double> observed = new ArrayList<>();
+            for (int i = 0; i < 6; i++) {
+                recorder.record(observed::add, i);
+            }
+
+            assertThat(recorder.droppedSamples()).isEqualTo(2);
+            assertThat(recorder.pendingSamples()).isEqualTo(4);
+
+            recorder.flush();
+            assertThat(observed).containsExactly(0.0, 1.0, 2.0, 3.0);
+            assertThat(recorder.pendingSamples()).isEqualTo(0);
+
+            // slots are reused once consumed
+            assertThat(recorder.record(observed::add, 6)).isTrue();
+            recorder.beforeRead();
+            assertThat(observed).endsWith(6.0);
+        }
+    }
+
+    @Test
+    void flushStopsAtSamplesPublishedBeforeIt() {
+        try (AsyncStatsRecorder recorder = new AsyncStatsRecorder(4, 1024, TimeUnit.MILLISECONDS.toNanos(1), true, false)) {
+            // a sink that keeps publishing, like meters that are recorded to without pause
+            List<Double> observed = new ArrayList<>();
+            DoubleConsumer sink = new DoubleConsumer() {
+                @Override
+                public void accept(double value) {
+                    observed.add(value);
+                    recorder.record(this, value + 1);
+                }
+            };
+            recorder.record(sink, 0);
+
+            recorder.flush();
+            assertThat(observed).containsExactly(0.0);
+            assertThat(recorder.pendingSamples()).isEqualTo(1);
+
+            recorder.flush();
+            assertThat(observed).containsExactly(0.0, 1.0);
+        }
+    }
+
+    @Test
+    void concurrentRecording() throws InterruptedException {
+        LongAdder count = new LongAdder();
+        DoubleAdder sum = new DoubleAdder();
+
+        try (AsyncStatsRecorder recorder = AsyncStatsRecorder.builder().bufferSize(1024).create()) {
+            List<Thread> threads = new ArrayList<>();
+            for (int t = 0; t < 4; t++) {
+                threads.add(new Thread(() -> {
+                    for (int i = 0; i < 100000; i++) {
+                        // the consumer is the only thread updating the adders
+                        recorder.record(v -> {
+                            count.increment();
+                            sum.add(v);
+                        }, 1);
+                    }
+                }));
+            }
+            threads.forEach(Thread::start);
+            for (Thread thread : threads) {
+                thread.join();
+            }
+
+            recorder.flush();
+            assertThat(count.sum() + recorder.droppedSamples()).isEqualTo(400000);
+            assertThat(sum.sum()).isEqualTo(count.sum());
+        }
+    }
+}
@@ -0,0 +1,113 @@
+/**
+ * Copyright 2017 Pivotal Software, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.micrometer.core.instrument.stats.hist;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class HistogramSnapshotTest {
+
+    @Test
+    void cumulativeHistogramSnapshotHoldsPerBucketCounts() {
+        Histogram<Double> hist = CumulativeHistogram.buckets(CumulativeHistogram.linear(10, 10, 3));
+        hist.observe(5);
+        hist.observe(15);
+        hist.observe(16);
+        hist.observe(100);
+
+        HistogramSnapshot snapshot = hist.snapshot();
+        assertThat(snapshot.bounds()).containsExactly(10, 20, 30, Double.POSITIVE_INFINITY);
+        assertThat(snapshot.counts()).containsExactly(1, 2, 0, 1);
+        assertThat(snapshot.cumulativeCounts()).containsExactly(1, 3, 3, 4);
+        assertThat(snapshot.total()).isEqualTo(4);
+    }
+
+    @Test
+    void normalHistogramSnapshotIsSorted() {
+        Histogram<Double> hist = NormalHistogram.buckets(NormalHistogram.linear(0, 10, 5));
+        hist.observe(35);
+        hist.observe(5);
+        hist.observe(6);
+
+        HistogramSnapshot snapshot = hist.snapshot();
+        assertThat(snapshot.bounds()).containsExactly(10, 40);
+        assertThat(snapshot.counts()).containsExactly(2, 1);
+    }
+
+    @Test
+    void mergeSameLayout() {
+        HistogramSnapshot a = HistogramSnapshot.of(new double[]{1, 2, Double.POSITIVE_INFINITY}, new long[]{1, 2, 3});
+        HistogramSnapshot b = HistogramSnapshot.of(new double[]{1, 2, Double.POSITIVE_INFINITY}, new long[]{4, 5, 6});
+
+        assertThat(a.merge(b)).isEqualTo(HistogramSnapshot.of(new double[]{1, 2, Double.POSITIVE_INFINITY}, new long[]{5, 7, 9}));
+    }
+
+    @Test
+    void mergeDifferentLayoutsTakesUnionOfBounds() {
+        HistogramSnapshot a = HistogramSnapshot.of(new double[]{1, 3, 5}, new long[]{1, 1, 1});
+        HistogramSnapshot b = HistogramSnapshot.of(new double[]{2, 3, 4}, new long[]{2, 2, 2});
+
+        HistogramSnapshot merged = a.merge(b);
+        assertThat(merged.bounds()).containsExactly(1, 2, 3, 4, 5);
+        assertThat(merged.counts()).containsExactly(1, 2, 3, 2, 1);
+        assertThat(merged).isEqualTo(b.merge(a));
+        assertThat(a.merge(HistogramSnapshot.empty())).isSameAs(a);
+    }
+
+    @Test
+    void coalesceIntoCoarserBounds() {
+        HistogramSnapshot snapshot = HistogramSnapshot.of(new double[]{1, 2, 3, 4, Double.POSITIVE_INFINITY},
+                new long[]{1, 2, 3, 4, 5});
+
+        HistogramSnapshot coalesced = snapshot.coalesce(2, 4);
+        assertThat(coalesced.bounds()).containsExactly(2, 4, Double.POSITIVE_INFINITY);
+        assertThat(coalesced.counts()).containsExactly(3, 7, 5);
+        assertThat(coalesced.total()).isEqualTo(snapshot.total());
+
+        // bounds that are not in the original snapshot collect samples from the original buckets below them
+        assertThat(snapshot.coalesce(2.5).counts()).containsExactly(3, 12);
+    }
+
+    @Test
+    void dropEmptyBuckets() {
+        HistogramSnapshot snapshot = HistogramSnapshot.of(new double[]{1, 2, 3, Double.POSITIVE_INFINITY},
+                new long[]{0, 2, 0, 0});
+
+        HistogramSnapshot nonEmpty = snapshot.nonEmpty();
+        assertThat(nonEmpty.bounds()).containsExactly(2, Double.POSITIVE_INFINITY);
+        assertThat(nonEmpty.cumulativeCounts()).containsExactly(2, 2);
+    }
+
+    @Test
+    void binaryRoundTrip() {
+        HistogramSnapshot snapshot = HistogramSnapshot.of(new double[]{0.001, 0.5, 1e9, Double.POSITIVE_INFINITY},
+                new long[]{0, 127, 128, Long.MAX_VALUE});
+
+        byte[] bytes = snapshot.toByteArray();
+        assertThat(HistogramSnapshot.fromByteArray(bytes)).isEqualTo(snapshot);
+        assertThat(HistogramSnapshot.fromByteArray(HistogramSnapshot.empty().toByteArray())).isEqualTo(HistogramSnapshot.empty());
+    }
+
+    @Test
+    void invalidSnapshots() {
+        assertThatThrownBy(() -> HistogramSnapshot.of(new double[]{2, 1}, new long[]{0, 0}))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> HistogramSnapshot.fromByteArray(new byte[]{1, 5, 0}))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+}
@@ -0,0 +1,163 @@
+/**
+ * Copyright 2017 Pivotal Software, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.micrometer.core.instrument.stats.hist;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static io.micrometer.core.instrument.stats.hist.CumulativeHistogram.buckets;
+import static io.micrometer.core.instrument.stats.hist.CumulativeHistogram.linear;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class OffHeapCumulativeHistogramTest {
+
+    @Test
+    void cumulativeCounts() {
+        OffHeapHistogramArena arena = new OffHeapHistogramArena(100);
+        Histogram<Double> hist = buckets(linear(10, 10, 3), arena);
+
+        hist.observe(5);
+        hist.observe(10);
+        hist.observe(25);
+        hist.observe(100);
+
+        assertThat(hist.getBuckets()).extracting(Bucket::getValue).containsExactly(2.0, 2.0, 3.0, 4.0);
+        assertThat(hist.snapshot().counts()).containsExactly(2, 0, 1, 1);
+        assertThat(hist.snapshot()).isEqualTo(onHeap(5, 10, 25, 100).snapshot());
+    }
+
+    @Test
+    void histogramsDoNotShareCounters() {
+        OffHeapHistogramArena arena = new OffHeapHistogramArena(100);
+        Histogram<Double> hist1 = buckets(linear(10, 10, 3), arena);
+        Histogram<Double> hist2 = buckets(linear(10, 10, 3), arena);
+
+        hist1.observe(5);
+
+        assertThat(hist2.snapshot().total()).isEqualTo(0);
+        assertThat(arena.bytesUsed()).isEqualTo(8 * 8);
+    }
+
+    @Test
+    void concurrentObservations() throws InterruptedException {
+        for (boolean useUnsafe : new boolean[]{true, false}) {
+            Histogram<Double> hist = buckets(linear(10, 10, 3), new OffHeapHistogramArena(4, useUnsafe));
+
+            ExecutorService executor = Executors.newFixedThreadPool(4);
+            for (int t = 0; t < 4; t++) {
+                executor.submit(() -> {
+                    for (int i = 0; i < 10000; i++) {
+                        hist.observe(i % 40);
+                    }
+                });
+            }
+            executor.shutdown();
+            assertThat(executor.awaitTermination(10, TimeUnit.SECONDS)).isTrue();
+
+            assertThat(hist.snapshot().total()).isEqualTo(40000);
+        }
+    }
+
+    @Test
+    void releasedCountersAreReusedAndZeroed() {
+        for (boolean useUnsafe : new boolean[]{true, false}) {
+            OffHeapHistogramArena arena = new OffHeapHistogramArena(4, useUnsafe);
+            OffHeapCumulativeHistogram<Double> hist = buckets(linear(10, 10, 3), arena);
+            hist.observe(5);
+
+            hist.release();
+            hist.release();
+            assertThat(arena.bytesUsed()).isEqualTo(0);
+
+            // the arena only has room for one histogram, so this one must reuse the released counters
+            OffHeapCumulativeHistogram<Double> reused = buckets(linear(10, 10, 3), arena);
+            assertThat(reused.snapshot().total()).isEqualTo(0);
+            assertThat(arena.bytesUsed()).isEqualTo(4 * 8);
+
+            // late observations to a released histogram are not counted by the histogram reusing its counters
+            hist.observe(5);
+            assertThat(reused.snapshot().total()).isEqualTo(0);
+        }
+    }
+
+    @Test
+    void observationsRacingWithReleaseAreNotCountedByReuse() throws InterruptedException {
+        for (boolean useUnsafe : new boolean[]{true, false}) {
+            for (int round = 0; round < 50; round++) {
+                OffHeapHistogramArena arena = new OffHeapHistogramArena(4, useUnsafe);
+                OffHeapCumulativeHistogram<Double> hist = buckets(linear(10, 10, 3), arena);
+
+                AtomicBoolean stop = new AtomicBoolean();
+                CountDownLatch started = new CountDownLatch(4);
+                ExecutorService executor = Executors.newFixedThreadPool(4);
+                for (int t = 0; t < 4; t++) {
+                    executor.submit(() -> {
+                        started.countDown();
+                        while (!stop.get()) {
+                            hist.observe(5);
+                        }
+                    });
+                }
+                started.await();
+
+                hist.release();
+                OffHeapCumulativeHistogram<Double> reused = buckets(linear(10, 10, 3), arena);
+
+                stop.set(true);
+                executor.shutdown();
+                assertThat(executor.awaitTermination(10, TimeUnit.SECONDS)).isTrue();
+
+                assertThat(reused.snapshot().total()).isEqualTo(0);
+            }
+        }
+    }
+
+    @Test
+    void arenaFull() {
+        OffHeapHistogramArena arena = new OffHeapHistogramArena(6);
+        buckets(linear(10, 10, 3), arena);
+
+        assertThatThrownBy(() -> buckets(linear(10, 10, 3), arena)).isInstanceOf(IllegalStateException.class);
+    }
+
+    @Test
+    void bytesUsedSelfMetric() {
+        OffHeapHistogramArena arena = new OffHeapHistogramArena(100);
+        buckets(linear(10, 10, 3), arena);
+
+        MeterRegistry registry = new SimpleMeterRegistry();
+        arena.bindTo(registry);
+
+        assertThat(registry.find("histogram.arena.memory.used").gauge())
+                .hasValueSatisfying(g -> assertThat(g.value()).isEqualTo(32.0));
+    }
+
+    private Histogram<Double> onHeap(double... values) {
+        Histogram<Double> hist = buckets(linear(10, 10, 3));
+        for (double value : values) {
+            hist.observe(value);
+        }
+        return hist;
+    }
+}
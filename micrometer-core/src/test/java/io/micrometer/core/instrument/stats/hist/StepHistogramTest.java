@@ -0,0 +1,63 @@
+/**
+ * Copyright 2017 Pivotal Software, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.micrometer.core.instrument.stats.hist;
+
+import io.micrometer.core.instrument.MockClock;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class StepHistogramTest {
+    private final MockClock clock = new MockClock();
+
+    @Test
+    void bucketsReportPreviousInterval() {
+        StepHistogram<Double> hist = new StepHistogram<>(
+                CumulativeHistogram.buckets(CumulativeHistogram.linear(10, 10, 2)), clock, 60000);
+
+        hist.observe(5);
+        hist.observe(15);
+
+        // the current interval is not yet complete
+        assertThat(hist.snapshot().total()).isEqualTo(0);
+
+        clock.addAndGet(1, TimeUnit.MINUTES);
+        assertThat(hist.snapshot().counts()).containsExactly(1, 1, 0);
+        assertThat(hist.getBuckets()).extracting(Bucket::getValue).containsExactly(1.0, 2.0, 2.0);
+
+        hist.observe(25);
+        assertThat(hist.snapshot().counts()).containsExactly(1, 1, 0);
+
+        clock.addAndGet(1, TimeUnit.MINUTES);
+        assertThat(hist.snapshot().counts()).containsExactly(0, 0, 1);
+
+        // the delegate keeps accumulating over the life of the process
+        assertThat(hist.getDelegate().snapshot().counts()).containsExactly(1, 1, 1);
+    }
+
+    @Test
+    void intervalsWithoutActivityAreEmpty() {
+        StepHistogram<Double> hist = new StepHistogram<>(
+                NormalHistogram.buckets(NormalHistogram.linear(0, 10, 2)), clock, 60000);
+
+        hist.observe(5);
+        clock.addAndGet(2, TimeUnit.MINUTES);
+
+        assertThat(hist.snapshot().total()).isEqualTo(0);
+    }
+}
@@ -0,0 +1,80 @@
+/**
+ * Copyright 2017 Pivotal Software, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.micrometer.core.instrument.stats.quantile;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class BatchedQuantilesTest {
+
+    @Test
+    void monitoredQuantilesAreEvaluatedTogether() {
+        Quantiles quantiles = CKMSQuantiles.quantile(0.5, 0.01).quantile(0.99, 0.001).create();
+        for (int i = 1; i <= 1000; i++) {
+            quantiles.observe(i);
+        }
+
+        double[] values = new double[2];
+        assertThat(quantiles.getMonitored(values)).isSameAs(values)
+            .containsExactly(quantiles.get(0.5), quantiles.get(0.99));
+        assertThat(quantiles.getMonitored(new double[1])).hasSize(2);
+    }
+
+    @Test
+    void evaluateOncePerPollingRound() {
+        CountingQuantiles quantiles = new CountingQuantiles();
+        BatchedQuantiles batched = new BatchedQuantiles(quantiles);
+
+        assertThat(batched.get(0)).isEqualTo(0.5);
+        assertThat(batched.get(2)).isEqualTo(0.99);
+        assertThat(batched.get(1)).isEqualTo(0.9);
+        assertThat(quantiles.evaluations.get()).isEqualTo(1);
+
+        // reading a quantile a second time starts a new round
+        batched.get(1);
+        batched.get(0);
+        assertThat(quantiles.evaluations.get()).isEqualTo(2);
+    }
+
+    private static class CountingQuantiles implements Quantiles {
+        final AtomicInteger evaluations = new AtomicInteger();
+
+        @Override
+        public void observe(double value) {
+        }
+
+        @Override
+        public Double get(double percentile) {
+            return percentile;
+        }
+
+        @Override
+        public double[] getMonitored(double[] values) {
+            evaluations.incrementAndGet();
+            return Quantiles.super.getMonitored(values);
+        }
+
+        @Override
+        public Collection<Double> monitored() {
+            return Arrays.asList(0.5, 0.9, 0.99);
+        }
+    }
+}
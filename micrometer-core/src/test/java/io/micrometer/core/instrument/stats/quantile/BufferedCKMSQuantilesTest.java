@@ -0,0 +1,93 @@
+/**
+ * Copyright 2017 Pivotal Software, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.micrometer.core.instrument.stats.quantile;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.offset;
+
+class BufferedCKMSQuantilesTest {
+
+    @Test
+    void partiallyFilledBuffersAreFlushedOnQuery() {
+        Quantiles quantiles = BufferedCKMSQuantiles.quantile(0.5, 0.01).bufferSize(1000).create();
+
+        assertThat(quantiles.get(0.5)).isNaN();
+
+        for (int i = 1; i <= 100; i++) {
+            quantiles.observe(i);
+        }
+
+        assertThat(quantiles.get(0.5)).isEqualTo(50, offset(2.0));
+        assertThat(quantiles.monitored()).containsExactly(0.5);
+    }
+
+    @Test
+    void fewFullBuffersAreLeftForReaders() {
+        BufferedCKMSQuantiles quantiles = BufferedCKMSQuantiles.quantile(0.5, 0.01).stripes(1).bufferSize(10).create();
+
+        for (int i = 1; i <= 30; i++) {
+            quantiles.observe(i);
+        }
+        assertThat(quantiles.pendingBuffers()).isEqualTo(3);
+
+        assertThat(quantiles.get(0.5)).isEqualTo(15, offset(1.0));
+        assertThat(quantiles.pendingBuffers()).isEqualTo(0);
+    }
+
+    @Test
+    void fullBuffersAreMergedOnRecordingWhenNotRead() {
+        BufferedCKMSQuantiles quantiles = BufferedCKMSQuantiles.quantile(0.5, 0.01).stripes(1).bufferSize(10).create();
+
+        for (int i = 1; i <= 100_000; i++) {
+            quantiles.observe(i % 1000);
+            assertThat(quantiles.pendingBuffers()).isLessThanOrEqualTo(BufferedCKMSQuantiles.MAX_PENDING_BUFFERS);
+        }
+
+        assertThat(quantiles.get(0.5)).isEqualTo(500, offset(1000 * 0.02));
+        assertThat(quantiles.pendingBuffers()).isEqualTo(0);
+    }
+
+    @Test
+    void concurrentObservations() throws InterruptedException {
+        Quantiles quantiles = BufferedCKMSQuantiles.quantile(0.5, 0.01).quantile(0.99, 0.001)
+                .stripes(4)
+                .bufferSize(64)
+                .create();
+
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        for (int t = 0; t < 8; t++) {
+            executor.submit(() -> {
+                for (int i = 1; i <= 10000; i++) {
+                    quantiles.observe(i);
+                    if (i % 2500 == 0) {
+                        quantiles.get(0.5);
+                    }
+                }
+            });
+        }
+        executor.shutdown();
+        assertThat(executor.awaitTermination(30, TimeUnit.SECONDS)).isTrue();
+
+        assertThat(quantiles.get(0.5)).isEqualTo(5000, offset(10000 * 0.02));
+        assertThat(quantiles.get(0.99)).isEqualTo(9900, offset(10000 * 0.002));
+    }
+}
@@ -0,0 +1,136 @@
+/**
+ * Copyright 2017 Pivotal Software, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.micrometer.core.instrument.stats.quantile;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.offset;
+
+class DDSketchQuantilesTest {
+
+    @Test
+    void relativeErrorIsBounded() {
+        DDSketchQuantiles sketch = DDSketchQuantiles.quantiles(0.5, 0.99).relativeAccuracy(0.01).create();
+        assertThat(sketch.get(0.5)).isNaN();
+
+        Random random = new Random(7);
+        double[] samples = new double[10000];
+        for (int i = 0; i < samples.length; i++) {
+            // log-normal, spanning several orders of magnitude
+            samples[i] = Math.exp(random.nextGaussian() * 3);
+            sketch.observe(samples[i]);
+        }
+        Arrays.sort(samples);
+
+        for (double q : new double[]{0, 0.01, 0.25, 0.5, 0.9, 0.99, 1}) {
+            double actual = samples[(int) (q * (samples.length - 1))];
+            assertThat(sketch.get(q)).describedAs("q=%s", q).isEqualTo(actual, offset(actual * 0.01));
+        }
+        assertThat(sketch.getCount()).isEqualTo(10000);
+    }
+
+    @Test
+    void negativeAndZeroValues() {
+        DDSketchQuantiles sketch = DDSketchQuantiles.quantiles(0.5).create();
+        for (int i = -50; i <= 50; i++) {
+            sketch.observe(i);
+        }
+        sketch.observe(Double.NaN);
+        sketch.observe(Double.POSITIVE_INFINITY);
+
+        assertThat(sketch.getCount()).isEqualTo(101);
+        assertThat(sketch.get(0)).isEqualTo(-50, offset(0.5));
+        assertThat(sketch.get(0.5)).isEqualTo(0.0);
+        assertThat(sketch.get(0.25)).isEqualTo(-25, offset(0.25));
+        assertThat(sketch.get(1)).isEqualTo(50, offset(0.5));
+    }
+
+    @Test
+    void mergeIsEquivalentToObservingEverything() {
+        DDSketchQuantiles all = DDSketchQuantiles.quantiles(0.5).create();
+        DDSketchQuantiles left = DDSketchQuantiles.quantiles(0.5).create();
+        DDSketchQuantiles right = DDSketchQuantiles.quantiles(0.5).create();
+
+        for (int i = 1; i <= 1000; i++) {
+            all.observe(i);
+            (i % 2 == 0 ? left : right).observe(i);
+        }
+        left.merge(right);
+
+        assertThat(left.getCount()).isEqualTo(1000);
+        assertThat(left.getMonitored(null)).containsExactly(all.get(0.5));
+        assertThat(right.getCount()).isEqualTo(500);
+
+        assertThatThrownBy(() -> left.merge(DDSketchQuantiles.quantiles(0.5).relativeAccuracy(0.05).create()))
+            .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    void lowestBucketsCollapseBeyondBucketLimit() {
+        DDSketchQuantiles sketch = DDSketchQuantiles.quantiles(0.5).relativeAccuracy(0.01).maxBuckets(100).create();
+        for (int i = 0; i < 1000; i++) {
+            sketch.observe(Math.pow(10, i % 10));
+        }
+
+        // 100 buckets cover less than one order of magnitude, so the high quantiles stay accurate
+        assertThat(sketch.get(1)).isEqualTo(1e9, offset(1e9 * 0.01));
+        assertThat(sketch.get(0)).isGreaterThan(1e8);
+        assertThat(sketch.getCount()).isEqualTo(1000);
+    }
+
+    @Test
+    void serializationRoundTrip() {
+        DDSketchQuantiles sketch = DDSketchQuantiles.quantiles(0.5, 0.9).create();
+        for (int i = -100; i < 1000; i++) {
+            sketch.observe(i * 1.5);
+        }
+
+        byte[] bytes = sketch.toByteArray();
+        DDSketchQuantiles decoded = DDSketchQuantiles.fromByteArray(bytes);
+
+        assertThat(decoded.monitored()).containsExactly(0.5, 0.9);
+        assertThat(decoded.getCount()).isEqualTo(sketch.getCount());
+        assertThat(decoded.getMonitored(null)).containsExactly(sketch.getMonitored(null));
+        assertThat(decoded.toByteArray()).isEqualTo(bytes);
+
+        assertThatThrownBy(() -> DDSketchQuantiles.fromByteArray(Arrays.copyOf(bytes, bytes.length / 2)))
+            .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    void invalidRelativeAccuracyIsRejectedWhenDecoding() {
+        byte[] bytes = DDSketchQuantiles.quantiles(0.5).create().toByteArray();
+
+        for (double relativeAccuracy : new double[]{Double.NaN, 0, 1.5}) {
+            // the relative accuracy is encoded as a big-endian double after the version byte
+            byte[] corrupted = bytes.clone();
+            ByteBuffer.wrap(corrupted, 1, 8).putDouble(relativeAccuracy);
+
+            assertThatThrownBy(() -> DDSketchQuantiles.fromByteArray(corrupted))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("relative accuracy");
+        }
+
+        assertThatThrownBy(() -> DDSketchQuantiles.quantiles(0.5).relativeAccuracy(Double.NaN).create())
+            .isInstanceOf(IllegalArgumentException.class);
+    }
+}
@@ -0,0 +1,80 @@
+/**
+ * Copyright 2017 Pivotal Software, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.micrometer.core.instrument.stats.quantile;
+
+import io.micrometer.core.instrument.stats.hist.CumulativeHistogram;
+import io.micrometer.core.instrument.stats.hist.Histogram;
+import io.micrometer.core.instrument.stats.hist.NormalHistogram;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.offset;
+
+class HistogramQuantilesTest {
+
+    @Test
+    void interpolateWithinCumulativeBuckets() {
+        Histogram<Double> hist = CumulativeHistogram.buckets(CumulativeHistogram.linear(0, 10, 10));
+        Quantiles quantiles = HistogramQuantiles.quantiles(0.5, 0.95).histogram(hist).create();
+
+        for (int i = 1; i <= 80; i++) {
+            quantiles.observe(i);
+        }
+
+        // the estimate is never further from the true quantile than the width of a bucket
+        assertThat(quantiles.get(0.5)).isEqualTo(40, offset(10.0));
+        assertThat(quantiles.get(0.95)).isEqualTo(76, offset(10.0));
+        assertThat(quantiles.monitored()).containsExactly(0.5, 0.95);
+        assertThat(quantiles.getMonitored(null)).containsExactly(quantiles.get(0.5), quantiles.get(0.95));
+    }
+
+    @Test
+    void interpolateWithinNormalBuckets() {
+        Histogram<Double> hist = NormalHistogram.buckets(NormalHistogram.linear(0, 10, 10));
+        Quantiles quantiles = HistogramQuantiles.quantiles(0.5).histogram(hist).create();
+
+        for (int i = 1; i <= 80; i++) {
+            quantiles.observe(i);
+        }
+
+        assertThat(quantiles.get(0.5)).isEqualTo(40, offset(10.0));
+    }
+
+    @Test
+    void quantilesBeyondLastFiniteBucketReportThatBound() {
+        Histogram<Double> hist = CumulativeHistogram.buckets(CumulativeHistogram.linear(0, 10, 3));
+        Quantiles quantiles = HistogramQuantiles.quantiles(0.99).histogram(hist).create();
+
+        for (int i = 0; i < 100; i++) {
+            quantiles.observe(1000);
+        }
+
+        assertThat(quantiles.get(0.99)).isEqualTo(20.0);
+    }
+
+    @Test
+    void noSamples() {
+        Histogram<Double> hist = CumulativeHistogram.buckets(CumulativeHistogram.exponential(1, 2, 5));
+        assertThat(HistogramQuantiles.quantiles(0.5).histogram(hist).create().get(0.5)).isNaN();
+    }
+
+    @Test
+    void histogramIsRequired() {
+        assertThatThrownBy(() -> HistogramQuantiles.quantiles(0.5).create())
+                .isInstanceOf(IllegalStateException.class);
+    }
+}
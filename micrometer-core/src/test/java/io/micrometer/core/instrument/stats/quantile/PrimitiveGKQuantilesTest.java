@@ -0,0 +1,145 @@
+/**
+ * Copyright 2017 Pivotal Software, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.micrometer.core.instrument.stats.quantile;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.offset;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class PrimitiveGKQuantilesTest {
+    private static final double[] QUANTILES = {0.01, 0.1, 0.25, 0.5, 0.75, 0.9, 0.95, 0.99};
+
+    @Test
+    void empty() {
+        assertThat(PrimitiveGKQuantiles.quantiles(0.5).create().get(0.5)).isNaN();
+    }
+
+    @Test
+    void invalidEpsilon() {
+        assertThrows(IllegalArgumentException.class, () -> PrimitiveGKQuantiles.quantiles(0.5).error(0).create());
+        assertThrows(IllegalArgumentException.class, () -> PrimitiveGKQuantiles.quantiles(0.5).error(1).create());
+    }
+
+    @Test
+    void minimumAndMaximumAreExact() {
+        PrimitiveGKQuantiles quantiles = PrimitiveGKQuantiles.quantiles(0.5).error(0.05).create();
+        for (int i = 1; i <= 10000; i++) {
+            quantiles.observe(i);
+        }
+
+        assertThat(quantiles.get(0)).isEqualTo(1.0);
+        assertThat(quantiles.get(1)).isEqualTo(10000.0);
+        assertThat(quantiles.getCount()).isEqualTo(10000);
+    }
+
+    @Test
+    void equivalentToGKQuantilesWithinRankError() {
+        for (double epsilon : new double[]{0.01, 0.05, 0.1}) {
+            for (long seed = 0; seed < 3; seed++) {
+                Random random = new Random(seed);
+                double[] gaussian = new double[20000];
+                double[] exponential = new double[20000];
+                double[] ascending = new double[20000];
+                for (int i = 0; i < gaussian.length; i++) {
+                    gaussian[i] = random.nextGaussian() * 100;
+                    exponential[i] = -Math.log(1 - random.nextDouble()) * 10;
+                    ascending[i] = i;
+                }
+
+                assertEquivalent(gaussian, epsilon);
+                assertEquivalent(exponential, epsilon);
+                assertEquivalent(ascending, epsilon);
+            }
+        }
+    }
+
+    @Test
+    void clearForgetsObservations() {
+        PrimitiveGKQuantiles quantiles = PrimitiveGKQuantiles.quantiles(0.5).error(0.05).create();
+        for (int i = 0; i < 1000; i++) {
+            quantiles.observe(1000);
+        }
+        quantiles.clear();
+        assertThat(quantiles.get(0.5)).isNaN();
+
+        for (int i = 0; i < 1000; i++) {
+            quantiles.observe(i);
+        }
+        assertThat(quantiles.get(0.5)).isEqualTo(500, offset(1000 * 0.05 + 1));
+    }
+
+    private void assertEquivalent(double[] samples, double epsilon) {
+        PrimitiveGKQuantiles primitive = new PrimitiveGKQuantiles(Arrays.asList(0.5), epsilon);
+        GKQuantiles boxed = new GKQuantiles(Arrays.asList(0.5), epsilon);
+        for (double sample : samples) {
+            primitive.observe(sample);
+            boxed.observe(sample);
+        }
+
+        double[] sorted = samples.clone();
+        Arrays.sort(sorted);
+        double tolerance = epsilon * samples.length;
+
+        for (double q : QUANTILES) {
+            double rank = q * samples.length;
+            assertThat(rankError(sorted, primitive.get(q), rank))
+                .describedAs("rank error of primitive q=%s at epsilon=%s", q, epsilon)
+                .isLessThanOrEqualTo(tolerance + 1);
+            // the existing implementation can stray slightly past its nominal error bound
+            assertThat(rankError(sorted, boxed.get(q), rank))
+                .describedAs("rank error of boxed q=%s at epsilon=%s", q, epsilon)
+                .isLessThanOrEqualTo(2 * tolerance);
+            assertThat(Math.abs(rankOf(sorted, primitive.get(q)) - rankOf(sorted, boxed.get(q))))
+                .describedAs("rank distance between estimates of q=%s at epsilon=%s", q, epsilon)
+                .isLessThanOrEqualTo(3 * tolerance);
+        }
+    }
+
+    /**
+     * The distance from the target rank to the closest rank the value occupies in the sorted samples.
+     */
+    private double rankError(double[] sorted, double value, double rank) {
+        int lowest = lowerBound(sorted, value);
+        int highest = lowerBound(sorted, Math.nextUp(value));
+        if (rank < lowest) {
+            return lowest - rank;
+        }
+        return Math.max(0, rank - highest);
+    }
+
+    private double rankOf(double[] sorted, double value) {
+        return lowerBound(sorted, value);
+    }
+
+    private int lowerBound(double[] sorted, double value) {
+        int low = 0;
+        int high = sorted.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (sorted[mid] < value) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+}
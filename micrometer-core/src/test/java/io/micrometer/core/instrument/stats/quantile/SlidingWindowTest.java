@@ -0,0 +1,84 @@
+/**
+ * Copyright 2017 Pivotal Software, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.micrometer.core.instrument.stats.quantile;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class SlidingWindowTest {
+    private final SlidingWindow<String> window = new SlidingWindow<>(4);
+
+    @Test
+    void empty() {
+        assertThat(window.isEmpty()).isTrue();
+        assertThat(window.getNewestElement()).isNull();
+        assertThat(window.getOldestElement()).isNull();
+        assertThrows(IndexOutOfBoundsException.class, () -> window.get(0));
+    }
+
+    @Test
+    void elementsAreOrderedFromNewest() {
+        window.add("a");
+        window.add("b", 2);
+        window.add("c", 1);
+
+        assertThat(window.getAll()).containsExactly("c", "b", "a");
+        assertThat(window.getNewestElement()).isEqualTo("c");
+        assertThat(window.getOldestElement()).isEqualTo("a");
+        assertThat(window.getAllLifeTimes()).containsExactly(3, 2, 4);
+        assertThat(window.getSize(1)).isEqualTo(2);
+    }
+
+    @Test
+    void elementsSlideOutOnceTheirLifeTimeIsExceeded() {
+        window.add("a", 2);
+        window.slideWindow(2);
+        assertThat(window.getLifeTime(0)).isEqualTo(0);
+
+        window.slideWindowByOnePosition();
+        assertThat(window.getLifeTime(0)).isEqualTo(-1);
+
+        // out dated elements are only discarded the next time the window slides
+        window.slideWindowByOnePosition();
+        assertThat(window.isEmpty()).isTrue();
+    }
+
+    @Test
+    void growsBeyondInitialCapacityWhileWrapped() {
+        SlidingWindow<Integer> window = new SlidingWindow<>(100);
+        for (int i = 0; i < 1000; i++) {
+            window.add(i, 90);
+            window.slideWindowByOnePosition();
+        }
+        for (int i = 1000; i < 1030; i++) {
+            window.add(i, 60);
+        }
+
+        assertThat(window.getNewestElement()).isEqualTo(1029);
+        assertThat(window.getOldestElement()).isEqualTo(989);
+        assertThat(window.size()).isEqualTo(41);
+        assertThat(window.getLifeTime(window.size() - 1)).isEqualTo(-1);
+    }
+
+    @Test
+    void invalidSizesAndPositions() {
+        assertThrows(RuntimeException.class, () -> window.add("a", 5));
+        assertThrows(RuntimeException.class, () -> window.add("a", -1));
+        assertThrows(RuntimeException.class, () -> window.slideWindow(-1));
+    }
+}
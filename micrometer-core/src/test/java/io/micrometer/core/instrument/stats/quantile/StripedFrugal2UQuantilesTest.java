@@ -0,0 +1,63 @@
+/**
+ * Copyright 2017 Pivotal Software, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.micrometer.core.instrument.stats.quantile;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.offset;
+
+class StripedFrugal2UQuantilesTest {
+
+    @Test
+    void initialEstimateBeforeObservations() {
+        StripedFrugal2UQuantiles quantiles = StripedFrugal2UQuantiles.quantile(0.5, 10).create();
+        assertThat(quantiles.get(0.5)).isEqualTo(10.0);
+        assertThat(quantiles.monitored()).containsExactly(0.5);
+    }
+
+    @Test
+    void concurrentObservationsConvergeOnQuantiles() throws InterruptedException {
+        StripedFrugal2UQuantiles quantiles = StripedFrugal2UQuantiles
+            .quantile(0.5, 0)
+            .quantile(0.9, 0)
+            .stripes(4)
+            .create();
+
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            threads.add(new Thread(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                for (int i = 0; i < 200000; i++) {
+                    quantiles.observe(random.nextInt(1000));
+                }
+            }));
+        }
+        threads.forEach(Thread::start);
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        // frugal estimators drift around the true quantile rather than converging to within a fixed bound
+        assertThat(quantiles.get(0.5)).isEqualTo(500, offset(100.0));
+        assertThat(quantiles.get(0.9)).isEqualTo(900, offset(100.0));
+        assertThat(quantiles.getMonitored(null)).hasSize(2);
+    }
+}
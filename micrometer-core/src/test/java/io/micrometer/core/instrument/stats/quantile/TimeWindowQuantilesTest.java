@@ -0,0 +1,95 @@
+/**
+ * Copyright 2017 Pivotal Software, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.micrometer.core.instrument.stats.quantile;
+
+import io.micrometer.core.instrument.MockClock;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.offset;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class TimeWindowQuantilesTest {
+    private final MockClock clock = new MockClock();
+
+    private final TimeWindowQuantiles quantiles = TimeWindowQuantiles.quantiles(0.5, 0.99)
+        .error(0.01)
+        .clock(clock)
+        .maxAge(Duration.ofMinutes(5))
+        .ageBuckets(5)
+        .create();
+
+    @Test
+    void empty() {
+        assertThat(quantiles.get(0.5)).isNaN();
+    }
+
+    @Test
+    void quantilesAcrossAgeBuckets() {
+        Random random = new Random(1);
+        for (int minute = 0; minute < 5; minute++) {
+            for (int i = 0; i < 2000; i++) {
+                quantiles.observe(random.nextDouble() * 1000);
+            }
+            clock.addAndGet(1, TimeUnit.MINUTES);
+        }
+
+        // the first minute has slid out of the window, the remaining four are uniform in [0, 1000)
+        assertThat(quantiles.get(0.5)).isEqualTo(500, offset(1000 * 0.01 * 2));
+        assertThat(quantiles.get(0.99)).isEqualTo(990, offset(1000 * 0.01 * 2));
+    }
+
+    @Test
+    void oldObservationsAgeOut() {
+        for (int i = 0; i < 1000; i++) {
+            quantiles.observe(1000);
+        }
+        assertThat(quantiles.get(0.5)).isEqualTo(1000.0);
+
+        clock.addAndGet(3, TimeUnit.MINUTES);
+        for (int i = 0; i < 1000; i++) {
+            quantiles.observe(1);
+        }
+        assertThat(quantiles.get(0.99)).isEqualTo(1000.0);
+
+        // rotating without any new observations still expires the first minute
+        clock.addAndGet(2, TimeUnit.MINUTES);
+        assertThat(quantiles.get(0.99)).isEqualTo(1.0);
+
+        clock.addAndGet(5, TimeUnit.MINUTES);
+        assertThat(quantiles.get(0.5)).isNaN();
+    }
+
+    @Test
+    void windowIsIndependentOfObservationRate() {
+        for (int i = 0; i < 100000; i++) {
+            quantiles.observe(i % 100);
+        }
+        clock.addAndGet(5, TimeUnit.MINUTES);
+
+        quantiles.observe(42);
+        assertThat(quantiles.get(0.5)).isEqualTo(42.0);
+    }
+
+    @Test
+    void invalidAgeBuckets() {
+        assertThrows(IllegalArgumentException.class, () -> TimeWindowQuantiles.quantiles(0.5).ageBuckets(0).create());
+    }
+}
@@ -0,0 +1,90 @@
+/**
+ * Copyright 2017 Pivotal Software, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.micrometer.core.instrument.stats.quantile;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.offset;
+
+class WindowSketchQuantilesTest {
+
+    @Test
+    void quantilesWithinFirstWindow() {
+        WindowSketchQuantiles quantiles = WindowSketchQuantiles.quantiles(0.5).error(0.05).create();
+        assertThat(quantiles.get(0.5)).isNaN();
+
+        for (int i = 1; i <= 1000; i++) {
+            quantiles.observe(i);
+        }
+
+        assertThat(quantiles.get(0.5)).isEqualTo(500, offset(1000 * 0.05));
+    }
+
+    @Test
+    void oldSamplesSlideOutOfWindow() {
+        WindowSketchQuantiles quantiles = WindowSketchQuantiles.quantiles(0.5).error(0.1).create();
+        quantiles.setWindowSize(1024);
+
+        for (int i = 0; i < 4096; i++) {
+            quantiles.observe(1000);
+        }
+        for (int i = 0; i < 4096; i++) {
+            quantiles.observe(i % 100);
+        }
+
+        assertThat(quantiles.get(0.5)).isEqualTo(50, offset(100 * 0.1 * 2));
+
+        // the cached summary is rebuilt after new observations
+        for (int i = 0; i < 2048; i++) {
+            quantiles.observe(2000);
+        }
+        assertThat(quantiles.get(0.5)).isEqualTo(2000.0);
+    }
+
+    @Test
+    void estimatesArePinnedOnFixedInput() {
+        WindowSketchQuantiles quantiles = WindowSketchQuantiles.quantiles(0.5, 0.9).error(0.05).create();
+        Random random = new Random(42);
+
+        // the first window is answered by GKQuantiles, as it always has been
+        for (int i = 0; i < 997; i++) {
+            quantiles.observe(random.nextGaussian() * 100);
+        }
+        assertThat(quantiles.get(0.5)).isEqualTo(6.740415207570563);
+        assertThat(quantiles.get(0.9)).isEqualTo(111.66733769661994);
+
+        for (int i = 997; i < 40000; i++) {
+            quantiles.observe(random.nextGaussian() * 100);
+        }
+        assertThat(quantiles.get(0.5)).isEqualTo(-0.3905870297209214);
+        assertThat(quantiles.get(0.9)).isEqualTo(127.71082432636493);
+    }
+
+    @Test
+    void smallWindowWithFineError() {
+        WindowSketchQuantiles quantiles = WindowSketchQuantiles.quantiles(0.5).error(0.01).create();
+        quantiles.setWindowSize(256);
+
+        for (int i = 0; i < 2000; i++) {
+            quantiles.observe(i % 100);
+        }
+
+        assertThat(quantiles.get(0.5)).isEqualTo(50, offset(100 * 0.01 * 2));
+    }
+}
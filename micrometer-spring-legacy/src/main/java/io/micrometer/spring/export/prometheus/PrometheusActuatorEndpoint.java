@@ -15,43 +15,57 @@
  */
 package io.micrometer.spring.export.prometheus;
 
-import io.prometheus.client.CollectorRegistry;
-import io.prometheus.client.exporter.common.TextFormat;
-import org.springframework.boot.actuate.endpoint.AbstractEndpoint;
+import io.micrometer.core.instrument.prometheus.PrometheusMeterRegistry;
+import io.micrometer.core.instrument.prometheus.PrometheusScrapeFormat;
+import org.springframework.boot.actuate.endpoint.mvc.AbstractMvcEndpoint;
 import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
-import java.io.IOException;
-import java.io.StringWriter;
-import java.io.Writer;
+import java.util.Collections;
+import java.util.Set;
 
-import static org.springframework.http.HttpHeaders.CONTENT_TYPE;
+import static org.springframework.http.HttpHeaders.*;
 
 /**
  * Spring Boot Actuator endpoint that outputs Prometheus metrics in a format that
- * can be scraped by the Prometheus server
+ * can be scraped by the Prometheus server. The response body is streamed as samples
+ * are collected rather than rendered into a string first, in text or protobuf format
+ * and optionally gzip-compressed, as negotiated from the request's headers. Any
+ * {@code name[]} request parameters limit the response to the named samples.
  */
 @ConfigurationProperties("endpoints.prometheus")
-public class PrometheusActuatorEndpoint extends AbstractEndpoint<ResponseEntity<String>> {
+public class PrometheusActuatorEndpoint extends AbstractMvcEndpoint {
 
-    private final CollectorRegistry collectorRegistry;
+    private final PrometheusMeterRegistry registry;
 
-    PrometheusActuatorEndpoint(CollectorRegistry collectorRegistry) {
-        super("prometheus");
-        this.collectorRegistry = collectorRegistry;
+    PrometheusActuatorEndpoint(PrometheusMeterRegistry registry) {
+        super("/prometheus", true);
+        this.registry = registry;
     }
 
-    @Override
-    public ResponseEntity<String> invoke() {
-        try {
-            Writer writer = new StringWriter();
-            TextFormat.write004(writer, collectorRegistry.metricFamilySamples());
-            return ResponseEntity.ok()
-                    .header(CONTENT_TYPE, TextFormat.CONTENT_TYPE_004)
-                    .body(writer.toString());
-        } catch (IOException e) {
-            // This actually never happens since StringWriter::write() doesn't throw any IOException
-            throw new RuntimeException("Writing metrics failed", e);
+    @GetMapping
+    public ResponseEntity<StreamingResponseBody> invoke(@RequestHeader(value = ACCEPT, required = false) String accept,
+                                                        @RequestHeader(value = ACCEPT_ENCODING, required = false) String acceptEncoding,
+                                                        @RequestParam(value = "name[]", required = false) Set<String> names) {
+        if (!isEnabled()) {
+            return new ResponseEntity<>(HttpStatus.NOT_FOUND);
         }
+
+        PrometheusScrapeFormat format = PrometheusScrapeFormat.fromAccept(accept);
+        boolean gzip = PrometheusMeterRegistry.acceptsGzip(acceptEncoding);
+
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok()
+                .header(CONTENT_TYPE, format.getContentType())
+                .header(VARY, ACCEPT + ", " + ACCEPT_ENCODING);
+        if (gzip) {
+            response.header(CONTENT_ENCODING, "gzip");
+        }
+        Set<String> includedNames = names == null ? Collections.emptySet() : names;
+        return response.body(out -> registry.scrape(out, format, gzip, includedNames));
     }
 }
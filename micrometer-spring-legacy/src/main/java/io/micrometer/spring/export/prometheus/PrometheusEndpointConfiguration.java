@@ -25,6 +25,6 @@ import org.springframework.context.annotation.Configuration;
 public class PrometheusEndpointConfiguration {
     @Bean
     public PrometheusActuatorEndpoint prometheusEndpoint(PrometheusMeterRegistry registry) {
-        return new PrometheusActuatorEndpoint(registry.getPrometheusRegistry());
+        return new PrometheusActuatorEndpoint(registry);
     }
 }
\ No newline at end of file
@@ -16,11 +16,15 @@
 package io.micrometer.spring.export.prometheus;
 
 import io.micrometer.core.instrument.Clock;
+import io.micrometer.core.instrument.prometheus.ExemplarSampler;
+import io.micrometer.core.instrument.prometheus.PrometheusConfig;
 import io.micrometer.core.instrument.prometheus.PrometheusMeterRegistry;
 import io.prometheus.client.CollectorRegistry;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.core.env.Environment;
 
 @Configuration
 public class PrometheusMetricsConfiguration {
@@ -31,8 +35,15 @@ public class PrometheusMetricsConfiguration {
     }
 
     @Bean
-    PrometheusMeterRegistry prometheusMeterRegistry(CollectorRegistry collectorRegistry, Clock clock) {
-        return new PrometheusMeterRegistry(collectorRegistry, clock);
+    PrometheusMeterRegistry prometheusMeterRegistry(PrometheusConfig config, CollectorRegistry collectorRegistry, Clock clock,
+                                                    ObjectProvider<ExemplarSampler> exemplarSampler) {
+        return new PrometheusMeterRegistry(config, collectorRegistry, clock, exemplarSampler.getIfAvailable());
+    }
+
+    @ConditionalOnMissingBean
+    @Bean
+    PrometheusConfig prometheusConfig(Environment environment) {
+        return environment::getProperty;
     }
 
     @ConditionalOnMissingBean